@@ -0,0 +1,187 @@
+
+package com.fb2pdf.hadoop;
+
+import java.util.Arrays;
+
+/**
+ * Counts occurrences of byte strings (e.g. UTF-8 words) using open
+ * addressing over primitive arrays. Keys are copied into one shared byte
+ * arena, so adding a key allocates nothing once the arrays have grown.
+ * Entries are numbered in insertion order, 0 to size()-1.
+ */
+public class ByteStringCounter
+{
+    private int[]  table;       // entry number + 1, 0 for an empty slot
+    private byte[] arena  = new byte[64 * 1024];
+    private int    arenaLength;
+    private int[]  offsets;
+    private int[]  lengths;
+    private int[]  hashes;
+    private long[] counts;
+    private int    size;
+
+    public ByteStringCounter()
+    {
+        this(1024);
+    }
+
+    public ByteStringCounter(int expected)
+    {
+        int capacity = 16;
+        while(capacity < expected * 2)
+            capacity <<= 1;
+        table = new int[capacity];
+        offsets = new int[capacity / 2];
+        lengths = new int[capacity / 2];
+        hashes = new int[capacity / 2];
+        counts = new long[capacity / 2];
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * @return approximate number of bytes taken by the entries. The arrays
+     *         are kept after {@link #clear()} and may be up to twice as big.
+     */
+    public long memoryUsage()
+    {
+        return arenaLength + size * 28L;
+    }
+
+    public boolean contains(byte[] key, int offset, int length)
+    {
+        int hash = hash(key, offset, length);
+        int mask = table.length - 1;
+        for(int slot = hash & mask; table[slot] != 0; slot = (slot + 1) & mask)
+        {
+            int e = table[slot] - 1;
+            if(hashes[e] == hash && equals(e, key, offset, length))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return number of the key's entry
+     */
+    public int add(byte[] key, int offset, int length, long delta)
+    {
+        int hash = hash(key, offset, length);
+        int mask = table.length - 1;
+        int slot = hash & mask;
+        while(true)
+        {
+            int e = table[slot] - 1;
+            if(e < 0)
+                break;
+            if(hashes[e] == hash && equals(e, key, offset, length))
+            {
+                counts[e] += delta;
+                return e;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        if(arenaLength + length > arena.length)
+        {
+            byte[] grown = new byte[Math.max(arena.length * 2, arenaLength + length)];
+            System.arraycopy(arena, 0, grown, 0, arenaLength);
+            arena = grown;
+        }
+        System.arraycopy(key, offset, arena, arenaLength, length);
+        offsets[size] = arenaLength;
+        lengths[size] = length;
+        hashes[size] = hash;
+        counts[size] = delta;
+        arenaLength += length;
+        table[slot] = ++size;
+
+        if(size * 2 >= table.length)
+            rehash();
+        return size - 1;
+    }
+
+    /**
+     * @return arena holding the keys, see {@link #getOffset(int)}
+     */
+    public byte[] getKeys()
+    {
+        return arena;
+    }
+
+    public int getOffset(int entry)
+    {
+        return offsets[entry];
+    }
+
+    public int getLength(int entry)
+    {
+        return lengths[entry];
+    }
+
+    public long getCount(int entry)
+    {
+        return counts[entry];
+    }
+
+    /**
+     * Removes all entries keeping the allocated arrays.
+     */
+    public void clear()
+    {
+        Arrays.fill(table, 0);
+        size = 0;
+        arenaLength = 0;
+    }
+
+    private boolean equals(int e, byte[] key, int offset, int length)
+    {
+        if(lengths[e] != length)
+            return false;
+        int o = offsets[e];
+        for(int i = 0; i < length; i++)
+        {
+            if(arena[o + i] != key[offset + i])
+                return false;
+        }
+        return true;
+    }
+
+    private void rehash()
+    {
+        int capacity = table.length * 2;
+        table = new int[capacity];
+        int mask = capacity - 1;
+        for(int e = 0; e < size; e++)
+        {
+            int slot = hashes[e] & mask;
+            while(table[slot] != 0)
+                slot = (slot + 1) & mask;
+            table[slot] = e + 1;
+        }
+        offsets = grow(offsets, capacity / 2);
+        lengths = grow(lengths, capacity / 2);
+        hashes = grow(hashes, capacity / 2);
+        long[] c = new long[capacity / 2];
+        System.arraycopy(counts, 0, c, 0, size);
+        counts = c;
+    }
+
+    private int[] grow(int[] a, int length)
+    {
+        int[] grown = new int[length];
+        System.arraycopy(a, 0, grown, 0, size);
+        return grown;
+    }
+
+    private static int hash(byte[] key, int offset, int length)
+    {
+        int h = 0x811c9dc5;
+        for(int i = 0; i < length; i++)
+            h = (h ^ key[offset + i]) * 0x01000193;
+        return h ^ (h >>> 16);
+    }
+}
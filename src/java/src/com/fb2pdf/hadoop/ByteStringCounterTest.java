@@ -0,0 +1,54 @@
+
+package com.fb2pdf.hadoop;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class ByteStringCounterTest
+{
+    private static Map<String, Long> toMap(ByteStringCounter c)
+    {
+        Map<String, Long> m = new HashMap<String, Long>();
+        for(int i = 0; i < c.size(); i++)
+            m.put(new String(c.getKeys(), c.getOffset(i), c.getLength(i)), c.getCount(i));
+        return m;
+    }
+
+    @Test
+    public void countTest()
+    {
+        ByteStringCounter c = new ByteStringCounter(2);
+        Map<String, Long> expected = new HashMap<String, Long>();
+        for(int i = 0; i < 10000; i++)
+        {
+            String key = "w" + (i % 777);
+            byte[] padded = ("xx" + key + "yy").getBytes();
+            c.add(padded, 2, padded.length - 4, i);
+            Long old = expected.get(key);
+            expected.put(key, (old == null ? 0 : old) + i);
+        }
+        assertEquals(777, c.size());
+        assertEquals(expected, toMap(c));
+        assertTrue(c.contains("w776".getBytes(), 0, 4));
+        assertFalse(c.contains("w777".getBytes(), 0, 4));
+    }
+
+    @Test
+    public void clearTest()
+    {
+        ByteStringCounter c = new ByteStringCounter();
+        c.add("a".getBytes(), 0, 1, 1);
+        c.add("b".getBytes(), 0, 1, 1);
+        assertTrue(c.memoryUsage() > 0);
+        c.clear();
+        assertEquals(0, c.size());
+        assertEquals(0, c.memoryUsage());
+        c.add("b".getBytes(), 0, 1, 5);
+        assertEquals(1, c.size());
+        assertEquals(5, c.getCount(0));
+    }
+}
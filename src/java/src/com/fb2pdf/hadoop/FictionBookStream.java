@@ -0,0 +1,211 @@
+
+package com.fb2pdf.hadoop;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+
+/**
+ * Cuts a stream of concatenated FB2 documents into separate books.
+ * Book boundaries are found by the <FictionBook root tag, which can not
+ * appear anywhere else in a well formed book. An XML declaration right
+ * before the root tag is kept with the book so its encoding is honoured.
+ * A stream may start up to MAX_DECLARATION bytes before its split, so the
+ * declaration of the first book is seen even if the split cuts through it.
+ *
+ * Every byte of the underlying stream is read once: the stream of a book
+ * ends as soon as the root tag of the next book is seen.
+ */
+class FictionBookStream
+{
+    private static final byte[] ROOT            = { '<', 'F', 'i', 'c', 't', 'i', 'o', 'n', 'B', 'o', 'o', 'k' };
+    private static final byte[] DECLARATION     = { '<', '?', 'x', 'm', 'l' };
+    static final int            MAX_DECLARATION = 512;
+
+    private final InputStream   in;
+    private final long          start;          // roots before it are of the previous split
+    private final byte[]        buf = new byte[64 * 1024];
+    private int                 pos;
+    private int                 limit;
+    private long                position;       // offset of buf[pos] in the file
+    private boolean             eof;
+
+    private int                 rootMatch;
+    private long                rootStart;      // offset of the last matched root tag
+    private long                contentBeforeRoot;
+    private boolean             rootFound;
+
+    private int                 declMatch;
+    private ByteArrayOutputStream declaration;  // declaration being collected
+    private byte[]              lastDeclaration;
+    private long                declarationEnd = -1;
+    private long                lastContent = -1;   // offset of the last non whitespace byte
+
+    private BookInputStream     current;
+
+    /**
+     * @param in stream positioned at offset start of the file
+     */
+    public FictionBookStream(InputStream in, long start)
+    {
+        this(in, start, start);
+    }
+
+    /**
+     * @param in stream positioned at offset position of the file, the bytes
+     *            up to start are only scanned for an XML declaration
+     * @param start offset of the first root tag that may be returned
+     */
+    public FictionBookStream(InputStream in, long position, long start)
+    {
+        this.in = in;
+        this.position = position;
+        this.start = start;
+    }
+
+    /**
+     * @return offset of the next unread byte
+     */
+    public long getPosition()
+    {
+        return position;
+    }
+
+    /**
+     * Skips the rest of the current book and positions at the next one.
+     *
+     * @param end books whose root tag starts at or after this offset are
+     *            left to the next split
+     * @return stream of the next book or null if there are no more books
+     */
+    public InputStream nextBook(long end) throws IOException
+    {
+        if(current != null)
+        {
+            current.finished = true;
+            current = null;
+        }
+        while(!rootFound || rootStart < start)
+        {
+            rootFound = false;
+            if(!fill())
+                return null;
+            scan(buf[pos++]);
+        }
+        rootFound = false;
+        if(rootStart >= end)
+            return null;
+
+        ByteArrayOutputStream prefix = new ByteArrayOutputStream();
+        if(lastDeclaration != null && contentBeforeRoot <= declarationEnd)
+        {
+            prefix.write(lastDeclaration);
+            prefix.write('\n');
+        }
+        prefix.write(ROOT);
+        current = new BookInputStream();
+        return new SequenceInputStream(new ByteArrayInputStream(prefix.toByteArray()), current);
+    }
+
+    private boolean fill() throws IOException
+    {
+        if(pos < limit)
+            return true;
+        if(eof)
+            return false;
+        int n = in.read(buf);
+        if(n <= 0)
+        {
+            eof = true;
+            return false;
+        }
+        pos = 0;
+        limit = n;
+        return true;
+    }
+
+    /**
+     * Updates matching state with the byte at offset position and advances.
+     */
+    private void scan(byte b)
+    {
+        if(b == ROOT[rootMatch])
+        {
+            if(rootMatch == 0)
+                contentBeforeRoot = lastContent;
+            if(++rootMatch == ROOT.length)
+            {
+                rootMatch = 0;
+                rootFound = true;
+                rootStart = position - ROOT.length + 1;
+            }
+        } else
+        {
+            rootMatch = b == ROOT[0] ? 1 : 0;
+            if(rootMatch == 1)
+                contentBeforeRoot = lastContent;
+        }
+
+        if(declaration != null)
+        {
+            declaration.write(b);
+            int size = declaration.size();
+            if(b == '>' && size > DECLARATION.length + 1)
+            {
+                byte[] d = declaration.toByteArray();
+                if(d[size - 2] == '?')
+                {
+                    lastDeclaration = d;
+                    declarationEnd = position;
+                    declaration = null;
+                }
+            } else if(size > MAX_DECLARATION)
+                declaration = null;
+        } else if(b == DECLARATION[declMatch])
+        {
+            if(++declMatch == DECLARATION.length)
+            {
+                declMatch = 0;
+                declaration = new ByteArrayOutputStream();
+                declaration.write(DECLARATION, 0, DECLARATION.length);
+            }
+        } else
+            declMatch = b == DECLARATION[0] ? 1 : 0;
+
+        if(b != ' ' && b != '\t' && b != '\r' && b != '\n')
+            lastContent = position;
+        position++;
+    }
+
+    /**
+     * Bytes of one book, ending right after the root tag of the next one.
+     */
+    private class BookInputStream extends InputStream
+    {
+        boolean finished;
+
+        @Override
+        public int read() throws IOException
+        {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            if(finished || rootFound || !fill())
+                return -1;
+            int n = 0;
+            while(n < len && pos < limit && !rootFound)
+            {
+                byte c = buf[pos++];
+                scan(c);
+                b[off + n++] = c;
+            }
+            return n;
+        }
+    }
+}
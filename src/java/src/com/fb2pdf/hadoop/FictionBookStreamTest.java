@@ -0,0 +1,126 @@
+
+package com.fb2pdf.hadoop;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+public class FictionBookStreamTest
+{
+    private static final String[] BOOKS = { "test_data/fictionbook_2_1.fb2",
+            "test_data/hamake/gesse_german_siddhartha.fb2", "test_data/fictionbook_2_1.fb2" };
+
+    private int countRecords(InputStream in) throws IOException
+    {
+        OnDemandXMLParser p = new OnDemandXMLParser(in);
+        int i = 0;
+        while(p.next())
+            i++;
+        p.stop();
+        return i;
+    }
+
+    /**
+     * Reads books of the split the same way XMLTextReader does.
+     */
+    private int countRecords(byte[] data, int start, int end) throws IOException
+    {
+        FictionBookStream books = open(data, start);
+        int i = 0;
+        InputStream book;
+        while((book = books.nextBook(end)) != null)
+            i += countRecords(book);
+        return i;
+    }
+
+    private FictionBookStream open(byte[] data, int start)
+    {
+        int position = Math.max(0, start - FictionBookStream.MAX_DECLARATION);
+        return new FictionBookStream(new ByteArrayInputStream(data, position, data.length - position), position,
+                start);
+    }
+
+    /**
+     * @return texts of the books of the split
+     */
+    private List<String> readTexts(byte[] data, int start, int end) throws IOException
+    {
+        FictionBookStream books = open(data, start);
+        List<String> texts = new ArrayList<String>();
+        InputStream book;
+        while((book = books.nextBook(end)) != null)
+        {
+            OnDemandXMLParser p = new OnDemandXMLParser(book);
+            while(p.next())
+            {
+                if(p.getText().trim().length() > 0)
+                    texts.add(p.getText().trim());
+            }
+            p.stop();
+        }
+        return texts;
+    }
+
+    @Test
+    public void testSplits() throws IOException
+    {
+        int expected = 0;
+        ByteArrayOutputStream all = new ByteArrayOutputStream();
+        for(String file : BOOKS)
+        {
+            FileInputStream in = new FileInputStream(file);
+            byte[] book = IOUtils.toByteArray(in);
+            in.close();
+            expected += countRecords(new ByteArrayInputStream(book));
+            all.write(book);
+        }
+        byte[] data = all.toByteArray();
+
+        assertEquals(expected, countRecords(data, 0, data.length));
+        for(int mid = 1; mid < data.length; mid += data.length / 11)
+            assertEquals(expected, countRecords(data, 0, mid) + countRecords(data, mid, data.length));
+    }
+
+    @Test
+    public void testPosition() throws IOException
+    {
+        byte[] data = "<?xml version=\"1.0\"?>\n<FictionBook><body/></FictionBook>".getBytes("UTF-8");
+        FictionBookStream books = new FictionBookStream(new ByteArrayInputStream(data), 0);
+        InputStream book = books.nextBook(data.length);
+        assertNotNull(book);
+        assertEquals("<?xml version=\"1.0\"?>\n<FictionBook><body/></FictionBook>", new String(IOUtils
+                .toByteArray(book), "UTF-8"));
+        assertEquals(data.length, books.getPosition());
+        assertNull(books.nextBook(data.length));
+    }
+
+    @Test
+    public void testDeclarationInPreviousSplit() throws IOException
+    {
+        ByteArrayOutputStream all = new ByteArrayOutputStream();
+        all.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<FictionBook><body><p>one</p></body></FictionBook>\n"
+                .getBytes("UTF-8"));
+        all.write("<?xml version=\"1.0\" encoding=\"windows-1251\"?>\n<FictionBook><body><p>\u0441\u043b\u043e\u0432\u043e</p></body></FictionBook>\n"
+                .getBytes("windows-1251"));
+        byte[] data = all.toByteArray();
+
+        List<String> expected = readTexts(data, 0, data.length);
+        assertEquals("[one, \u0441\u043b\u043e\u0432\u043e]", expected.toString());
+        // every split, many of them through a declaration
+        for(int mid = 1; mid < data.length; mid++)
+        {
+            List<String> texts = readTexts(data, 0, mid);
+            texts.addAll(readTexts(data, mid, data.length));
+            assertEquals("split at " + mid, expected, texts);
+        }
+    }
+}
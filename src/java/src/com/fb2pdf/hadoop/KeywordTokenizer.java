@@ -0,0 +1,237 @@
+
+package com.fb2pdf.hadoop;
+
+import org.apache.hadoop.io.Text;
+
+/**
+ * Splits UTF-8 text into lowercase words without creating any objects per
+ * word. Letters are classified and folded to lowercase while decoding, with
+ * fast paths for ASCII and Russian. Words are written into the Text passed by
+ * the caller, which is expected to be reused.
+ */
+public class KeywordTokenizer
+{
+    private byte[]                    bytes;
+    private int                       pos;
+    private int                       end;
+    private char[]                    chars = new char[64];
+    private int                       length;
+    private byte[]                    out   = new byte[256];
+    private int                       outLength;
+    private final RussianLightStemmer stemmer;
+
+    /**
+     * @param stem strip Russian word endings
+     */
+    public KeywordTokenizer(boolean stem)
+    {
+        stemmer = stem ? new RussianLightStemmer() : null;
+    }
+
+    public void reset(Text text)
+    {
+        reset(text.getBytes(), 0, text.getLength());
+    }
+
+    public void reset(byte[] bytes, int offset, int length)
+    {
+        this.bytes = bytes;
+        this.pos = offset;
+        this.end = offset + length;
+    }
+
+    /**
+     * @return length in characters of the last word returned by
+     *         {@link #next(Text)}
+     */
+    public int getLength()
+    {
+        return length;
+    }
+
+    /**
+     * @return UTF-8 bytes of the last word, valid until the next call to
+     *         {@link #next()}
+     */
+    public byte[] getBytes()
+    {
+        return out;
+    }
+
+    public int getByteLength()
+    {
+        return outLength;
+    }
+
+    /**
+     * Stores the next word in token.
+     *
+     * @return false if there are no more words
+     */
+    public boolean next(Text token)
+    {
+        if(!next())
+            return false;
+        token.set(out, 0, outLength);
+        return true;
+    }
+
+    /**
+     * Advances to the next word.
+     *
+     * @return false if there are no more words
+     */
+    public boolean next()
+    {
+        length = 0;
+        while(pos < end)
+        {
+            int b = bytes[pos] & 0xff;
+            int c;
+            if(b < 0x80)
+            {
+                pos++;
+                if(b >= 'a' && b <= 'z')
+                {
+                    append((char) b);
+                    continue;
+                }
+                if(b >= 'A' && b <= 'Z')
+                {
+                    append((char) (b + ('a' - 'A')));
+                    continue;
+                }
+                c = -1;
+            } else
+                c = decode(b);
+
+            if(c >= 0 && Character.isLetter(c))
+                appendLowerCase(c);
+            else if(length > 0)
+                break;
+        }
+        if(length == 0)
+            return false;
+        if(stemmer != null)
+            length = stemmer.stem(chars, length);
+        outLength = encode();
+        return true;
+    }
+
+    /**
+     * Decodes a multibyte sequence starting at pos and advances past it.
+     *
+     * @return code point or -1 for a malformed sequence
+     */
+    private int decode(int b)
+    {
+        int n;
+        int c;
+        if((b & 0xe0) == 0xc0)
+        {
+            n = 2;
+            c = b & 0x1f;
+        } else if((b & 0xf0) == 0xe0)
+        {
+            n = 3;
+            c = b & 0x0f;
+        } else if((b & 0xf8) == 0xf0)
+        {
+            n = 4;
+            c = b & 0x07;
+        } else
+        {
+            pos++;
+            return -1;
+        }
+        if(pos + n > end)
+        {
+            pos++;
+            return -1;
+        }
+        for(int i = 1; i < n; i++)
+        {
+            int cb = bytes[pos + i] & 0xff;
+            if((cb & 0xc0) != 0x80)
+            {
+                pos++;
+                return -1;
+            }
+            c = (c << 6) | (cb & 0x3f);
+        }
+        pos += n;
+        return c;
+    }
+
+    private void appendLowerCase(int c)
+    {
+        if(c >= 0x410 && c <= 0x42f) // capital Russian letters
+            append((char) (c + 0x20));
+        else if(c >= 0x430 && c <= 0x44f)
+            append((char) c);
+        else if(c >= 0x400 && c <= 0x40f) // capital YO and other Cyrillic letters
+            append((char) (c + 0x50));
+        else
+        {
+            c = Character.toLowerCase(c);
+            if(Character.isSupplementaryCodePoint(c))
+            {
+                ensureChars(2);
+                length += Character.toChars(c, chars, length);
+            } else
+                append((char) c);
+        }
+    }
+
+    private void append(char c)
+    {
+        ensureChars(1);
+        chars[length++] = c;
+    }
+
+    private void ensureChars(int n)
+    {
+        if(length + n > chars.length)
+        {
+            char[] grown = new char[chars.length * 2];
+            System.arraycopy(chars, 0, grown, 0, length);
+            chars = grown;
+        }
+    }
+
+    /**
+     * Encodes the word into out.
+     *
+     * @return number of bytes
+     */
+    private int encode()
+    {
+        if(length * 4 > out.length)
+            out = new byte[length * 4];
+        int n = 0;
+        for(int i = 0; i < length; i++)
+        {
+            int c = chars[i];
+            if(c < 0x80)
+                out[n++] = (byte) c;
+            else if(c < 0x800)
+            {
+                out[n++] = (byte) (0xc0 | (c >> 6));
+                out[n++] = (byte) (0x80 | (c & 0x3f));
+            } else if(Character.isHighSurrogate(chars[i]) && i + 1 < length)
+            {
+                c = Character.toCodePoint(chars[i], chars[++i]);
+                out[n++] = (byte) (0xf0 | (c >> 18));
+                out[n++] = (byte) (0x80 | ((c >> 12) & 0x3f));
+                out[n++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                out[n++] = (byte) (0x80 | (c & 0x3f));
+            } else
+            {
+                out[n++] = (byte) (0xe0 | (c >> 12));
+                out[n++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                out[n++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+        return n;
+    }
+}
@@ -0,0 +1,74 @@
+
+package com.fb2pdf.hadoop;
+
+import static org.junit.Assert.*;
+
+import java.io.UnsupportedEncodingException;
+
+import org.junit.Test;
+
+public class KeywordTokenizerTest
+{
+    private static String token(KeywordTokenizer kt) throws UnsupportedEncodingException
+    {
+        return new String(kt.getBytes(), 0, kt.getByteLength(), "UTF-8");
+    }
+
+    private String tokens(String s, boolean stem) throws UnsupportedEncodingException
+    {
+        KeywordTokenizer kt = new KeywordTokenizer(stem);
+        byte[] bytes = s.getBytes("UTF-8");
+        kt.reset(bytes, 0, bytes.length);
+        StringBuilder sb = new StringBuilder();
+        while(kt.next())
+        {
+            if(sb.length() > 0)
+                sb.append(' ');
+            sb.append(token(kt));
+            assertEquals(token(kt).length(), kt.getLength());
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void marginalCasesTest() throws UnsupportedEncodingException
+    {
+        assertEquals("", tokens("", false));
+        assertEquals("", tokens("   ! 123", false));
+        assertEquals("", tokens(",,,,", false));
+        assertEquals("a", tokens("a", false));
+    }
+
+    @Test
+    public void lowerCaseTest() throws UnsupportedEncodingException
+    {
+        assertEquals("hello world", tokens("'Hello',  WORLD!", false));
+        assertEquals("\u0451\u0436 \u043f\u0440\u0438\u0432\u0435\u0442 stra\u00dfe \u00e9t\u00e9",
+                tokens("\u0401\u0416 \u00ab\u041f\u0440\u0438\u0432\u0435\u0442\u00bb Stra\u00dfe \u00c9T\u00c9", false));
+    }
+
+    @Test
+    public void malformedTest() throws UnsupportedEncodingException
+    {
+        KeywordTokenizer kt = new KeywordTokenizer(false);
+        byte[] bytes = { 'a', 'b', (byte) 0xd0, 'c', (byte) 0xff, 'd', (byte) 0xd0 };
+        kt.reset(bytes, 0, bytes.length);
+        assertTrue(kt.next());
+        assertEquals("ab", token(kt));
+        assertTrue(kt.next());
+        assertEquals("c", token(kt));
+        assertTrue(kt.next());
+        assertEquals("d", token(kt));
+        assertFalse(kt.next());
+    }
+
+    @Test
+    public void stemTest() throws UnsupportedEncodingException
+    {
+        // kniga, knigi, knigoj, knigami -> knig
+        assertEquals("\u043a\u043d\u0438\u0433 \u043a\u043d\u0438\u0433 \u043a\u043d\u0438\u0433 \u043a\u043d\u0438\u0433",
+                tokens("\u041a\u043d\u0438\u0433\u0430 \u043a\u043d\u0438\u0433\u0438 \u043a\u043d\u0438\u0433\u043e\u0439 \u043a\u043d\u0438\u0433\u0430\u043c\u0438", true));
+        // short words and other languages are left alone
+        assertEquals("\u0434\u043e\u043c books", tokens("\u0434\u043e\u043c books", true));
+    }
+}
@@ -0,0 +1,249 @@
+/**
+ * Pull parser which returns (when asked) next pair of XML path and
+ * concatenation of text elements. Parsing happens on the caller's thread,
+ * paths are interned in a tree shared by all elements with the same path,
+ * and the text buffer is reused between elements.
+ */
+
+package com.fb2pdf.hadoop;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+class OnDemandXMLParser
+{
+    public static final String XML_PATH_SEPARATOR = "/";
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final XMLInputFactory factory;
+    static
+    {
+        factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.FALSE);
+    }
+
+    /**
+     * Node of the path tree. Each distinct path is built and encoded once.
+     */
+    static class PathNode
+    {
+        final String                path;
+        final byte[]                bytes;
+        final PathNode              parent;
+        final Map<String, PathNode> children = new HashMap<String, PathNode>();
+
+        PathNode(PathNode parent, String path)
+        {
+            this.parent = parent;
+            this.path = path;
+            this.bytes = path.getBytes(UTF8);
+        }
+
+        PathNode child(String name)
+        {
+            PathNode n = children.get(name);
+            if(n == null)
+            {
+                n = new PathNode(this, path.length() == 0 ? name : path + XML_PATH_SEPARATOR + name);
+                children.put(name, n);
+            }
+            return n;
+        }
+    }
+
+    private XMLStreamReader reader;
+    private final PathNode root = new PathNode(null, "");
+    private PathNode       current = root;
+    private PathNode       last;
+    private char[]         text = new char[1024];
+    private int            textLength;
+    private int            lastTextLength;
+    private boolean        done;
+    private Set<String>    excluded = new HashSet<String>();
+    private String         stopElement;
+
+    public OnDemandXMLParser(InputStream in) throws IOException
+    {
+        try
+        {
+            reader = factory.createXMLStreamReader(in);
+        } catch(XMLStreamException e)
+        {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Elements with these paths (and everything inside them) are skipped
+     * without buffering their text and are not returned by {@link #next()}.
+     */
+    public void setExcluded(Collection<String> paths)
+    {
+        excluded = new HashSet<String>(paths);
+    }
+
+    /**
+     * Parsing stops right after the first element with this path ends, the
+     * rest of the document is not read.
+     */
+    public void setStopElement(String path)
+    {
+        stopElement = path;
+    }
+
+    /**
+     * Advances to the end of the next element.
+     *
+     * @return false at the end of the document
+     */
+    public boolean next() throws IOException
+    {
+        if(done)
+            return false;
+        try
+        {
+            while(reader.hasNext())
+            {
+                switch(reader.next())
+                {
+                case XMLStreamConstants.START_ELEMENT:
+                    current = current.child(qualifiedName());
+                    if(!excluded.isEmpty() && excluded.contains(current.path))
+                    {
+                        skipElement();
+                        current = current.parent;
+                    }
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    appendText();
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    last = current;
+                    lastTextLength = textLength;
+                    textLength = 0;
+                    current = current.parent;
+                    // nothing after the root element is read, so trailing
+                    // bytes (e.g. the next concatenated book) are ignored
+                    if(current == root || (stopElement != null && stopElement.equals(last.path)))
+                        done = true;
+                    return true;
+                default:
+                    break;
+                }
+            }
+        } catch(XMLStreamException e)
+        {
+            done = true;
+            throw new IOException(e);
+        }
+        done = true;
+        return false;
+    }
+
+    /**
+     * Consumes events up to the end of the current element without
+     * looking at the text.
+     */
+    private void skipElement() throws XMLStreamException
+    {
+        int depth = 1;
+        while(depth > 0)
+        {
+            switch(reader.next())
+            {
+            case XMLStreamConstants.START_ELEMENT:
+                depth++;
+                break;
+            case XMLStreamConstants.END_ELEMENT:
+                depth--;
+                break;
+            default:
+                break;
+            }
+        }
+    }
+
+    private String qualifiedName()
+    {
+        String prefix = reader.getPrefix();
+        if(prefix == null || prefix.length() == 0)
+            return reader.getLocalName();
+        return prefix + ":" + reader.getLocalName();
+    }
+
+    private void appendText()
+    {
+        int length = reader.getTextLength();
+        if(textLength + length > text.length)
+        {
+            char[] grown = new char[Math.max(text.length * 2, textLength + length)];
+            System.arraycopy(text, 0, grown, 0, textLength);
+            text = grown;
+        }
+        System.arraycopy(reader.getTextCharacters(), reader.getTextStart(), text, textLength, length);
+        textLength += length;
+    }
+
+    /**
+     * @return path of the last ended element, e.g. FictionBook/body/section/p.
+     *         The same String instance is returned for the same path.
+     */
+    public String getPath()
+    {
+        return last.path;
+    }
+
+    /**
+     * @return UTF-8 encoding of {@link #getPath()}, must not be modified
+     */
+    public byte[] getPathBytes()
+    {
+        return last.bytes;
+    }
+
+    /**
+     * @return buffer holding the text collected since the previous element
+     *         end. Valid until the next call to {@link #next()}.
+     */
+    public char[] getTextCharacters()
+    {
+        return text;
+    }
+
+    public int getTextLength()
+    {
+        return lastTextLength;
+    }
+
+    public String getText()
+    {
+        return new String(text, 0, lastTextLength);
+    }
+
+    public void stop()
+    {
+        done = true;
+        try
+        {
+            reader.close();
+        } catch(XMLStreamException e)
+        {
+            // nothing to do, the stream is closed by the owner
+        }
+    }
+}
@@ -0,0 +1,97 @@
+
+package com.fb2pdf.hadoop;
+
+import static org.junit.Assert.*;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class OnDemandXMLParserTest
+{
+
+    @Test(expected=IOException.class) 
+    public void testBroken() throws IOException
+    {
+        FileInputStream fs = new FileInputStream("test_data/broken_fictionbook_2_1.fb2");
+        OnDemandXMLParser p = new OnDemandXMLParser(fs);
+        while(p.next())
+        {
+            assertNotNull(p.getPath());
+            assertNotNull(p.getText());
+        }
+        p.stop();
+    }
+
+    /**
+     * This test ensures that we are not parsing whole file at once. 
+     * The XML is broken down the road, but we do not see as we only get first few elements.
+     * @throws IOException
+     */
+    public void testOnDemand() throws IOException
+    {
+        FileInputStream fs = new FileInputStream("test_data/broken_fictionbook_2_1.fb2");
+        OnDemandXMLParser p = new OnDemandXMLParser(fs);
+        assertTrue(p.next());
+        assertNotNull(p.getPath());
+        p.stop();
+    }
+
+    @Test
+    public void testGood() throws IOException
+    {
+        FileInputStream fs = new FileInputStream("test_data/fictionbook_2_1.fb2");
+        OnDemandXMLParser p = new OnDemandXMLParser(fs);
+        int i = 0;
+        while(p.next())
+        {
+            i++;
+            assertNotNull(p.getPath());
+            assertNotNull(p.getText());
+
+            if(i == 19)
+            {
+                assertEquals("FictionBook/description/title-info/lang", p.getPath());
+                assertEquals("ru", p.getText().trim());
+            }
+        }
+        assertEquals(156, i);
+        p.stop();
+    }
+
+    @Test
+    public void testExcluded() throws IOException
+    {
+        FileInputStream fs = new FileInputStream("test_data/fictionbook_2_1.fb2");
+        OnDemandXMLParser p = new OnDemandXMLParser(fs);
+        p.setExcluded(Collections.singleton("FictionBook/binary"));
+        int i = 0;
+        while(p.next())
+        {
+            i++;
+            assertFalse(p.getPath().startsWith("FictionBook/binary"));
+        }
+        assertEquals(151, i);
+        p.stop();
+    }
+
+    /**
+     * Parsing stops when description ends, so the broken part of the
+     * document is never reached.
+     */
+    @Test
+    public void testStopElement() throws IOException
+    {
+        FileInputStream fs = new FileInputStream("test_data/broken_fictionbook_2_1.fb2");
+        OnDemandXMLParser p = new OnDemandXMLParser(fs);
+        p.setStopElement("FictionBook/description");
+        String last = null;
+        while(p.next())
+            last = p.getPath();
+        assertEquals("FictionBook/description", last);
+        p.stop();
+    }
+
+}
@@ -0,0 +1,64 @@
+
+package com.fb2pdf.hadoop;
+
+/**
+ * Light stemmer for Russian which only strips the most common noun and
+ * adjective endings, so different cases of the same word are counted as one
+ * keyword. Works in place on lowercase characters.
+ */
+public class RussianLightStemmer
+{
+    private static final int      MIN_STEM = 3;
+
+    /** Longest endings first */
+    private static final String[] ENDINGS  = {
+            "\u0438\u044f\u043c\u0438", "\u043e\u044f\u043c\u0438", "\u044f\u043c\u0438", "\u0430\u043c\u0438", "\u0438\u0435\u0439", "\u0438\u044f\u043c",
+            "\u0438\u0435\u043c", "\u0438\u044f\u0445", "\u043e\u0433\u043e", "\u0435\u0433\u043e", "\u043e\u043c\u0443", "\u0435\u043c\u0443",
+            "\u0438\u043c\u0438", "\u044b\u043c\u0438", "\u0435\u0432", "\u043e\u0432", "\u0438\u0435", "\u044c\u0435",
+            "\u0435\u0438", "\u0438\u0438", "\u0435\u0439", "\u043e\u0439", "\u0438\u0439", "\u044b\u0439",
+            "\u044b\u0435", "\u043e\u0435", "\u0430\u044f", "\u044f\u044f", "\u0443\u044e", "\u044e\u044e",
+            "\u043e\u044e", "\u0435\u044e", "\u044f\u043c", "\u0435\u043c", "\u0430\u043c", "\u043e\u043c",
+            "\u0430\u0445", "\u044f\u0445", "\u0438\u044e", "\u044c\u044e", "\u0438\u044f", "\u044c\u044f",
+            "\u0438\u043c", "\u044b\u043c", "\u0438\u0445", "\u044b\u0445", "\u0430", "\u0435",
+            "\u0438", "\u0439", "\u043e", "\u0443", "\u044b", "\u044c",
+            "\u044e", "\u044f"                    };
+
+    private static final char[][] endings;
+    static
+    {
+        endings = new char[ENDINGS.length][];
+        for(int i = 0; i < ENDINGS.length; i++)
+            endings[i] = ENDINGS[i].toCharArray();
+    }
+
+    /**
+     * @return new length of the word, which is left unchanged unless it ends
+     *         with a Cyrillic letter
+     */
+    public int stem(char[] s, int len)
+    {
+        if(len <= MIN_STEM || !isCyrillic(s[len - 1]))
+            return len;
+        for(char[] ending : endings)
+        {
+            if(len - ending.length >= MIN_STEM && endsWith(s, len, ending))
+                return len - ending.length;
+        }
+        return len;
+    }
+
+    private static boolean isCyrillic(char c)
+    {
+        return c >= '\u0400' && c <= '\u04ff';
+    }
+
+    private static boolean endsWith(char[] s, int len, char[] ending)
+    {
+        for(int i = ending.length - 1, j = len - 1; i >= 0; i--, j--)
+        {
+            if(s[j] != ending[i])
+                return false;
+        }
+        return true;
+    }
+}
@@ -6,6 +6,7 @@ import java.io.IOException;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
 import org.apache.hadoop.mapred.*;
 
 /**
@@ -18,15 +19,46 @@ import org.apache.hadoop.mapred.*;
  */
 public class XMLTextInputFormat extends FileInputFormat<Text, Text> implements JobConfigurable
 {
+    /** Comma separated element paths which are skipped with their content */
+    public static final String EXCLUDED_ELEMENTS = "fb2.xmlreader.excluded";
+    /** Element path after which the rest of the document is not parsed */
+    public static final String STOP_ELEMENT      = "fb2.xmlreader.stopelement";
+    /** Input files are concatenated books which may be split between <FictionBook> tags */
+    public static final String SPLITTABLE        = "fb2.xmlreader.splittable";
+
+    private CompressionCodecFactory compressionCodecs;
+
+    public static void setExcludedElements(JobConf job, String... paths)
+    {
+        job.setStrings(EXCLUDED_ELEMENTS, paths);
+    }
+
+    public static void setStopElement(JobConf job, String path)
+    {
+        job.set(STOP_ELEMENT, path);
+    }
+
+    public static void setSplittable(JobConf job, boolean splittable)
+    {
+        job.setBoolean(SPLITTABLE, splittable);
+    }
+
+    public static boolean isSplittable(JobConf job)
+    {
+        return job.getBoolean(SPLITTABLE, false);
+    }
+
     @Override
     public void configure(JobConf job)
     {
+        if(isSplittable(job))
+            compressionCodecs = new CompressionCodecFactory(job);
     }
 
     @Override
     protected boolean isSplitable(FileSystem fs, Path file)
     {
-        return false;
+        return compressionCodecs != null && compressionCodecs.getCodec(file) == null;
     }
 
     @Override
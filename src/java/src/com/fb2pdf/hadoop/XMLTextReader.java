@@ -3,6 +3,15 @@ package com.fb2pdf.hadoop;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+import java.util.Collection;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.hadoop.fs.*;
@@ -11,24 +20,28 @@ import org.apache.hadoop.io.compress.CompressionCodec;
 import org.apache.hadoop.io.compress.CompressionCodecFactory;
 import org.apache.hadoop.mapred.*;
 
-import com.fb2pdf.hadoop.OnDemandSAXParser.StringPair;
-
 
 public class XMLTextReader implements RecordReader<Text, Text>
 {
 
     private CompressionCodecFactory compressionCodecs;
     InputStream                     in;
+    private FSDataInputStream       fileIn;
+    private boolean                 compressed;
     private long                    start;
     private long                    end;
-    private OnDemandSAXParser       parser;
-    private String                  stopElement = null;
-    private boolean                 stopElementFound = false;
+    private FictionBookStream       books;      // null unless splittable
+    private OnDemandXMLParser       parser;
+    private Collection<String>      excluded;
+    private String                  stopElement;
+    private final CharsetEncoder    encoder = Charset.forName("UTF-8").newEncoder()
+                                                .onMalformedInput(CodingErrorAction.REPLACE)
+                                                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private CharBuffer              chars;
+    private ByteBuffer              bytes = ByteBuffer.allocate(4096);
 
     public XMLTextReader(JobConf job, FileSplit split) throws IOException
     {
-        this.stopElement = job.get("fb2.xmlreader.stopelement", null);
-
         final Path file = split.getPath();
         start = split.getStart();
         end = start + split.getLength();
@@ -37,21 +50,57 @@ public class XMLTextReader implements RecordReader<Text, Text>
         final CompressionCodec codec = compressionCodecs.getCodec(file);
 
         FileSystem fs = file.getFileSystem(job);
-        FSDataInputStream fileIn = fs.open(split.getPath());
-
-        fileIn.seek(start);
-        if(codec != null)
+        fileIn = fs.open(split.getPath());
+
+        compressed = codec != null;
+        boolean splittable = XMLTextInputFormat.isSplittable(job);
+        // the declaration of the first book may be in the previous split
+        long position = splittable && !compressed ? Math.max(0, start - FictionBookStream.MAX_DECLARATION) : start;
+        fileIn.seek(position);
+        if(compressed)
             in = codec.createInputStream(fileIn);
         else
             in = fileIn;
 
-        parser = new OnDemandSAXParser(in);
+        excluded = Arrays.asList(job.getStrings(XMLTextInputFormat.EXCLUDED_ELEMENTS, new String[0]));
+        stopElement = job.get(XMLTextInputFormat.STOP_ELEMENT, null);
+
+        if(splittable)
+        {
+            books = compressed ? new FictionBookStream(in, 0) : new FictionBookStream(in, position, start);
+            nextBook();
+        } else
+            parser = createParser(in);
+    }
+
+    private OnDemandXMLParser createParser(InputStream book) throws IOException
+    {
+        OnDemandXMLParser p = new OnDemandXMLParser(book);
+        p.setExcluded(excluded);
+        p.setStopElement(stopElement);
+        return p;
+    }
+
+    /**
+     * Starts parsing the next book whose root tag lies in this split.
+     * A compressed file is never split, so all its books are read.
+     *
+     * @return false if there are no more books
+     */
+    private boolean nextBook() throws IOException
+    {
+        if(parser != null)
+            parser.stop();
+        InputStream book = books.nextBook(compressed ? Long.MAX_VALUE : end);
+        parser = book == null ? null : createParser(book);
+        return parser != null;
     }
 
     @Override
     public void close() throws IOException
     {
-        parser.stop();
+        if(parser != null)
+            parser.stop();
         IOUtils.closeQuietly(in);
     }
 
@@ -70,7 +119,11 @@ public class XMLTextReader implements RecordReader<Text, Text>
     @Override
     public long getPos() throws IOException
     {
-        return start; // TODO: implement
+        // for compressed input this is the position in the compressed file,
+        // which is what the split boundaries refer to
+        if(books != null && !compressed)
+            return books.getPosition();
+        return fileIn.getPos();
     }
 
     @Override
@@ -79,30 +132,55 @@ public class XMLTextReader implements RecordReader<Text, Text>
         if(start == end)
             return 0.0f;
         else
-            return Math.min(1.0f, (getPos() - start) / (float) (end - start));
+            return Math.max(0.0f, Math.min(1.0f, (getPos() - start) / (float) (end - start)));
     }
 
     @Override
     public boolean next(Text key, Text value) throws IOException
     {
-        StringPair n = parser.getNext();
-        if(n != null)
+        while(parser != null)
         {
-            if (stopElement != null && n.a != null)
+            if(parser.next())
             {
-                if (!stopElementFound)
-                    stopElementFound = n.a.startsWith(stopElement);
-                else if (!n.a.startsWith(stopElement))
-                    return false;
+                byte[] pathBytes = parser.getPathBytes();
+                key.set(pathBytes, 0, pathBytes.length);
+                setText(value, parser.getTextCharacters(), parser.getTextLength());
+                return true;
             }
+            if(books == null || !nextBook())
+                break;
+        }
+        return false; // EOF
+    }
 
-            key.set(n.a);
-            value.set(n.b);
-            return true;
-        } else
+    /**
+     * Encodes the parser's text buffer into value reusing the same char and
+     * byte buffers for every record.
+     */
+    private void setText(Text value, char[] text, int length) throws CharacterCodingException
+    {
+        if(chars == null || chars.array() != text)
+            chars = CharBuffer.wrap(text);
+        chars.limit(length).position(0);
+        bytes.clear();
+        encoder.reset();
+        while(true)
         {
-            return false; // EOF
+            CoderResult result = encoder.encode(chars, bytes, true);
+            if(result.isUnderflow())
+                result = encoder.flush(bytes);
+            if(result.isUnderflow())
+                break;
+            if(result.isOverflow())
+            {
+                ByteBuffer grown = ByteBuffer.allocate(bytes.capacity() * 2);
+                bytes.flip();
+                grown.put(bytes);
+                bytes = grown;
+            } else
+                result.throwException();
         }
+        value.set(bytes.array(), 0, bytes.position());
     }
 
 }
@@ -0,0 +1,183 @@
+package com.fb2pdf.hadoop.cluster;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * Content hashes of the books an extraction output was made from, kept as
+ * _manifest in the output directory: one "name length modified md5" line
+ * per book after a line with the settings of the job. A book is hashed again
+ * only when its length or modification time changed, and counts as changed
+ * only when its hash did or the settings changed.
+ */
+class BookManifest
+{
+    static final String NAME     = "_manifest";
+    private static final String SETTINGS = "#settings";
+
+    static class Entry
+    {
+        final long   length;
+        final long   modified;
+        final String hash;
+
+        Entry(long length, long modified, String hash)
+        {
+            this.length = length;
+            this.modified = modified;
+            this.hash = hash;
+        }
+    }
+
+    private final Map<String, Entry> books   = new TreeMap<String, Entry>();
+    private final List<Path>         changed = new ArrayList<Path>();
+    private final List<String>       deleted = new ArrayList<String>();
+    private String                   settings;
+
+    static BookManifest load(FileSystem fs, Path file) throws IOException
+    {
+        BookManifest manifest = new BookManifest();
+        if(!fs.exists(file))
+            return manifest;
+        BufferedReader in = new BufferedReader(new InputStreamReader(fs.open(file), "UTF-8"));
+        try
+        {
+            String line;
+            while((line = in.readLine()) != null)
+            {
+                String[] fields = line.split("\t", -1);
+                if(fields.length == 2 && fields[0].equals(SETTINGS))
+                    manifest.settings = fields[1];
+                else if(fields.length == 4)
+                    manifest.books.put(fields[0], new Entry(Long.parseLong(fields[1]), Long.parseLong(fields[2]),
+                            fields[3]));
+            }
+        } finally
+        {
+            in.close();
+        }
+        return manifest;
+    }
+
+    /**
+     * @return settings the books were extracted with, null if unknown
+     */
+    String getSettings()
+    {
+        return settings;
+    }
+
+    /**
+     * Brings the manifest up to date with the books, see
+     * {@link #getChanged()} and {@link #getDeleted()}.
+     *
+     * @param settings job settings the output depends on, all books count as
+     *            changed when they differ from the saved ones
+     */
+    void update(FileSystem fs, FileStatus[] current, String settings) throws IOException
+    {
+        boolean sameSettings = settings.equals(this.settings);
+        this.settings = settings;
+        Map<String, Entry> updated = new TreeMap<String, Entry>();
+        for(FileStatus book : current)
+        {
+            String name = book.getPath().getName();
+            Entry old = books.get(name);
+            Entry e;
+            if(old != null && old.length == book.getLen() && old.modified == book.getModificationTime())
+                e = old;
+            else
+                e = new Entry(book.getLen(), book.getModificationTime(), hash(fs, book.getPath()));
+            if(old == null || !old.hash.equals(e.hash) || !sameSettings)
+                changed.add(book.getPath());
+            updated.put(name, e);
+        }
+        for(String name : books.keySet())
+        {
+            if(!updated.containsKey(name))
+                deleted.add(name);
+        }
+        books.clear();
+        books.putAll(updated);
+    }
+
+    /**
+     * @return added books and books whose content changed
+     */
+    List<Path> getChanged()
+    {
+        return changed;
+    }
+
+    /**
+     * @return names of books which are gone
+     */
+    List<String> getDeleted()
+    {
+        return deleted;
+    }
+
+    /**
+     * Writes a temporary file first, so a failed run keeps the previous
+     * manifest and its books are extracted again.
+     */
+    void save(FileSystem fs, Path file) throws IOException
+    {
+        Path tmp = new Path(file.getParent(), file.getName() + ".tmp");
+        Writer out = new OutputStreamWriter(fs.create(tmp, true), "UTF-8");
+        try
+        {
+            out.write(SETTINGS + "\t" + settings + "\n");
+            for(Map.Entry<String, Entry> e : books.entrySet())
+                out.write(e.getKey() + "\t" + e.getValue().length + "\t" + e.getValue().modified + "\t"
+                        + e.getValue().hash + "\n");
+        } finally
+        {
+            out.close();
+        }
+        fs.delete(file, false);
+        if(!fs.rename(tmp, file))
+            throw new IOException("Can not rename " + tmp + " to " + file);
+    }
+
+    static String hash(FileSystem fs, Path file) throws IOException
+    {
+        MessageDigest md5;
+        try
+        {
+            md5 = MessageDigest.getInstance("MD5");
+        } catch(NoSuchAlgorithmException e)
+        {
+            throw new IOException(e);
+        }
+        byte[] buf = new byte[64 * 1024];
+        InputStream in = fs.open(file);
+        try
+        {
+            int n;
+            while((n = in.read(buf)) > 0)
+                md5.update(buf, 0, n);
+        } finally
+        {
+            in.close();
+        }
+        StringBuilder hex = new StringBuilder();
+        for(byte b : md5.digest())
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        return hex.toString();
+    }
+}
@@ -0,0 +1,114 @@
+package com.fb2pdf.hadoop.cluster;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BookManifestTest {
+
+	private FileSystem fs;
+	private Path root;
+	private Path books;
+	private Path file;
+
+	@Before
+	public void setUp() throws IOException {
+		fs = FileSystem.getLocal(new Configuration());
+		root = new Path(new File(System.getProperty("java.io.tmpdir"), "manifest-test-" + System.nanoTime()).getAbsolutePath());
+		books = new Path(root, "books");
+		file = new Path(root, BookManifest.NAME);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		fs.delete(root, true);
+	}
+
+	private void writeBook(String name, String text, long modified) throws IOException {
+		File book = new File(books.toString(), name);
+		book.getParentFile().mkdirs();
+		OutputStream out = new FileOutputStream(book);
+		try {
+			out.write(text.getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+		assertTrue(book.setLastModified(modified));
+	}
+
+	/**
+	 * Updates and saves the manifest like a run does.
+	 * @return names of the changed books
+	 */
+	private List<String> update(String settings) throws IOException {
+		BookManifest manifest = BookManifest.load(fs, file);
+		manifest.update(fs, fs.listStatus(books), settings);
+		manifest.save(fs, file);
+		List<String> changed = new ArrayList<String>();
+		for (Path p : manifest.getChanged())
+			changed.add(p.getName());
+		Collections.sort(changed);
+		return changed;
+	}
+
+	private List<String> deleted(String settings) throws IOException {
+		BookManifest manifest = BookManifest.load(fs, file);
+		manifest.update(fs, fs.listStatus(books), settings);
+		manifest.save(fs, file);
+		return manifest.getDeleted();
+	}
+
+	@Test
+	public void testAdd() throws IOException {
+		writeBook("a.fb2", "a", 1000000);
+		assertEquals("[a.fb2]", update("s").toString());
+		writeBook("b.fb2", "b", 1000000);
+		assertEquals("[b.fb2]", update("s").toString());
+	}
+
+	@Test
+	public void testSkipUnchanged() throws IOException {
+		writeBook("a.fb2", "a", 1000000);
+		writeBook("b.fb2", "b", 1000000);
+		assertEquals("[a.fb2, b.fb2]", update("s").toString());
+		assertEquals("[]", update("s").toString());
+		// touched but the same content
+		writeBook("a.fb2", "a", 2000000);
+		assertEquals("[]", update("s").toString());
+		writeBook("b.fb2", "c", 2000000);
+		assertEquals("[b.fb2]", update("s").toString());
+	}
+
+	@Test
+	public void testDelete() throws IOException {
+		writeBook("a.fb2", "a", 1000000);
+		writeBook("b.fb2", "b", 1000000);
+		update("s");
+		fs.delete(new Path(books, "a.fb2"), false);
+		assertEquals("[a.fb2]", deleted("s").toString());
+		assertEquals("[]", deleted("s").toString());
+	}
+
+	@Test
+	public void testSettingsChange() throws IOException {
+		writeBook("a.fb2", "a", 1000000);
+		writeBook("b.fb2", "b", 1000000);
+		update("stem=false");
+		assertEquals("[a.fb2, b.fb2]", update("stem=true").toString());
+		assertEquals("stem=true", BookManifest.load(fs, file).getSettings());
+		assertEquals("[]", update("stem=true").toString());
+	}
+}
@@ -3,7 +3,7 @@ package com.fb2pdf.hadoop.cluster;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.*;
+import java.util.Map;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
@@ -21,19 +21,23 @@ import org.apache.hadoop.util.ToolRunner;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
-import com.fb2pdf.hadoop.TextTokenizer;
+import com.fb2pdf.hadoop.ByteStringCounter;
 import com.fb2pdf.hadoop.XMLTextInputFormat;
 
 public class FB2KeywordsExtractor extends Configured implements Tool
 {
-    private static final Log          logger = LogFactory.getLog("com.fb2pdf.hadoop.FB2KeywordsExtractor");
-    private final static LongWritable one    = new LongWritable(1);
+    private static final Log          logger         = LogFactory.getLog("com.fb2pdf.hadoop.FB2KeywordsExtractor");
 
-    static Set<String>                excluded;
-    static
+    /** Strip Russian word endings before counting keywords */
+    public static final String        STEM           = "fb2.keywords.stem";
+    /** Sum counts in the mapper instead of emitting each word */
+    public static final String        COMBINE        = "fb2.keywords.inmapper";
+    /** Memory (in MB) used for counts in the mapper before they are flushed */
+    public static final String        COMBINE_MEMORY = "fb2.keywords.inmapper.mb";
+
+    public static enum Counter
     {
-        excluded = new HashSet<String>();
-        excluded.add("FictionBook/binary");
+        TOKENS, RECORDS, STOPWORDS
     }
 
     static class ExtractKeywordsMapper extends MapReduceBase implements Mapper<Text, Text, Text, LongWritable>
@@ -43,26 +47,80 @@ public class FB2KeywordsExtractor extends Configured implements Tool
             super();
         }
 
-        private Text word = new Text();
+        private Text                                word  = new Text();
+        private LongWritable                        count = new LongWritable();
+        private KeywordCounter                      keywords;
+        private ByteStringCounter                   counts;
+        private boolean                             combine;
+        private long                                memoryLimit;
+        private OutputCollector<Text, LongWritable> output;
+        private Reporter                            reporter;
+        private Text                                book;
 
+        @Override
+        public void configure(JobConf job)
+        {
+            book = PerBookOutputFormat.getBookPrefix(job);
+            boolean stem = job.getBoolean(STEM, false);
+            combine = job.getBoolean(COMBINE, true);
+            counts = new ByteStringCounter(combine ? 64 * 1024 : 1024);
+            memoryLimit = job.getInt(COMBINE_MEMORY, 32) * 1024L * 1024L;
+
+            Map<String, ByteStringCounter> stopwordsByLang;
+            try
+            {
+                stopwordsByLang = KeywordCounter.loadStopwords(job, stem);
+            } catch(IOException e)
+            {
+                throw new RuntimeException("loading stopwords has failed", e);
+            }
+            logger.info("stopwords for " + stopwordsByLang.keySet());
+            keywords = new KeywordCounter(stem, stopwordsByLang);
+        }
+
+        /**
+         * Without in-mapper combining the counts of each element are emitted
+         * right away.
+         */
         @Override
         public void map(Text key, Text value, OutputCollector<Text, LongWritable> output, Reporter reporter)
                 throws IOException
         {
-            if(excluded.contains(key.toString()))
-                return;
-            
-            String line = value.toString().trim();
-            TextTokenizer st = new TextTokenizer(line);
-            while(st.hasMoreTokens())
+            this.output = output;
+            this.reporter = reporter;
+
+            long tokens = keywords.getTokens();
+            long dropped = keywords.getDropped();
+            keywords.add(key, value, counts);
+            reporter.incrCounter(Counter.TOKENS, keywords.getTokens() - tokens);
+            reporter.incrCounter(Counter.STOPWORDS, keywords.getDropped() - dropped);
+
+            if(!combine || counts.memoryUsage() > memoryLimit)
+                flush();
+        }
+
+        private void flush() throws IOException
+        {
+            for(int i = 0; i < counts.size(); i++)
             {
-                String k = st.nextToken().trim().toLowerCase();
-                if(k.length()>1)
+                if(book != null)
                 {
-                    word.set(k);
-                    output.collect(word, one);
-                }
+                    word.set(book);
+                    word.append(counts.getKeys(), counts.getOffset(i), counts.getLength(i));
+                } else
+                    word.set(counts.getKeys(), counts.getOffset(i), counts.getLength(i));
+                count.set(counts.getCount(i));
+                output.collect(word, count);
             }
+            reporter.incrCounter(Counter.RECORDS, counts.size());
+            counts.clear();
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            if(output != null)
+                flush();
         }
     }
 
@@ -73,6 +131,7 @@ public class FB2KeywordsExtractor extends Configured implements Tool
         conf.setJobName("FB2KeywordsExtractor");
 
         conf.setInputFormat(XMLTextInputFormat.class);
+        XMLTextInputFormat.setExcludedElements(conf, "FictionBook/binary");
         conf.setOutputFormat(SequenceFileOutputFormat.class);
 
         conf.setOutputKeyClass(Text.class);
@@ -81,28 +140,39 @@ public class FB2KeywordsExtractor extends Configured implements Tool
         conf.setMapperClass(ExtractKeywordsMapper.class);
         conf.setCombinerClass(LongSumReducer.class);
         conf.setReducerClass(LongSumReducer.class);
-        conf.setNumReduceTasks(1);
+        ReduceTasks.configure(conf);
         conf.setBoolean("mapred.output.compress", true);
         conf.set("mapred.output.compression.type", "BLOCK");
         conf.setClass("mapred.output.compression.codec", GzipCodec.class,  CompressionCodec.class);
         
         Path inpath = new Path(args[0]);
         Path outpath = new Path(args[1]);
-        FileInputFormat.addInputPath(conf, inpath);
-        FileOutputFormat.setOutputPath(conf, outpath);
+
+        if(args.length > 2)
+        {
+            FB2StopwordsExcluder.setStopwords(conf, args[2]);
+            logger.info("Using stopwords from " + args[2]);
+        }
 
         logger.info("Extracting keywords from " + inpath + " to " + outpath);
 
-        JobClient.runJob(conf);
+        if(inpath.getFileSystem(conf).getFileStatus(inpath).isDir())
+            IncrementalExtraction.runJob(conf, inpath, outpath);
+        else
+        {
+            FileInputFormat.addInputPath(conf, inpath);
+            FileOutputFormat.setOutputPath(conf, outpath);
+            JobClient.runJob(conf);
+        }
 
         return 0;
     }
 
     public static void main(String[] args) throws Exception
     {    	
-        if(args.length != 2)
+        if(args.length != 2 && args.length != 3)
         {
-            System.err.println("Usage FB2KeywordsExtractor <src> <dst>");
+            System.err.println("Usage FB2KeywordsExtractor <src book or dir> <dst> [<stopwords>]");
             System.exit(1);
         } else
             System.exit(ToolRunner.run(new Configuration(), new FB2KeywordsExtractor(), args));
@@ -39,6 +39,13 @@ public class FB2MetaExtractor extends Configured implements Tool
 
         private Text metaKey = new Text();
         private Text metaVal = new Text();
+        private Text book;
+
+        @Override
+        public void configure(JobConf job)
+        {
+            book = PerBookOutputFormat.getBookPrefix(job);
+        }
 
         @Override
         public void map(Text key, Text value, OutputCollector<Text, Text> output, Reporter reporter)
@@ -51,6 +58,8 @@ public class FB2MetaExtractor extends Configured implements Tool
             
             String line = value.toString().trim().toLowerCase();
             metaKey.set(includeKeys.get(key.toString()));
+            if(book != null)
+                metaKey.set(book + metaKey.toString());
             metaVal.set(line);
             output.collect(metaKey, metaVal);
         }
@@ -62,9 +71,9 @@ public class FB2MetaExtractor extends Configured implements Tool
     {
         JobConf conf = new JobConf(getConf(), FB2MetaExtractor.class);
         conf.setJobName("FB2MetaExtractor");
-        conf.set("fb2.xmlreader.stopelement", "FictionBook/description");
 
         conf.setInputFormat(XMLTextInputFormat.class);
+        XMLTextInputFormat.setStopElement(conf, "FictionBook/description");
         conf.setOutputFormat(ConfigurationOutputFormat.class);
 
         conf.setOutputKeyClass(Text.class);
@@ -72,16 +81,21 @@ public class FB2MetaExtractor extends Configured implements Tool
 
         conf.setMapperClass(ExtractMetaMapper.class);
         conf.setReducerClass(IdentityReducer.class);
-        conf.setNumReduceTasks(1);
+        ReduceTasks.configure(conf);
         
         Path inpath = new Path(args[0]);
         Path outpath = new Path(args[1]);
-        FileInputFormat.addInputPath(conf, inpath);
-        FileOutputFormat.setOutputPath(conf, outpath);
         
         logger.info("Extracting meta from " + inpath + " to " + outpath);
         
-        JobClient.runJob(conf);
+        if(inpath.getFileSystem(conf).getFileStatus(inpath).isDir())
+            IncrementalExtraction.runJob(conf, inpath, outpath);
+        else
+        {
+            FileInputFormat.addInputPath(conf, inpath);
+            FileOutputFormat.setOutputPath(conf, outpath);
+            JobClient.runJob(conf);
+        }
 
         return 0;
     }
@@ -90,7 +104,7 @@ public class FB2MetaExtractor extends Configured implements Tool
     {
         if(args.length != 2)
         {
-            System.err.println("Usage FB2MetaExtractor <src> <dst>");
+            System.err.println("Usage FB2MetaExtractor <src book or dir> <dst>");
             System.exit(1);
         } else
             System.exit(ToolRunner.run(new Configuration(), new FB2MetaExtractor(), args));
@@ -66,12 +66,10 @@ public class FB2StopwordsExcluder extends Configured implements Tool
             output.collect(word, value);
         }
 
-        @SuppressWarnings("unchecked")
         @Override
         public void configure(JobConf job) {
             super.configure(job);
             conf = job;
-            boolean isLocalMode = "local".equals(conf.get("mapred.job.tracker", "local"));
 
             try
             {
@@ -83,26 +81,9 @@ public class FB2StopwordsExcluder extends Configured implements Tool
                 String lang = metaConf.get("lang");
                 logger.debug("lang: " + lang);
 
-                Path stopwordsFilePath = null;
-                String stopwordsCache = conf.get("fb2pdf.stopwords", null);
-                if (stopwordsCache != null && lang != null)
+                if (lang != null)
                 {
-                    Path stopwordsFile = new Path(lang.toLowerCase()+".txt");
-
-                    if (!isLocalMode)
-                    {
-                        logger.debug("cacheFilePath: " + stopwordsFile);
-                        Path[] cacheFiles = DistributedCache.getLocalCacheFiles(conf);
-                        if (cacheFiles != null)
-                            for (Path p:cacheFiles)
-                                if (stopwordsFile.getName().equals(p.getName())) {
-                                    stopwordsFilePath = p;
-                                    break;
-                                }
-                    } else {
-                        stopwordsFilePath = new Path(stopwordsCache, stopwordsFile);
-                    }
-
+                    Path stopwordsFilePath = getStopwordsFile(conf, lang);
                     logger.debug("stopwordsFilePath: " + stopwordsFilePath);
 
                     if (stopwordsFilePath != null)
@@ -121,7 +102,7 @@ public class FB2StopwordsExcluder extends Configured implements Tool
                     }
                 }
             } catch (IOException e)	{
-                logger.error("loading stopwords has failed", e);
+                throw new RuntimeException("loading stopwords has failed", e);
             }
             
             logger.info((stopwords==null)?"no stopwords":"stopwords size: " + stopwords.size());
@@ -133,7 +114,6 @@ public class FB2StopwordsExcluder extends Configured implements Tool
     {
         JobConf conf = new JobConf(getConf(), FB2StopwordsExcluder.class);
         conf.setJobName("FB2StopwordsExcluder");
-        conf.set("fb2.xmlreader.stopelement", "FictionBook/description");
 
         conf.setInputFormat(SequenceFileInputFormat.class);
         conf.setOutputFormat(SequenceFileOutputFormat.class);
@@ -143,7 +123,7 @@ public class FB2StopwordsExcluder extends Configured implements Tool
 
         conf.setMapperClass(ExcluderMapper.class);
         conf.setReducerClass(IdentityReducer.class);
-        conf.setNumReduceTasks(1);
+        ReduceTasks.configure(conf);
 
         Path inpath = new Path(args[0]);
         Path outpath = new Path(args[1]);
@@ -153,16 +133,36 @@ public class FB2StopwordsExcluder extends Configured implements Tool
         conf.set("mapred.output.compression.type", "BLOCK");
         conf.setClass("mapred.output.compression.codec", GzipCodec.class,  CompressionCodec.class);
 
+        setStopwords(conf, args[2]);
+
+        conf.set("fb2pdf.metafile", args[3]);
+        logger.info("Using stopwords from " + args[2]);
+        logger.info("Using meta from " + args[3]);
+
+        logger.info("Filtering keywords from " + inpath + " to " + outpath);
+
+        JobClient.runJob(conf);
+
+        return 0;
+    }
+
+    /**
+     * Passes directory with stopword lists named by language (e.g. ru.txt)
+     * to the tasks of the job.
+     */
+    public static void setStopwords(JobConf conf, String dir) throws IOException
+    {
         boolean isLocalMode = "local".equals(conf.get("mapred.job.tracker", "local"));
+        logger.info("Launched in " + (isLocalMode?"local":"distributed") + " mode");
 
-        Path srcStopwords = new Path(args[2]);
+        Path srcStopwords = new Path(dir);
         FileSystem fs = isLocalMode?FileSystem.getLocal(conf):srcStopwords.getFileSystem(conf);
 
         if (fs.exists(srcStopwords))
         {
-	        FileStatus srcStopwordsStatus = fs.getFileStatus(srcStopwords);
-	        if (srcStopwordsStatus.isDir())
-	        {
+            FileStatus srcStopwordsStatus = fs.getFileStatus(srcStopwords);
+            if (srcStopwordsStatus.isDir())
+            {
                 if (!isLocalMode)
                 {
                     FileStatus[] ls = fs.listStatus(srcStopwords);
@@ -170,20 +170,45 @@ public class FB2StopwordsExcluder extends Configured implements Tool
                         DistributedCache.addCacheFile(s.getPath().toUri(), conf);
                 }
 
-		        conf.set("fb2pdf.stopwords", args[2]);
-	        }
+                conf.set("fb2pdf.stopwords", dir);
+            }
         }
+    }
 
-        conf.set("fb2pdf.metafile", args[3]);
-        logger.info("Launched in " + (isLocalMode?"local":"distributed") + " mode");
-        logger.info("Using stopwords from " + srcStopwords);
-        logger.info("Using meta from " + args[3]);
+    /**
+     * @return local stopword lists passed by {@link #setStopwords}, may be
+     *         empty
+     */
+    public static Path[] getStopwordsFiles(JobConf conf) throws IOException
+    {
+        String stopwordsCache = conf.get("fb2pdf.stopwords", null);
+        if (stopwordsCache == null)
+            return new Path[0];
 
-        logger.info("Filtering keywords from " + inpath + " to " + outpath);
+        boolean isLocalMode = "local".equals(conf.get("mapred.job.tracker", "local"));
+        if (!isLocalMode)
+        {
+            Path[] cacheFiles = DistributedCache.getLocalCacheFiles(conf);
+            return cacheFiles == null ? new Path[0] : cacheFiles;
+        }
 
-        JobClient.runJob(conf);
+        FileStatus[] ls = FileSystem.getLocal(conf).listStatus(new Path(stopwordsCache));
+        Path[] files = new Path[ls.length];
+        for (int i = 0; i < ls.length; i++)
+            files[i] = ls[i].getPath();
+        return files;
+    }
 
-        return 0;
+    /**
+     * @return local stopword list for the language or null
+     */
+    public static Path getStopwordsFile(JobConf conf, String lang) throws IOException
+    {
+        String name = lang.toLowerCase() + ".txt";
+        for (Path p:getStopwordsFiles(conf))
+            if (name.equals(p.getName()))
+                return p;
+        return null;
     }
 
     public static Configuration getMetadataConfiguration(Configuration conf, String metaFile)
@@ -202,7 +227,8 @@ public class FB2StopwordsExcluder extends Configured implements Tool
 			FileStatus[] ls = fs.listStatus(metaFilePath);
 			for (FileStatus s:ls)
 			{
-				if (!s.isDir())
+				// each reducer of the meta job writes its own part file
+				if (!s.isDir() && !s.getPath().getName().startsWith("_"))
 				{
 					Path resourcePath = s.getPath();
 					File tmpResFile = FileUtil.createLocalTempFile(new File(resourcePath.getName()), "-tmp", true);
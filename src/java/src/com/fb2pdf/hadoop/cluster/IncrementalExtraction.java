@@ -0,0 +1,100 @@
+package com.fb2pdf.hadoop.cluster;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.FileOutputFormat;
+import org.apache.hadoop.mapred.JobClient;
+import org.apache.hadoop.mapred.JobConf;
+
+/**
+ * Runs an extraction job over a directory of books, keeping the output
+ * layout of one job per book (&lt;dst&gt;/&lt;book&gt;/part-NNNNN) that
+ * hamake produces. Only books added or changed since the last run, by
+ * {@link BookManifest}, go through the job; outputs of deleted books are
+ * removed and the rest are kept. All books go through the job again when
+ * the stopwords or stemming changed.
+ */
+final class IncrementalExtraction
+{
+    private static final Log logger = LogFactory.getLog("com.fb2pdf.hadoop.IncrementalExtraction");
+
+    private IncrementalExtraction()
+    {
+    }
+
+    /**
+     * @return settings the output of every book depends on
+     */
+    static String getSettings(JobConf conf)
+    {
+        return "stopwords=" + conf.get("fb2pdf.stopwords", "") + " stem="
+                + conf.getBoolean(FB2KeywordsExtractor.STEM, false);
+    }
+
+    /**
+     * @param conf job with everything but input, output and output format
+     *            wrapping set
+     */
+    static void runJob(JobConf conf, Path src, Path dst) throws IOException
+    {
+        FileSystem srcFs = src.getFileSystem(conf);
+        FileSystem fs = dst.getFileSystem(conf);
+        Path manifestFile = new Path(dst, BookManifest.NAME);
+        BookManifest manifest = BookManifest.load(fs, manifestFile);
+
+        List<FileStatus> books = new ArrayList<FileStatus>();
+        for(FileStatus s : srcFs.listStatus(src))
+        {
+            // the same books as the *.fb2 input fileset of the hamake files
+            if(!s.isDir() && s.getPath().getName().endsWith(".fb2"))
+                books.add(s);
+        }
+        String settings = getSettings(conf);
+        if(manifest.getSettings() != null && !manifest.getSettings().equals(settings))
+            logger.info("Settings changed from " + manifest.getSettings() + " to " + settings);
+        manifest.update(srcFs, books.toArray(new FileStatus[books.size()]), settings);
+        logger.info(manifest.getChanged().size() + " new or changed books, " + manifest.getDeleted().size()
+                + " deleted, " + (books.size() - manifest.getChanged().size()) + " unchanged");
+
+        for(String name : manifest.getDeleted())
+            fs.delete(new Path(dst, name), true);
+
+        if(!manifest.getChanged().isEmpty())
+        {
+            Path tmp = new Path(dst, "_incremental");
+            fs.delete(tmp, true);
+            for(Path book : manifest.getChanged())
+                FileInputFormat.addInputPath(conf, book);
+            FileOutputFormat.setOutputPath(conf, tmp);
+            PerBookOutputFormat.setBaseOutputFormat(conf, conf.getOutputFormat().getClass());
+            conf.setOutputFormat(PerBookOutputFormat.class);
+            conf.setBoolean(PerBookOutputFormat.BOOK_KEYS, true);
+
+            JobClient.runJob(conf);
+
+            for(Path book : manifest.getChanged())
+            {
+                Path out = new Path(dst, book.getName());
+                fs.delete(out, true);
+                Path result = new Path(tmp, book.getName());
+                // the manifest is not saved, the next run extracts the book again
+                if(fs.exists(result))
+                {
+                    if(!fs.rename(result, out))
+                        throw new IOException("Can't rename " + result + " to " + out);
+                } else if(!fs.mkdirs(out)) // nothing extracted
+                    throw new IOException("Can't create " + out);
+            }
+            fs.delete(tmp, true);
+        }
+        manifest.save(fs, manifestFile);
+    }
+}
@@ -0,0 +1,174 @@
+package com.fb2pdf.hadoop.cluster;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.MapReduceBase;
+import org.apache.hadoop.mapred.Mapper;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapred.TextInputFormat;
+import org.apache.hadoop.mapred.TextOutputFormat;
+import org.apache.hadoop.mapred.lib.IdentityReducer;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class IncrementalExtractionTest {
+
+	/**
+	 * Emits the lines of a book with the key prefix of the book.
+	 */
+	public static class LinesMapper extends MapReduceBase implements Mapper<LongWritable, Text, Text, LongWritable> {
+
+		private Text book;
+		private Text line = new Text();
+		private LongWritable one = new LongWritable(1);
+
+		@Override
+		public void configure(JobConf job) {
+			book = PerBookOutputFormat.getBookPrefix(job);
+		}
+
+		public void map(LongWritable key, Text value, OutputCollector<Text, LongWritable> output, Reporter reporter)
+				throws IOException {
+			line.set(book + value.toString());
+			output.collect(line, one);
+		}
+	}
+
+	private static final String TRANSFORMER_FACTORY = "javax.xml.transform.TransformerFactory";
+	private static String oldTransformerFactory;
+
+	private File root;
+	private File src;
+	private File dst;
+	private boolean stem;
+
+	@BeforeClass
+	public static void setUpClass() {
+		// JobClient writes the job with a DOM transformer, which saxon8.jar
+		// of the converter can't do without saxon8-dom.jar
+		oldTransformerFactory = System.getProperty(TRANSFORMER_FACTORY);
+		System.setProperty(TRANSFORMER_FACTORY, "com.sun.org.apache.xalan.internal.xsltc.trax.TransformerFactoryImpl");
+	}
+
+	@AfterClass
+	public static void tearDownClass() {
+		if (oldTransformerFactory == null)
+			System.clearProperty(TRANSFORMER_FACTORY);
+		else
+			System.setProperty(TRANSFORMER_FACTORY, oldTransformerFactory);
+	}
+
+	@Before
+	public void setUp() {
+		root = new File(System.getProperty("java.io.tmpdir"), "incremental-test-" + System.nanoTime());
+		src = new File(root, "src");
+		dst = new File(root, "dst");
+		src.mkdirs();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		FileUtils.deleteDirectory(root);
+	}
+
+	private void writeBook(String name, String text, long modified) throws IOException {
+		File book = new File(src, name);
+		OutputStream out = new FileOutputStream(book);
+		try {
+			out.write(text.getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+		assertTrue(book.setLastModified(modified));
+	}
+
+	private void run() throws IOException {
+		JobConf conf = new JobConf(IncrementalExtractionTest.class);
+		conf.set("mapred.job.tracker", "local");
+		conf.set("fs.default.name", "file:///");
+		conf.setInputFormat(TextInputFormat.class);
+		conf.setOutputFormat(TextOutputFormat.class);
+		conf.setOutputKeyClass(Text.class);
+		conf.setOutputValueClass(LongWritable.class);
+		conf.setMapperClass(LinesMapper.class);
+		// one reducer names the output of every book part-00000
+		conf.setReducerClass(IdentityReducer.class);
+		conf.setNumReduceTasks(1);
+		conf.setBoolean(FB2KeywordsExtractor.STEM, stem);
+		IncrementalExtraction.runJob(conf, new Path(src.getAbsolutePath()), new Path(dst.getAbsolutePath()));
+	}
+
+	private String output(String book) throws IOException {
+		return FileUtils.readFileToString(new File(new File(dst, book), "part-00000"), "UTF-8");
+	}
+
+	/**
+	 * Marks the output of a book, the mark is gone when the book is
+	 * extracted again.
+	 */
+	private File mark(String book) throws IOException {
+		File mark = new File(new File(dst, book), "mark");
+		FileUtils.touch(mark);
+		return mark;
+	}
+
+	@Test
+	public void testIncremental() throws IOException {
+		writeBook("a.fb2", "one\ntwo\n", 1000000);
+		writeBook("b.fb2", "three\n", 1000000);
+		run();
+		assertEquals("one\t1\ntwo\t1\n", output("a.fb2"));
+		assertEquals("three\t1\n", output("b.fb2"));
+
+		File a = mark("a.fb2");
+		File b = mark("b.fb2");
+		run();
+		assertTrue(a.exists());
+		assertTrue(b.exists());
+
+		writeBook("b.fb2", "four\n", 2000000);
+		writeBook("c.fb2", "five\n", 2000000);
+		run();
+		assertTrue(a.exists());
+		assertFalse(b.exists());
+		assertEquals("four\t1\n", output("b.fb2"));
+		assertEquals("five\t1\n", output("c.fb2"));
+
+		new File(src, "a.fb2").delete();
+		run();
+		assertFalse(new File(dst, "a.fb2").exists());
+		assertEquals("four\t1\n", output("b.fb2"));
+	}
+
+	@Test
+	public void testSettingsChange() throws IOException {
+		writeBook("a.fb2", "one\n", 1000000);
+		run();
+		File a = mark("a.fb2");
+		stem = true;
+		run();
+		assertFalse(a.exists());
+		assertEquals("one\t1\n", output("a.fb2"));
+	}
+
+	@Test
+	public void testCyrillicBookName() throws IOException {
+		writeBook("\u043a\u043d\u0438\u0433\u0430.fb2", "\u0441\u043b\u043e\u0432\u043e\n", 1000000);
+		run();
+		assertEquals("\u0441\u043b\u043e\u0432\u043e\t1\n", output("\u043a\u043d\u0438\u0433\u0430.fb2"));
+	}
+}
@@ -0,0 +1,151 @@
+package com.fb2pdf.hadoop.cluster;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobConf;
+
+import com.fb2pdf.hadoop.ByteStringCounter;
+import com.fb2pdf.hadoop.KeywordTokenizer;
+
+/**
+ * Counts keywords in the (element path, text) records of books as returned
+ * by XMLTextInputFormat, leaving out stopwords of the book's language. The
+ * language comes from the title-info/lang record, the same element
+ * FB2MetaExtractor reads; words before it are checked against all lists.
+ *
+ * Not thread safe, the stopword sets may be shared.
+ */
+class KeywordCounter
+{
+    /** Element holding the language of the book */
+    static final Text                              LANG = new Text("FictionBook/description/title-info/lang");
+    /** Root element, ends each book */
+    static final Text                              ROOT = new Text("FictionBook");
+
+    private final KeywordTokenizer                 tokenizer;
+    private final Map<String, ByteStringCounter>   stopwordsByLang;
+    /** Words of all stopword lists, used until the language of the book is known */
+    private ByteStringCounter                      allStopwords;
+    private ByteStringCounter                      stopwords;
+    private long                                   tokens;
+    private long                                   dropped;
+
+    /**
+     * @param stopwordsByLang sets read by {@link #loadStopwords}
+     */
+    public KeywordCounter(boolean stem, Map<String, ByteStringCounter> stopwordsByLang)
+    {
+        this.tokenizer = new KeywordTokenizer(stem);
+        this.stopwordsByLang = stopwordsByLang;
+        if(!stopwordsByLang.isEmpty())
+            allStopwords = new ByteStringCounter();
+        for(ByteStringCounter s : stopwordsByLang.values())
+        {
+            for(int i = 0; i < s.size(); i++)
+                allStopwords.add(s.getKeys(), s.getOffset(i), s.getLength(i), 1);
+        }
+        stopwords = allStopwords;
+    }
+
+    /**
+     * Reads the stopword lists set by
+     * {@link FB2StopwordsExcluder#setStopwords(JobConf, String)}, one
+     * &lt;lang&gt;.txt file per language.
+     *
+     * @return sets keyed by lowercase language
+     */
+    public static Map<String, ByteStringCounter> loadStopwords(JobConf job, boolean stem) throws IOException
+    {
+        Map<String, ByteStringCounter> stopwordsByLang = new HashMap<String, ByteStringCounter>();
+        for(Path p : FB2StopwordsExcluder.getStopwordsFiles(job))
+        {
+            String name = p.getName();
+            if(!name.endsWith(".txt"))
+                continue;
+            InputStream in = FileSystem.getLocal(job).open(p);
+            try
+            {
+                stopwordsByLang.put(name.substring(0, name.length() - 4).toLowerCase(), readStopwords(in, stem));
+            } finally
+            {
+                in.close();
+            }
+        }
+        return stopwordsByLang;
+    }
+
+    /**
+     * Stopwords are split and folded by the same tokenizer as the text, so
+     * they match stemmed words too.
+     */
+    public static ByteStringCounter readStopwords(InputStream in, boolean stem) throws IOException
+    {
+        ByteStringCounter words = new ByteStringCounter();
+        KeywordTokenizer tokenizer = new KeywordTokenizer(stem);
+        byte[] bytes = IOUtils.toByteArray(in);
+        tokenizer.reset(bytes, 0, bytes.length);
+        while(tokenizer.next())
+            words.add(tokenizer.getBytes(), 0, tokenizer.getByteLength(), 1);
+        return words;
+    }
+
+    /**
+     * Forgets the language of the current book, for a book which was not
+     * read to its end.
+     */
+    public void reset()
+    {
+        stopwords = allStopwords;
+    }
+
+    /**
+     * Adds the words of one element text to counts.
+     */
+    public void add(Text key, Text value, ByteStringCounter counts)
+    {
+        if(allStopwords != null)
+        {
+            if(LANG.equals(key))
+                stopwords = stopwordsByLang.get(value.toString().trim().toLowerCase());
+            else if(ROOT.equals(key))
+                stopwords = allStopwords; // next book
+        }
+
+        tokenizer.reset(value);
+        while(tokenizer.next())
+        {
+            if(tokenizer.getLength() <= 1)
+                continue;
+            tokens++;
+            if(stopwords != null && stopwords.contains(tokenizer.getBytes(), 0, tokenizer.getByteLength()))
+            {
+                dropped++;
+                continue;
+            }
+            counts.add(tokenizer.getBytes(), 0, tokenizer.getByteLength(), 1);
+        }
+    }
+
+    /**
+     * @return number of words seen so far, including stopwords
+     */
+    public long getTokens()
+    {
+        return tokens;
+    }
+
+    /**
+     * @return number of stopwords left out so far
+     */
+    public long getDropped()
+    {
+        return dropped;
+    }
+}
@@ -0,0 +1,498 @@
+package com.fb2pdf.hadoop.cluster;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.FileSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fb2pdf.hadoop.ByteStringCounter;
+import com.fb2pdf.hadoop.XMLTextInputFormat;
+import com.fb2pdf.hadoop.XMLTextReader;
+
+/**
+ * Finds similar books in one JVM, without the Hadoop jobs of
+ * hamake/clusterizer.xml. Keywords are counted by the same
+ * {@link KeywordCounter} as FB2KeywordsExtractor, books become TF-IDF
+ * vectors in a {@link SparseVectorIndex} and are clustered by mean shift
+ * with cosine distance, as MeanShiftCanopyDriver does. The result has the
+ * format of OutputClusterResults, so LoadSimilarBooks.py can load it.
+ *
+ * All steps except merging the counts run on a thread pool.
+ */
+public class LocalClusterer extends Configured implements Tool {
+
+	private static final Logger LOG = LoggerFactory.getLogger(LocalClusterer.class);
+
+	/** Number of worker threads, all processors by default */
+	public static final String THREADS = "fb2.cluster.threads";
+	/** Words occurring less often in all books are left out */
+	public static final String MIN_SUPPORT = "fb2.cluster.minsupport";
+	/** Maximum number of mean shift iterations */
+	public static final String ITERATIONS = "fb2.cluster.iterations";
+
+	private static final double CONVERGENCE_DELTA = 0.001;
+
+	private ExecutorService executor;
+	private int threads;
+
+	public LocalClusterer() {
+	}
+
+	LocalClusterer(ExecutorService executor, int threads) {
+		this.executor = executor;
+		this.threads = threads;
+	}
+
+	@Override
+	public int run(String[] args) throws Exception {
+		JobConf conf = new JobConf(getConf(), LocalClusterer.class);
+		double t2 = Double.parseDouble(args[0]);
+		if (t2 > 0.5)
+			t2 = 0.5;
+		if (args.length > 3)
+			FB2StopwordsExcluder.setStopwords(conf, args[3]);
+		XMLTextInputFormat.setExcludedElements(conf, "FictionBook/binary");
+
+		threads = conf.getInt(THREADS, Runtime.getRuntime().availableProcessors());
+		executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Path> books = listBooks(conf, new Path(args[1]));
+			LOG.info("Clustering " + books.size() + " books from " + args[1] + " on " + threads + " threads");
+			SparseVectorIndex vectors = vectorize(conf, books);
+			List<int[]> clusters = cluster(vectors, t2, conf.getInt(ITERATIONS, 10));
+			write(conf, vectors, clusters, new Path(args[2]));
+			LOG.info("Found " + clusters.size() + " groups of similar books");
+		} finally {
+			executor.shutdown();
+		}
+		return 0;
+	}
+
+	/**
+	 * @return files in dir and its subdirectories, except hidden ones and
+	 *         ones starting with _
+	 */
+	static List<Path> listBooks(Configuration conf, Path dir) throws IOException {
+		List<Path> books = new ArrayList<Path>();
+		FileSystem fs = dir.getFileSystem(conf);
+		List<Path> dirs = new ArrayList<Path>();
+		dirs.add(dir);
+		while (!dirs.isEmpty()) {
+			FileStatus[] ls = fs.listStatus(dirs.remove(dirs.size() - 1));
+			if (ls == null)
+				continue;
+			Arrays.sort(ls);
+			for (FileStatus s : ls) {
+				String name = s.getPath().getName();
+				if (name.startsWith("_") || name.startsWith("."))
+					continue;
+				if (s.isDir())
+					dirs.add(s.getPath());
+				else
+					books.add(s.getPath());
+			}
+		}
+		return books;
+	}
+
+	/**
+	 * Keyword counts of one book.
+	 */
+	private static class BookWords {
+		final int book;
+		final ByteStringCounter words;
+
+		BookWords(int book, ByteStringCounter words) {
+			this.book = book;
+			this.words = words;
+		}
+	}
+
+	/**
+	 * Counts keywords of all books in parallel and turns them into TF-IDF
+	 * vectors named after the book files. Counts of each book are merged
+	 * into the dictionary as soon as the book is done, so only the
+	 * dictionary and the term ids of the books are kept.
+	 */
+	SparseVectorIndex vectorize(final JobConf conf, final List<Path> books) throws IOException {
+		final boolean stem = conf.getBoolean(FB2KeywordsExtractor.STEM, false);
+		final Map<String, ByteStringCounter> stopwords = KeywordCounter.loadStopwords(conf, stem);
+		final ThreadLocal<KeywordCounter> counters = new ThreadLocal<KeywordCounter>() {
+			@Override
+			protected KeywordCounter initialValue() {
+				return new KeywordCounter(stem, stopwords);
+			}
+		};
+
+		CompletionService<BookWords> done = new ExecutorCompletionService<BookWords>(executor);
+		for (int i = 0; i < books.size(); i++) {
+			final int book = i;
+			done.submit(new Callable<BookWords>() {
+				@Override
+				public BookWords call() throws Exception {
+					return new BookWords(book, countWords(conf, books.get(book), counters.get()));
+				}
+			});
+		}
+
+		ByteStringCounter dictionary = new ByteStringCounter(64 * 1024);
+		long[] support = new long[1024];
+		int[][] termIds = new int[books.size()][];
+		int[][] termCounts = new int[books.size()][];
+		for (int i = 0; i < books.size(); i++) {
+			BookWords b = get(take(done));
+			ByteStringCounter words = b.words;
+			int[] ids = new int[words.size()];
+			int[] counts = new int[words.size()];
+			for (int w = 0; w < words.size(); w++) {
+				// the count of a dictionary entry is its document frequency
+				int id = dictionary.add(words.getKeys(), words.getOffset(w), words.getLength(w), 1);
+				if (id == support.length)
+					support = Arrays.copyOf(support, support.length * 2);
+				support[id] += words.getCount(w);
+				ids[w] = id;
+				counts[w] = (int) words.getCount(w);
+			}
+			termIds[b.book] = ids;
+			termCounts[b.book] = counts;
+		}
+		LOG.info("Counted " + dictionary.size() + " distinct keywords");
+
+		long minSupport = conf.getLong(MIN_SUPPORT, 2);
+		double[] idf = new double[dictionary.size()];
+		for (int id = 0; id < idf.length; id++) {
+			if (support[id] >= minSupport)
+				idf[id] = Math.log((double) books.size() / dictionary.getCount(id));
+		}
+
+		SparseVectorIndex vectors = new SparseVectorIndex();
+		for (int i = 0; i < books.size(); i++) {
+			int[] ids = termIds[i];
+			double[] weights = new double[ids.length];
+			for (int w = 0; w < ids.length; w++)
+				weights[w] = termCounts[i][w] * idf[ids[w]];
+			vectors.add(books.get(i).getName(), ids, weights, ids.length);
+			termIds[i] = null;
+			termCounts[i] = null;
+		}
+		vectors.build();
+		LOG.info("Built " + vectors.size() + " vectors");
+		return vectors;
+	}
+
+	/**
+	 * Counts keywords of a book file, a broken book gives the words read
+	 * up to the error.
+	 */
+	static ByteStringCounter countWords(JobConf conf, Path book, KeywordCounter counter) throws IOException {
+		ByteStringCounter words = new ByteStringCounter(1024);
+		counter.reset();
+		long length = book.getFileSystem(conf).getFileStatus(book).getLen();
+		XMLTextReader reader = new XMLTextReader(conf, new FileSplit(book, 0, length, (String[]) null));
+		try {
+			Text key = reader.createKey();
+			Text value = reader.createValue();
+			while (reader.next(key, value))
+				counter.add(key, value, words);
+		} catch (IOException e) {
+			LOG.warn("Skipping the rest of " + book + ": " + e);
+		} finally {
+			reader.close();
+		}
+		return words;
+	}
+
+	/**
+	 * Mean shift over the vectors. Every vector starts as a center; on each
+	 * iteration a center moves to the mean of the vectors within t1 = 2 * t2
+	 * and centers within t2 of each other are merged. Iterations stop when
+	 * no center moves more than the convergence delta.
+	 *
+	 * @return rows of the vectors within t2 of each final center, for
+	 *         centers with more than one such vector
+	 */
+	List<int[]> cluster(SparseVectorIndex vectors, double t2, int maxIterations) throws IOException {
+		double t1 = t2 * 2;
+		List<Center> centers = new ArrayList<Center>();
+		int[] rowDims = new int[16];
+		double[] rowWeights = new double[16];
+		for (int row = 0; row < vectors.size(); row++) {
+			int length = vectors.getRowLength(row);
+			if (length > rowDims.length) {
+				rowDims = new int[length];
+				rowWeights = new double[length];
+			}
+			vectors.getRow(row, rowDims, rowWeights);
+			centers.add(new Center(Arrays.copyOf(rowDims, length), Arrays.copyOf(rowWeights, length)));
+		}
+
+		for (int iteration = 0; iteration < maxIterations; iteration++) {
+			boolean moved = shift(vectors, centers, t1);
+			int before = centers.size();
+			centers = merge(centers, t2);
+			LOG.info("Iteration " + iteration + ": " + centers.size() + " centers");
+			if (!moved && centers.size() == before)
+				break;
+		}
+
+		int[][] members = neighbours(vectors, centers, t2);
+		List<int[]> clusters = new ArrayList<int[]>();
+		for (int[] m : members) {
+			if (m.length > 1)
+				clusters.add(m);
+		}
+		return clusters;
+	}
+
+	/**
+	 * Normalized sparse vector with sorted dimensions.
+	 */
+	private static class Center {
+		final int[] dims;
+		final double[] weights;
+
+		Center(int[] dims, double[] weights) {
+			this.dims = dims;
+			this.weights = weights;
+		}
+
+		double dot(Center other) {
+			double dot = 0;
+			int i = 0;
+			int j = 0;
+			while (i < dims.length && j < other.dims.length) {
+				if (dims[i] < other.dims[j])
+					i++;
+				else if (dims[i] > other.dims[j])
+					j++;
+				else
+					dot += weights[i++] * other.weights[j++];
+			}
+			return dot;
+		}
+	}
+
+	/**
+	 * Work on every parts-th index of [0, n) starting at part, one instance
+	 * per thread.
+	 */
+	private abstract static class Part implements Callable<Object> {
+		final int part;
+		final int parts;
+		final int n;
+
+		Part(int part, int parts, int n) {
+			this.part = part;
+			this.parts = parts;
+			this.n = n;
+		}
+
+		@Override
+		public Object call() throws Exception {
+			for (int i = part; i < n; i += parts)
+				process(i);
+			return null;
+		}
+
+		abstract void process(int i);
+	}
+
+	/**
+	 * Moves centers to the mean of the vectors within t1.
+	 *
+	 * @return true if any center moved more than the convergence delta
+	 */
+	private boolean shift(final SparseVectorIndex vectors, final List<Center> centers, final double t1)
+			throws IOException {
+		final boolean[] moved = new boolean[centers.size()];
+		List<Part> parts = new ArrayList<Part>();
+		for (int p = 0; p < threads; p++) {
+			parts.add(new Part(p, threads, centers.size()) {
+				SparseVectorIndex.Searcher searcher = vectors.newSearcher();
+				double[] sum = new double[vectors.getDimensions()];
+				int[] touched = new int[vectors.getDimensions()];
+				int[] rowDims = new int[16];
+				double[] rowWeights = new double[16];
+
+				@Override
+				void process(int i) {
+					Center c = centers.get(i);
+					int found = searcher.search(c.dims, c.weights, c.dims.length, t1);
+					if (found == 0)
+						return;
+					int touchedCount = 0;
+					for (int r = 0; r < found; r++) {
+						int row = searcher.getResult(r);
+						int length = vectors.getRowLength(row);
+						if (length > rowDims.length) {
+							rowDims = new int[length];
+							rowWeights = new double[length];
+						}
+						vectors.getRow(row, rowDims, rowWeights);
+						for (int k = 0; k < length; k++) {
+							if (sum[rowDims[k]] == 0)
+								touched[touchedCount++] = rowDims[k];
+							sum[rowDims[k]] += rowWeights[k];
+						}
+					}
+					Arrays.sort(touched, 0, touchedCount);
+					int[] dims = new int[touchedCount];
+					double[] weights = new double[touchedCount];
+					double lengthSquared = 0;
+					for (int k = 0; k < touchedCount; k++) {
+						dims[k] = touched[k];
+						weights[k] = sum[touched[k]];
+						lengthSquared += weights[k] * weights[k];
+						sum[touched[k]] = 0;
+					}
+					double length = Math.sqrt(lengthSquared);
+					for (int k = 0; k < touchedCount; k++)
+						weights[k] /= length;
+					Center shifted = new Center(dims, weights);
+					moved[i] = 1 - c.dot(shifted) > CONVERGENCE_DELTA;
+					centers.set(i, shifted);
+				}
+			});
+		}
+		invokeAll(parts);
+		for (boolean m : moved) {
+			if (m)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Merges centers within t2 of each other into the first of them.
+	 */
+	private List<Center> merge(List<Center> centers, double t2) throws IOException {
+		SparseVectorIndex index = new SparseVectorIndex();
+		for (Center c : centers)
+			index.add(null, c.dims, c.weights, c.dims.length);
+		index.build();
+		int[][] close = neighbours(index, centers, t2);
+
+		boolean[] merged = new boolean[centers.size()];
+		List<Center> kept = new ArrayList<Center>();
+		for (int i = 0; i < centers.size(); i++) {
+			if (merged[i])
+				continue;
+			kept.add(centers.get(i));
+			for (int j : close[i])
+				merged[j] = true;
+		}
+		return kept;
+	}
+
+	/**
+	 * @return for each center the sorted rows of the index within t
+	 */
+	private int[][] neighbours(final SparseVectorIndex index, final List<Center> centers, final double t)
+			throws IOException {
+		final int[][] found = new int[centers.size()][];
+		List<Part> parts = new ArrayList<Part>();
+		for (int p = 0; p < threads; p++) {
+			parts.add(new Part(p, threads, centers.size()) {
+				SparseVectorIndex.Searcher searcher = index.newSearcher();
+
+				@Override
+				void process(int i) {
+					Center c = centers.get(i);
+					int n = searcher.search(c.dims, c.weights, c.dims.length, t);
+					int[] rows = new int[n];
+					for (int r = 0; r < n; r++)
+						rows[r] = searcher.getResult(r);
+					Arrays.sort(rows);
+					found[i] = rows;
+				}
+			});
+		}
+		invokeAll(parts);
+		return found;
+	}
+
+	private void invokeAll(List<? extends Callable<Object>> tasks) throws IOException {
+		List<Future<Object>> futures;
+		try {
+			futures = executor.invokeAll(tasks);
+		} catch (InterruptedException e) {
+			throw new IOException(e);
+		}
+		for (Future<Object> f : futures)
+			get(f);
+	}
+
+	private static <T> Future<T> take(CompletionService<T> done) throws IOException {
+		try {
+			return done.take();
+		} catch (InterruptedException e) {
+			throw new IOException(e);
+		}
+	}
+
+	private static <T> T get(Future<T> f) throws IOException {
+		try {
+			return f.get();
+		} catch (InterruptedException e) {
+			throw new IOException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new IOException(e.getCause());
+		}
+	}
+
+	/**
+	 * Writes one line per cluster, the same as OutputClusterResults does:
+	 * cluster name, tab and comma separated book names.
+	 */
+	static void write(Configuration conf, SparseVectorIndex vectors, List<int[]> clusters, Path out)
+			throws IOException {
+		Writer writer = new OutputStreamWriter(out.getFileSystem(conf).create(out), "UTF-8");
+		try {
+			for (int i = 0; i < clusters.size(); i++) {
+				writer.write("MSC-" + i + "\t");
+				int[] rows = clusters.get(i);
+				for (int r = 0; r < rows.length; r++) {
+					if (r > 0)
+						writer.write(", ");
+					writer.write(vectors.getName(rows[r]));
+				}
+				writer.write("\n");
+			}
+		} finally {
+			writer.close();
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length != 3 && args.length != 4) {
+			System.err.println("Usage LocalClusterer <t2> <books> <out_file> [<stopwords>]");
+			System.exit(1);
+		} else
+			System.exit(ToolRunner.run(new Configuration(), new LocalClusterer(), args));
+	}
+}
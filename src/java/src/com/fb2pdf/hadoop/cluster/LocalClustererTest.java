@@ -0,0 +1,55 @@
+package com.fb2pdf.hadoop.cluster;
+
+import static org.junit.Assert.*;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+public class LocalClustererTest {
+
+	@Test
+	public void testGroups() throws Exception {
+		Random r = new Random(7);
+		SparseVectorIndex index = new SparseVectorIndex();
+		int[] dims = new int[50];
+		double[] values = new double[50];
+		for (int group = 0; group < 8; group++) {
+			// groups 0-4 have four copies with small changes, the rest one book
+			int copies = group < 5 ? 4 : 1;
+			double[] base = new double[dims.length];
+			for (int i = 0; i < dims.length; i++)
+				base[i] = r.nextInt(10) + 1;
+			for (int c = 0; c < copies; c++) {
+				for (int i = 0; i < dims.length; i++) {
+					dims[i] = group * 100 + i;
+					values[i] = base[i] + (r.nextDouble() - 0.5) * 0.2;
+				}
+				index.add(group + "-" + c, dims, values, dims.length);
+			}
+		}
+		index.build();
+
+		ExecutorService executor = Executors.newFixedThreadPool(3);
+		try {
+			List<int[]> clusters = new LocalClusterer(executor, 3).cluster(index, 0.01, 10);
+			assertEquals(5, clusters.size());
+			Set<String> groups = new HashSet<String>();
+			for (int[] rows : clusters) {
+				assertEquals(4, rows.length);
+				String group = index.getName(rows[0]).split("-")[0];
+				for (int row : rows)
+					assertTrue(index.getName(row).startsWith(group + "-"));
+				groups.add(group);
+			}
+			assertEquals(5, groups.size());
+		} finally {
+			executor.shutdown();
+		}
+	}
+}
@@ -0,0 +1,318 @@
+package com.fb2pdf.hadoop.cluster;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.io.Writable;
+
+import com.fb2pdf.hadoop.ByteStringCounter;
+
+/**
+ * MinHash signatures of books and a banded LSH index over them. The
+ * signature of a book is made of the smallest hash values of its distinct
+ * keywords under each of the hash functions; two books agree on a signature
+ * position with probability equal to the Jaccard similarity of their
+ * keyword sets.
+ *
+ * Signatures are split into bands, books with an equal band land in the
+ * same bucket and become candidates, which are then ranked by the fraction
+ * of equal positions. With rows per band r and b bands a pair with
+ * similarity s is found with probability 1 - (1 - s^r)^b.
+ *
+ * Only names and signatures are written, the buckets are rebuilt when the
+ * index is read. Not thread safe.
+ */
+class MinHashIndex implements Writable {
+
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	private int hashes;
+	private int bands;
+	private int rows;
+
+	private int size;
+	private String[] names = new String[16];
+	private Map<String, Integer> books = new HashMap<String, Integer>();
+	private int[] signatures;
+
+	/** Open addressing table per band from band key to the first book */
+	private long[][] bandKeys;
+	private int[][] bandHeads;
+	/** Occupied slots per band */
+	private int[] bandBuckets;
+	/** Next book in the same bucket, per (book, band) */
+	private int[] next;
+
+	private int[] seen = new int[16];
+	private int query;
+
+	/**
+	 * Name of a book found by {@link MinHashIndex#similar} and its
+	 * estimated similarity.
+	 */
+	static class Match {
+		final String name;
+		final double similarity;
+
+		Match(String name, double similarity) {
+			this.name = name;
+			this.similarity = similarity;
+		}
+
+		@Override
+		public String toString() {
+			return name + "\t" + similarity;
+		}
+	}
+
+	/**
+	 * Empty index for {@link #readFields(DataInput)}.
+	 */
+	MinHashIndex() {
+	}
+
+	/**
+	 * @param hashes signature length, a multiple of bands
+	 */
+	MinHashIndex(int hashes, int bands) {
+		if (hashes <= 0 || bands <= 0 || hashes % bands != 0)
+			throw new IllegalArgumentException(hashes + " hashes can not be split into " + bands + " bands");
+		this.hashes = hashes;
+		this.bands = bands;
+		this.rows = hashes / bands;
+		clear();
+	}
+
+	private void clear() {
+		size = 0;
+		books.clear();
+		signatures = new int[16 * hashes];
+		next = new int[16 * bands];
+		bandKeys = new long[bands][64];
+		bandHeads = new int[bands][64];
+		for (int[] heads : bandHeads)
+			Arrays.fill(heads, -1);
+		bandBuckets = new int[bands];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int getHashes() {
+		return hashes;
+	}
+
+	public String getName(int book) {
+		return names[book];
+	}
+
+	/**
+	 * @return index of the book with the name or -1
+	 */
+	public int find(String name) {
+		Integer book = books.get(name);
+		return book == null ? -1 : book;
+	}
+
+	/**
+	 * @return copy of the signature of a book in the index
+	 */
+	public int[] getSignature(int book) {
+		return Arrays.copyOfRange(signatures, book * hashes, (book + 1) * hashes);
+	}
+
+	/**
+	 * Computes the signature of the keys of words, counts are ignored.
+	 */
+	public int[] signature(ByteStringCounter words) {
+		int[] signature = new int[hashes];
+		Arrays.fill(signature, Integer.MAX_VALUE);
+		byte[] keys = words.getKeys();
+		for (int w = 0; w < words.size(); w++) {
+			long h = FNV_OFFSET;
+			int end = words.getOffset(w) + words.getLength(w);
+			for (int i = words.getOffset(w); i < end; i++)
+				h = (h ^ (keys[i] & 0xff)) * FNV_PRIME;
+			long h1 = mix(h);
+			long h2 = mix(h1) | 1;
+			for (int i = 0; i < hashes; i++) {
+				int v = (int) (mix(h1 + i * h2) >>> 33);
+				if (v < signature[i])
+					signature[i] = v;
+			}
+		}
+		return signature;
+	}
+
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	private long bandKey(int[] signature, int offset, int band) {
+		long h = band;
+		for (int i = offset + band * rows; i < offset + (band + 1) * rows; i++)
+			h = h * 31 + signature[i];
+		return mix(h);
+	}
+
+	/**
+	 * Adds a book, a book added before under the same name is kept.
+	 *
+	 * @return index of the book
+	 */
+	public int add(String name, int[] signature) {
+		if (signature.length != hashes)
+			throw new IllegalArgumentException("signature of " + signature.length + " hashes, expected " + hashes);
+		Integer existing = books.get(name);
+		if (existing != null)
+			return existing;
+		if (size == names.length) {
+			names = Arrays.copyOf(names, size * 2);
+			signatures = Arrays.copyOf(signatures, size * 2 * hashes);
+			next = Arrays.copyOf(next, size * 2 * bands);
+		}
+		int book = size++;
+		names[book] = name;
+		books.put(name, book);
+		System.arraycopy(signature, 0, signatures, book * hashes, hashes);
+		if (isCrowded())
+			rehash();
+		for (int band = 0; band < bands; band++)
+			insert(band, bandKey(signatures, book * hashes, band), book);
+		return book;
+	}
+
+	private void insert(int band, long key, int book) {
+		long[] keys = bandKeys[band];
+		int[] heads = bandHeads[band];
+		int mask = keys.length - 1;
+		int slot = (int) key & mask;
+		while (heads[slot] != -1 && keys[slot] != key)
+			slot = (slot + 1) & mask;
+		if (heads[slot] == -1)
+			bandBuckets[band]++;
+		keys[slot] = key;
+		next[book * bands + band] = heads[slot];
+		heads[slot] = book;
+	}
+
+	/**
+	 * Whether a band would be over half full after one more bucket, bands
+	 * fill unevenly when books share some bands and not others.
+	 */
+	private boolean isCrowded() {
+		int capacity = bandKeys[0].length;
+		for (int buckets : bandBuckets) {
+			if ((buckets + 1) * 2 > capacity)
+				return true;
+		}
+		return false;
+	}
+
+	private void rehash() {
+		int capacity = bandKeys[0].length * 2;
+		bandKeys = new long[bands][capacity];
+		bandHeads = new int[bands][capacity];
+		for (int[] heads : bandHeads)
+			Arrays.fill(heads, -1);
+		Arrays.fill(bandBuckets, 0);
+		for (int book = 0; book < size - 1; book++) {
+			for (int band = 0; band < bands; band++)
+				insert(band, bandKey(signatures, book * hashes, band), book);
+		}
+	}
+
+	private int head(int band, long key) {
+		long[] keys = bandKeys[band];
+		int[] heads = bandHeads[band];
+		int mask = keys.length - 1;
+		int slot = (int) key & mask;
+		while (heads[slot] != -1) {
+			if (keys[slot] == key)
+				return heads[slot];
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * Finds books sharing a band with the signature whose estimated
+	 * similarity is at least minSimilarity.
+	 *
+	 * @return matches, most similar first
+	 */
+	public List<Match> similar(int[] signature, double minSimilarity) {
+		if (seen.length < size) {
+			seen = new int[names.length];
+			query = 0;
+		}
+		query++;
+		List<Match> matches = new ArrayList<Match>();
+		for (int band = 0; band < bands; band++) {
+			for (int book = head(band, bandKey(signature, 0, band)); book != -1; book = next[book * bands + band]) {
+				if (seen[book] == query)
+					continue;
+				seen[book] = query;
+				int equal = 0;
+				int offset = book * hashes;
+				for (int i = 0; i < hashes; i++) {
+					if (signatures[offset + i] == signature[i])
+						equal++;
+				}
+				double similarity = (double) equal / hashes;
+				if (similarity >= minSimilarity)
+					matches.add(new Match(names[book], similarity));
+			}
+		}
+		Collections.sort(matches, new Comparator<Match>() {
+			@Override
+			public int compare(Match a, Match b) {
+				return Double.compare(b.similarity, a.similarity);
+			}
+		});
+		return matches;
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+		out.writeInt(hashes);
+		out.writeInt(bands);
+		out.writeInt(size);
+		for (int book = 0; book < size; book++) {
+			out.writeUTF(names[book]);
+			for (int i = book * hashes; i < (book + 1) * hashes; i++)
+				out.writeInt(signatures[i]);
+		}
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		hashes = in.readInt();
+		bands = in.readInt();
+		rows = hashes / bands;
+		clear();
+		int count = in.readInt();
+		int[] signature = new int[hashes];
+		for (int book = 0; book < count; book++) {
+			String name = in.readUTF();
+			for (int i = 0; i < hashes; i++)
+				signature[i] = in.readInt();
+			add(name, signature);
+		}
+	}
+}
@@ -0,0 +1,86 @@
+package com.fb2pdf.hadoop.cluster;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.fb2pdf.hadoop.ByteStringCounter;
+
+public class MinHashIndexTest {
+
+	private ByteStringCounter words(Random r, int count, int vocabulary) {
+		ByteStringCounter words = new ByteStringCounter();
+		while (words.size() < count) {
+			byte[] word = ("w" + r.nextInt(vocabulary)).getBytes();
+			words.add(word, 0, word.length, 1);
+		}
+		return words;
+	}
+
+	/**
+	 * @return copy of words with changed words replaced by new ones
+	 */
+	private ByteStringCounter edition(ByteStringCounter words, int changed) {
+		ByteStringCounter copy = new ByteStringCounter();
+		for (int i = changed; i < words.size(); i++)
+			copy.add(words.getKeys(), words.getOffset(i), words.getLength(i), 1);
+		for (int i = 0; i < changed; i++) {
+			byte[] word = ("new" + i).getBytes();
+			copy.add(word, 0, word.length, 1);
+		}
+		return copy;
+	}
+
+	@Test
+	public void testNearDuplicates() throws Exception {
+		Random r = new Random(3);
+		MinHashIndex index = new MinHashIndex(128, 32);
+		ByteStringCounter[] books = new ByteStringCounter[200];
+		for (int i = 0; i < books.length; i++) {
+			books[i] = words(r, 500, 1000000);
+			index.add("book" + i, index.signature(books[i]));
+		}
+
+		// 5% of the words changed, Jaccard similarity about 0.9
+		List<MinHashIndex.Match> matches = index.similar(index.signature(edition(books[17], 25)), 0.8);
+		assertEquals(1, matches.size());
+		assertEquals("book17", matches.get(0).name);
+		assertTrue(matches.get(0).similarity > 0.8);
+
+		assertTrue(index.similar(index.signature(words(r, 500, 1000000)), 0.5).isEmpty());
+
+		index.add("edition17", index.signature(edition(books[17], 25)));
+		matches = index.similar(index.getSignature(index.find("book17")), 0.8);
+		assertEquals(2, matches.size());
+		assertEquals("book17", matches.get(0).name);
+		assertEquals(1.0, matches.get(0).similarity, 0);
+		assertEquals("edition17", matches.get(1).name);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		index.write(new DataOutputStream(bytes));
+		MinHashIndex read = new MinHashIndex();
+		read.readFields(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+		assertEquals(index.size(), read.size());
+		assertEquals(2, read.similar(read.getSignature(read.find("edition17")), 0.8).size());
+	}
+
+	@Test(timeout = 10000)
+	public void testUnevenBands() {
+		// the first three bands of all books are equal, the last one differs
+		MinHashIndex index = new MinHashIndex(8, 4);
+		for (int i = 0; i < 200; i++)
+			index.add("book" + i, new int[] { 0, 0, 0, 0, 0, 0, i, i });
+
+		List<MinHashIndex.Match> matches = index.similar(index.getSignature(index.find("book150")), 0.9);
+		assertEquals(1, matches.size());
+		assertEquals("book150", matches.get(0).name);
+		assertEquals(200, index.similar(index.getSignature(0), 0.7).size());
+	}
+}
@@ -0,0 +1,226 @@
+package com.fb2pdf.hadoop.cluster;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fb2pdf.hadoop.ByteStringCounter;
+import com.fb2pdf.hadoop.XMLTextInputFormat;
+
+/**
+ * Builds and queries a {@link MinHashIndex} file.
+ *
+ * build reads the SequenceFilesFromDirectory output (book name, keywords)
+ * and computes the signatures on a thread pool. add, duplicates and
+ * similar read FB2 files with the same keyword extraction as
+ * FB2KeywordsExtractor; stopwords are taken from fb2pdf.stopwords, which
+ * should point to the list used for the sequence files.
+ */
+public class MinHashIndexer extends Configured implements Tool {
+
+	private static final Logger LOG = LoggerFactory.getLogger(MinHashIndexer.class);
+
+	/** Signature length */
+	public static final String HASHES = "fb2.minhash.hashes";
+	/** Number of LSH bands, the signature length must be a multiple of it */
+	public static final String BANDS = "fb2.minhash.bands";
+	/** Books at least this similar are reported by duplicates */
+	public static final String DUPLICATE = "fb2.minhash.duplicate";
+	/** Books at least this similar are reported by similar */
+	public static final String SIMILAR = "fb2.minhash.similar";
+
+	@Override
+	public int run(String[] args) throws Exception {
+		JobConf conf = new JobConf(getConf(), MinHashIndexer.class);
+		XMLTextInputFormat.setExcludedElements(conf, "FictionBook/binary");
+		String command = args[0];
+		Path indexPath = new Path(args[1]);
+
+		if ("build".equals(command)) {
+			MinHashIndex index = new MinHashIndex(conf.getInt(HASHES, 128), conf.getInt(BANDS, 32));
+			build(conf, new Path(args[2]), index);
+			save(conf, index, indexPath);
+			return 0;
+		}
+
+		MinHashIndex index;
+		if (indexPath.getFileSystem(conf).exists(indexPath))
+			index = load(conf, indexPath);
+		else if ("add".equals(command))
+			index = new MinHashIndex(conf.getInt(HASHES, 128), conf.getInt(BANDS, 32));
+		else
+			throw new IOException("No index " + indexPath);
+		boolean stem = conf.getBoolean(FB2KeywordsExtractor.STEM, false);
+		KeywordCounter counter = new KeywordCounter(stem, KeywordCounter.loadStopwords(conf, stem));
+		if ("add".equals(command)) {
+			for (int i = 2; i < args.length; i++) {
+				Path book = new Path(args[i]);
+				ByteStringCounter words = LocalClusterer.countWords(conf, book, counter);
+				if (words.size() > 0)
+					index.add(book.getName(), index.signature(words));
+			}
+			save(conf, index, indexPath);
+		} else if ("duplicates".equals(command) || "similar".equals(command)) {
+			double min = "duplicates".equals(command) ? conf.getFloat(DUPLICATE, 0.9F) : conf.getFloat(SIMILAR,
+					0.5F);
+			for (int i = 2; i < args.length; i++) {
+				// a name in the index or a book file
+				int known = index.find(args[i]);
+				int[] signature;
+				if (known >= 0)
+					signature = index.getSignature(known);
+				else
+					signature = index.signature(LocalClusterer.countWords(conf, new Path(args[i]), counter));
+				for (MinHashIndex.Match m : index.similar(signature, min)) {
+					if (known < 0 || !m.name.equals(args[i]))
+						System.out.println(args[i] + "\t" + m);
+				}
+			}
+		} else {
+			System.err.println("Unknown command " + command);
+			return 1;
+		}
+		return 0;
+	}
+
+	/**
+	 * Adds the books of all sequence files in dir. Files are read on this
+	 * thread and signatures computed on all processors; at most a few
+	 * books per thread wait in memory.
+	 */
+	static void build(JobConf conf, Path dir, final MinHashIndex index) throws IOException {
+		int threads = conf.getInt(LocalClusterer.THREADS, Runtime.getRuntime().availableProcessors());
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		Map<String, int[]> signatures = new TreeMap<String, int[]>();
+		try {
+			CompletionService<Object[]> done = new ExecutorCompletionService<Object[]>(executor);
+			int pending = 0;
+			FileSystem fs = dir.getFileSystem(conf);
+			FileStatus[] ls = fs.listStatus(dir);
+			Arrays.sort(ls);
+			for (FileStatus s : ls) {
+				String name = s.getPath().getName();
+				if (s.isDir() || name.startsWith("_") || name.startsWith("."))
+					continue;
+				LOG.info("Reading " + s.getPath());
+				SequenceFile.Reader reader = new SequenceFile.Reader(fs, s.getPath(), conf);
+				try {
+					Text key = new Text();
+					Text value = new Text();
+					while (reader.next(key, value)) {
+						final String book = key.toString();
+						final byte[] words = Arrays.copyOf(value.getBytes(), value.getLength());
+						done.submit(new Callable<Object[]>() {
+							@Override
+							public Object[] call() {
+								return new Object[] { book, signature(index, words) };
+							}
+						});
+						if (++pending > threads * 4) {
+							collect(done, signatures);
+							pending--;
+						}
+					}
+				} finally {
+					reader.close();
+				}
+			}
+			for (; pending > 0; pending--)
+				collect(done, signatures);
+		} finally {
+			executor.shutdown();
+		}
+		for (Map.Entry<String, int[]> e : signatures.entrySet())
+			index.add(e.getKey(), e.getValue());
+		LOG.info("Indexed " + index.size() + " books");
+	}
+
+	/**
+	 * @return signature of space separated words, null if there are none
+	 */
+	private static int[] signature(MinHashIndex index, byte[] words) {
+		ByteStringCounter distinct = new ByteStringCounter(1024);
+		int start = 0;
+		for (int i = 0; i <= words.length; i++) {
+			if (i == words.length || words[i] == ' ') {
+				if (i > start)
+					distinct.add(words, start, i - start, 1);
+				start = i + 1;
+			}
+		}
+		return distinct.size() == 0 ? null : index.signature(distinct);
+	}
+
+	private static void collect(CompletionService<Object[]> done, Map<String, int[]> signatures) throws IOException {
+		try {
+			Object[] result = done.take().get();
+			if (result[1] != null)
+				signatures.put((String) result[0], (int[]) result[1]);
+		} catch (InterruptedException e) {
+			throw new IOException(e);
+		} catch (ExecutionException e) {
+			throw new IOException(e.getCause());
+		}
+	}
+
+	static MinHashIndex load(Configuration conf, Path path) throws IOException {
+		DataInputStream in = path.getFileSystem(conf).open(path);
+		try {
+			MinHashIndex index = new MinHashIndex();
+			index.readFields(in);
+			return index;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Writes the index to a temporary file first, so a failed write does
+	 * not destroy the old index.
+	 */
+	static void save(Configuration conf, MinHashIndex index, Path path) throws IOException {
+		FileSystem fs = path.getFileSystem(conf);
+		Path tmp = new Path(path.getParent(), "." + path.getName() + ".tmp");
+		DataOutputStream out = fs.create(tmp, true);
+		try {
+			index.write(out);
+		} finally {
+			out.close();
+		}
+		fs.delete(path, false);
+		if (!fs.rename(tmp, path))
+			throw new IOException("Can not rename " + tmp + " to " + path);
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 3) {
+			System.err.println("Usage MinHashIndexer build <index> <sequence files>");
+			System.err.println("      MinHashIndexer add <index> <book>...");
+			System.err.println("      MinHashIndexer duplicates|similar <index> <book or name>...");
+			System.exit(1);
+		} else
+			System.exit(ToolRunner.run(new Configuration(), new MinHashIndexer(), args));
+	}
+}
@@ -31,7 +31,6 @@ import org.apache.hadoop.mapred.lib.IdentityReducer;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
 import org.apache.mahout.clustering.meanshift.MeanShiftCanopy;
-import org.apache.mahout.common.distance.CosineDistanceMeasure;
 import org.apache.mahout.math.Vector;
 import org.apache.mahout.math.VectorWritable;
 import org.slf4j.Logger;
@@ -45,34 +44,56 @@ public class OutputClusterResults extends Configured implements Tool {
 			implements
 			Mapper<Text, MeanShiftCanopy, Text, Text> {
 		
-		CosineDistanceMeasure measure;
 		List<Path> vectorPaths = new ArrayList<Path>();
 		Configuration conf;
 		float t;
+		SparseVectorIndex index;
+		Text name = new Text();
 
+		/**
+		 * Finds books close to the canopy center (by cosine distance) in
+		 * the vectors loaded by {@link #loadVectors()}.
+		 */
 		@Override
 		public void map(Text key, MeanShiftCanopy canopy,
 				OutputCollector<Text, Text> output, Reporter reporter)
 				throws IOException {
-			Vector v1 = canopy.getCenter();
+			if(index == null)
+				index = loadVectors();
+			int found = index.search(canopy.getCenter(), t);
+			for(int i = 0; i < found; i++){
+				name.set(index.getName(index.getResult(i)));
+				output.collect(key, name);
+			}
+		}
+
+		/**
+		 * Reads all book vectors once per task.
+		 */
+		private SparseVectorIndex loadVectors() throws IOException {
+			SparseVectorIndex vectors = new SparseVectorIndex();
 			for(Path vectorPath : vectorPaths){
 				if(vectorPath.getName().startsWith("part-")){
 					conf.setClass("mapred.output.compression.codec", GzipCodec.class,
 							CompressionCodec.class);
 					FileSystem fs = vectorPath.getFileSystem(conf);
 					SequenceFile.Reader reader = new SequenceFile.Reader( fs, vectorPath, conf);
-					VectorWritable v2 = new VectorWritable();
-					Text vkey = new Text();
-					while(reader.next(vkey, v2)){
-						if(v2 != null){
-							if(measure.distance(v1, v2.get()) < t){
-								output.collect(key, new Text(v2.get().getName()));
-							}
+					try {
+						VectorWritable v2 = new VectorWritable();
+						Text vkey = new Text();
+						while(reader.next(vkey, v2)){
+							Vector v = v2.get();
+							if(v != null)
+								vectors.add(v.getName(), v);
 						}
+					} finally {
+						reader.close();
 					}
 				}
 			}
-			
+			vectors.build();
+			LOG.info("Loaded " + vectors.size() + " vectors");
+			return vectors;
 		}
 
 		@Override
@@ -84,7 +105,6 @@ public class OutputClusterResults extends Configured implements Tool {
 				vectorPaths.add(new Path(vectorPath));
 				i++;
 			}
-			measure = new CosineDistanceMeasure();
 			t = job.getFloat("cluster.t2.distance", 0.02F);
 		}
 	}
@@ -0,0 +1,73 @@
+package com.fb2pdf.hadoop.cluster;
+
+import java.io.IOException;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.OutputFormat;
+import org.apache.hadoop.mapred.RecordWriter;
+import org.apache.hadoop.mapred.SequenceFileOutputFormat;
+import org.apache.hadoop.mapred.lib.MultipleOutputFormat;
+import org.apache.hadoop.util.Progressable;
+import org.apache.hadoop.util.ReflectionUtils;
+
+/**
+ * Output of an extraction job over many books, laid out as if each book
+ * had its own job: records with key "book/key" are written with key "key"
+ * to &lt;book&gt;/part-NNNNN by the output format set by
+ * {@link #setBaseOutputFormat}.
+ */
+class PerBookOutputFormat<V> extends MultipleOutputFormat<Text, V>
+{
+    /** Mappers prefix their keys with the name of their input book */
+    static final String  BOOK_KEYS   = "fb2.perbook.keys";
+    static final String  BASE_FORMAT = "fb2.perbook.format";
+    static final char    SEPARATOR   = '/';
+
+    private Text         actualKey   = new Text();
+
+    @SuppressWarnings("unchecked")
+    static void setBaseOutputFormat(JobConf conf, Class<? extends OutputFormat> format)
+    {
+        conf.setClass(BASE_FORMAT, format, OutputFormat.class);
+    }
+
+    /**
+     * @return key prefix of the book read by the task, null if keys are
+     *         not prefixed
+     */
+    static Text getBookPrefix(JobConf job)
+    {
+        if(!job.getBoolean(BOOK_KEYS, false))
+            return null;
+        return new Text(new Path(job.get("map.input.file")).getName() + SEPARATOR);
+    }
+
+    @Override
+    protected String generateFileNameForKeyValue(Text key, V value, String name)
+    {
+        // find returns a byte offset, the name may be not ASCII
+        String s = key.toString();
+        return s.substring(0, s.indexOf(SEPARATOR)) + SEPARATOR + name;
+    }
+
+    @Override
+    protected Text generateActualKey(Text key, V value)
+    {
+        int separator = key.find(String.valueOf(SEPARATOR));
+        actualKey.set(key.getBytes(), separator + 1, key.getLength() - separator - 1);
+        return actualKey;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    protected RecordWriter<Text, V> getBaseRecordWriter(FileSystem fs, JobConf job, String name, Progressable progress)
+            throws IOException
+    {
+        OutputFormat<Text, V> base = (OutputFormat<Text, V>) ReflectionUtils.newInstance(job.getClass(BASE_FORMAT,
+                SequenceFileOutputFormat.class, OutputFormat.class), job);
+        return base.getRecordWriter(fs, job, name, progress);
+    }
+}
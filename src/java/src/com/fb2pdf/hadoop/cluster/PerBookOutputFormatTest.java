@@ -0,0 +1,27 @@
+package com.fb2pdf.hadoop.cluster;
+
+import static org.junit.Assert.*;
+
+import org.apache.hadoop.io.Text;
+import org.junit.Test;
+
+public class PerBookOutputFormatTest {
+
+	@Test
+	public void testNames() {
+		PerBookOutputFormat<Text> format = new PerBookOutputFormat<Text>();
+		Text key = new Text("book.fb2/word");
+		assertEquals("book.fb2/part-00000", format.generateFileNameForKeyValue(key, null, "part-00000"));
+		assertEquals("word", format.generateActualKey(key, null).toString());
+	}
+
+	@Test
+	public void testCyrillicNames() {
+		PerBookOutputFormat<Text> format = new PerBookOutputFormat<Text>();
+		// the separator is at byte 14, char 9
+		Text key = new Text("\u043a\u043d\u0438\u0433\u0430.fb2/\u0441\u043b\u043e\u0432\u043e");
+		assertEquals("\u043a\u043d\u0438\u0433\u0430.fb2/part-00000",
+				format.generateFileNameForKeyValue(key, null, "part-00000"));
+		assertEquals("\u0441\u043b\u043e\u0432\u043e", format.generateActualKey(key, null).toString());
+	}
+}
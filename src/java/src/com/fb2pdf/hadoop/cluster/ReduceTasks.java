@@ -0,0 +1,24 @@
+package com.fb2pdf.hadoop.cluster;
+
+import org.apache.hadoop.mapred.JobConf;
+
+/**
+ * Number of reduce tasks of the extraction jobs, e.g.
+ * -D fb2.reduce.tasks=8. Keys are spread over reducers by the default hash
+ * partitioner and every reducer writes its own part file; the readers of
+ * these outputs (SequenceFilesFromDirectory, getMetadataConfiguration) take
+ * all part files of a book's directory together.
+ */
+final class ReduceTasks
+{
+    public static final String PROPERTY = "fb2.reduce.tasks";
+
+    private ReduceTasks()
+    {
+    }
+
+    static void configure(JobConf conf)
+    {
+        conf.setNumReduceTasks(Math.max(1, conf.getInt(PROPERTY, 1)));
+    }
+}
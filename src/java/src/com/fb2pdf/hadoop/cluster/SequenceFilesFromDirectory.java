@@ -1,13 +1,31 @@
 package com.fb2pdf.hadoop.cluster;
 
+import java.io.BufferedReader;
 import java.io.Closeable;
-import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.PathFilter;
@@ -17,11 +35,22 @@ import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.SequenceFile.CompressionType;
 import org.apache.hadoop.io.compress.CompressionCodec;
 import org.apache.hadoop.io.compress.GzipCodec;
+import org.apache.hadoop.util.ReflectionUtils;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
 import org.slf4j.LoggerFactory;
 import org.slf4j.Logger;
 
+/**
+ * Writes one (book name, keywords) record per book directory of the
+ * FB2KeywordsExtractor output into block compressed SequenceFiles.
+ *
+ * Books are read by several threads, each writing to one of several
+ * {@link ChunkedWriter}s with its own chunk series. A manifest in the
+ * output directory remembers the size and modification time of every
+ * book and the chunk holding it, so a re-run only ingests new or changed
+ * books; chunks holding changed or deleted books are rewritten.
+ */
 public final class SequenceFilesFromDirectory extends Configured implements
 		Tool {
 
@@ -29,45 +58,72 @@ public final class SequenceFilesFromDirectory extends Configured implements
 			.getLogger(SequenceFilesFromDirectory.class);
 	Configuration conf = new Configuration();
 
+	/** Compression codec class of the chunks, GzipCodec by default */
+	public static final String CODEC = "fb2.sequencefiles.codec";
+	/** Number of threads reading books, all processors by default */
+	public static final String READERS = "fb2.sequencefiles.readers";
+	/** Number of chunk series written at once, as many as readers by default */
+	public static final String WRITERS = "fb2.sequencefiles.writers";
+
+	static final String MANIFEST = "_manifest";
+	private static final String CHUNK_PREFIX = "chunk-";
+
 	public static class ChunkedWriter implements Closeable {
 		private final int maxChunkSizeInBytes;
 		private final String outputDir;
+		private final String prefix;
 		private SequenceFile.Writer writer;
 		private int currentChunkID;
 		private int currentChunkSize;
-		private final Configuration conf = new Configuration();
+		private final Configuration conf;
 		private final FileSystem fs;
+		private final CompressionCodec codec;
 
 		public ChunkedWriter(int chunkSizeInMB, String outputDir)
 				throws IOException {
+			this(new Configuration(), chunkSizeInMB, outputDir, CHUNK_PREFIX);
+		}
+
+		/**
+		 * @param prefix chunk file names are the prefix followed by the
+		 *            chunk number
+		 */
+		public ChunkedWriter(Configuration conf, int chunkSizeInMB,
+				String outputDir, String prefix) throws IOException {
 			if (chunkSizeInMB < 64) {
 				chunkSizeInMB = 64;
 			} else if (chunkSizeInMB > 1984) {
 				chunkSizeInMB = 1984;
 			}
 			maxChunkSizeInBytes = chunkSizeInMB * 1024 * 1024;
+			this.conf = conf;
 			this.outputDir = outputDir;
+			this.prefix = prefix;
 			fs = getPath(currentChunkID).getFileSystem(conf);
-			currentChunkID = 0;
-			conf.setClass("mapred.output.compression.codec", GzipCodec.class,
-					CompressionCodec.class);
-			CompressionCodec codec = new GzipCodec();
-			writer = SequenceFile.createWriter(fs, conf,
-					getPath(currentChunkID), Text.class, Text.class,
-					CompressionType.BLOCK, codec);
+			codec = (CompressionCodec) ReflectionUtils.newInstance(conf
+					.getClass(CODEC, GzipCodec.class, CompressionCodec.class),
+					conf);
+			writer = createWriter();
+		}
+
+		private SequenceFile.Writer createWriter() throws IOException {
+			return SequenceFile.createWriter(fs, conf, getPath(currentChunkID),
+					Text.class, Text.class, CompressionType.BLOCK, codec);
 		}
 
 		private Path getPath(int chunkID) {
-			return new Path(outputDir + "/chunk-" + chunkID);
+			return new Path(outputDir + "/" + prefix + chunkID);
 		}
 
-		public void write(String key, String value) throws IOException {
+		/**
+		 * @return name of the chunk file the record is written to
+		 */
+		public synchronized String write(String key, String value) throws IOException {
 			if (currentChunkSize > maxChunkSizeInBytes) {
 				writer.close();
-				writer = new SequenceFile.Writer(fs, conf,
-						getPath(currentChunkID++), Text.class, Text.class);
+				currentChunkID++;
+				writer = createWriter();
 				currentChunkSize = 0;
-
 			}
 
 			Text keyT = new Text(key);
@@ -75,69 +131,84 @@ public final class SequenceFilesFromDirectory extends Configured implements
 			currentChunkSize += keyT.getBytes().length
 					+ valueT.getBytes().length; // Overhead
 			writer.append(keyT, valueT);
+			return getPath(currentChunkID).getName();
 		}
 
 		@Override
-		public void close() throws IOException {
+		public synchronized void close() throws IOException {
 			writer.close();
 		}
 	}
 
+	/**
+	 * Part files of one book directory.
+	 */
+	static class Book {
+		final String name;
+		final List<Path> files = new ArrayList<Path>();
+		long length;
+		long modified;
+
+		Book(String name) {
+			this.name = name;
+		}
+
+		void add(FileStatus file) {
+			files.add(file.getPath());
+			length += file.getLen();
+			modified = Math.max(modified, file.getModificationTime());
+		}
+
+		/**
+		 * @return string which changes when any part file changes
+		 */
+		String getStamp() {
+			return length + ":" + modified + ":" + files.size();
+		}
+	}
+
+	/**
+	 * Collects books, one per directory. A job with several reducers
+	 * leaves several part files for a book, their words are joined.
+	 */
 	public class PrefixAdditionFilter implements PathFilter {
 		private final String prefix;
-		private final ChunkedWriter writer;
-		private final Charset charset;
+		private final List<Book> books;
 		private final FileSystem fs;
 
 		public PrefixAdditionFilter(FileSystem fs, String prefix,
-				ChunkedWriter writer, Charset charset) {
+				List<Book> books) {
 			this.fs = fs;
 			this.prefix = prefix;
-			this.writer = writer;
-			this.charset = charset;
+			this.books = books;
 		}
 
 		@Override
 		public boolean accept(Path current) {
 			try {
-				if (fs.getFileStatus(current).isDir()) {
-					try {
-						fs.listStatus(current, new PrefixAdditionFilter(fs,
-								prefix,
-								writer, charset));
-					} catch (IOException e) {
-						LOG.error(e.getMessage());
+				FileStatus status = fs.getFileStatus(current);
+				if (status.isDir()) {
+					FileStatus[] children = fs.listStatus(current);
+					Arrays.sort(children);
+					Book book = null;
+					for (FileStatus child : children) {
+						if (child.isDir()) {
+							accept(child.getPath());
+						} else if (child.getPath().getName().startsWith(prefix)) {
+							if (book == null)
+								book = new Book(current.getName());
+							book.add(child);
+						} else {
+							LOG.info("Skipping file " + child.getPath().getName() + ". It doesn't start with prefix " + prefix);
+						}
 					}
+					if (book != null)
+						books.add(book);
 				} else {
 					if(current.getName().startsWith(prefix)){
-						LOG.info("processing file " + current.getName());
-						SequenceFile.Reader reader = null;
-						try {
-							StringBuilder file = new StringBuilder();
-							reader = new SequenceFile.Reader(
-									fs, current, conf);
-							Text key = new Text();
-							LongWritable value = new LongWritable();
-							while (reader.next(key, value)) {
-								try {
-									long amountOfWords = Math.abs(value.get());
-									for (int i = 0; i < amountOfWords; i++) {
-										file.append(key.toString()).append(" ");
-									}
-								} catch (NumberFormatException e) {
-									// do nothing
-								}
-							}
-							writer.write(current.getParent().getName(), file
-									.toString());
-	
-						} catch (FileNotFoundException e) {
-							LOG.error(e.getMessage());
-						} catch (IOException e) {
-							LOG.error(e.getMessage());
-						} finally{
-							reader.close();
-						}
+						Book book = new Book(current.getParent().getName());
+						book.add(status);
+						books.add(book);
 					}
 					else{
 						LOG.info("Skipping file " + current.getName() + ". It doesn't start with prefix " + prefix);
@@ -148,23 +219,250 @@ public final class SequenceFilesFromDirectory extends Configured implements
 			}
 			return false;
 		}
+	}
 
+	private void appendWords(FileSystem fs, Path current, StringBuilder file) {
+		LOG.info("processing file " + current.getName());
+		SequenceFile.Reader reader = null;
+		try {
+			reader = new SequenceFile.Reader(
+					fs, current, conf);
+			Text key = new Text();
+			LongWritable value = new LongWritable();
+			while (reader.next(key, value)) {
+				try {
+					long amountOfWords = Math.abs(value.get());
+					for (int i = 0; i < amountOfWords; i++) {
+						file.append(key.toString()).append(" ");
+					}
+				} catch (NumberFormatException e) {
+					// do nothing
+				}
+			}
+		} catch (FileNotFoundException e) {
+			LOG.error(e.getMessage());
+		} catch (IOException e) {
+			LOG.error(e.getMessage());
+		} finally{
+			if (reader != null) {
+				try {
+					reader.close();
+				} catch (IOException e) {
+					LOG.error(e.getMessage());
+				}
+			}
+		}
 	}
 
-	private static ChunkedWriter createNewChunkedWriter(int chunkSizeInMB,
-			String outputDir) throws IOException {
-		return new ChunkedWriter(chunkSizeInMB, outputDir);
+	/**
+	 * Book stamps and chunks of the previous runs, one "name stamp chunk"
+	 * line per book after the run counter line.
+	 */
+	static class Manifest {
+		static class Entry {
+			final String stamp;
+			final String chunk;
+
+			Entry(String stamp, String chunk) {
+				this.stamp = stamp;
+				this.chunk = chunk;
+			}
+		}
+
+		int run;
+		final Map<String, Entry> books = new ConcurrentHashMap<String, Entry>();
+
+		static Manifest load(FileSystem fs, Path path) throws IOException {
+			Manifest manifest = new Manifest();
+			if (!fs.exists(path))
+				return manifest;
+			BufferedReader in = new BufferedReader(new InputStreamReader(fs.open(path), "UTF-8"));
+			try {
+				String line = in.readLine();
+				if (line != null)
+					manifest.run = Integer.parseInt(line.trim());
+				while ((line = in.readLine()) != null) {
+					String[] fields = line.split("\t");
+					if (fields.length == 3)
+						manifest.books.put(fields[0], new Entry(fields[1], fields[2]));
+				}
+			} finally {
+				in.close();
+			}
+			return manifest;
+		}
+
+		/**
+		 * Writes a temporary file first, so an interrupted run leaves the
+		 * previous manifest.
+		 */
+		void save(FileSystem fs, Path path) throws IOException {
+			Path tmp = new Path(path.getParent(), path.getName() + ".tmp");
+			Writer out = new OutputStreamWriter(fs.create(tmp, true), "UTF-8");
+			try {
+				out.write(run + "\n");
+				for (Map.Entry<String, Entry> e : books.entrySet())
+					out.write(e.getKey() + "\t" + e.getValue().stamp + "\t" + e.getValue().chunk + "\n");
+			} finally {
+				out.close();
+			}
+			fs.delete(path, false);
+			if (!fs.rename(tmp, path))
+				throw new IOException("Can not rename " + tmp + " to " + path);
+		}
+
+		Set<String> getChunks() {
+			Set<String> chunks = new HashSet<String>();
+			for (Entry e : books.values())
+				chunks.add(e.chunk);
+			return chunks;
+		}
 	}
 
 	public void createSequenceFiles(Path parentDir, String outputDir,
 			String prefix, int chunkSizeInMB, Charset charset)
 			throws IOException {
 		LOG.info("Using prefix " + prefix);
-		ChunkedWriter writer = createNewChunkedWriter(chunkSizeInMB, outputDir);
-		FileSystem fs = parentDir.getFileSystem(conf);
-		fs.listStatus(parentDir, new PrefixAdditionFilter(fs, prefix, writer,
-				charset));
-		writer.close();
+		final FileSystem fs = parentDir.getFileSystem(conf);
+		List<Book> books = new ArrayList<Book>();
+		new PrefixAdditionFilter(fs, prefix, books).accept(parentDir);
+
+		final Path out = new Path(outputDir);
+		final FileSystem outFs = out.getFileSystem(conf);
+		Path manifestPath = new Path(out, MANIFEST);
+		Manifest old = Manifest.load(outFs, manifestPath);
+		deleteUnknownChunks(outFs, out, old.getChunks());
+
+		final Map<String, Book> current = new HashMap<String, Book>();
+		for (Book book : books)
+			current.put(book.name, book);
+		final Manifest manifest = new Manifest();
+		manifest.run = old.run + 1;
+		List<Book> todo = new ArrayList<Book>();
+		Set<String> stale = new TreeSet<String>();
+		for (Book book : current.values()) {
+			Manifest.Entry e = old.books.get(book.name);
+			if (e != null && e.stamp.equals(book.getStamp())) {
+				manifest.books.put(book.name, e);
+				continue;
+			}
+			todo.add(book);
+			if (e != null)
+				stale.add(e.chunk);
+		}
+		for (Map.Entry<String, Manifest.Entry> e : old.books.entrySet()) {
+			if (!current.containsKey(e.getKey()))
+				stale.add(e.getValue().chunk);
+		}
+		LOG.info(todo.size() + " new or changed books, "
+				+ (current.size() - todo.size()) + " unchanged, "
+				+ stale.size() + " chunks to rewrite");
+		if (todo.isEmpty() && stale.isEmpty()) {
+			manifest.save(outFs, manifestPath);
+			return;
+		}
+
+		int readers = conf.getInt(READERS, Runtime.getRuntime().availableProcessors());
+		int writerCount = Math.min(conf.getInt(WRITERS, readers), todo.size() + stale.size());
+		final ChunkedWriter[] writers = new ChunkedWriter[writerCount];
+		ExecutorService executor = Executors.newFixedThreadPool(readers);
+		try {
+			for (int i = 0; i < writers.length; i++)
+				writers[i] = new ChunkedWriter(conf, chunkSizeInMB, outputDir,
+						CHUNK_PREFIX + manifest.run + "-" + i + "-");
+
+			List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+			for (final String chunk : stale) {
+				final ChunkedWriter writer = writers[tasks.size() % writers.length];
+				tasks.add(new Callable<Object>() {
+					@Override
+					public Object call() throws IOException {
+						copyUnchanged(outFs, new Path(out, chunk), manifest, writer);
+						return null;
+					}
+				});
+			}
+			for (final Book book : todo) {
+				final ChunkedWriter writer = writers[tasks.size() % writers.length];
+				tasks.add(new Callable<Object>() {
+					@Override
+					public Object call() throws IOException {
+						StringBuilder file = new StringBuilder();
+						for (Path p : book.files)
+							appendWords(fs, p, file);
+						String chunk = writer.write(book.name, file.toString());
+						manifest.books.put(book.name, new Manifest.Entry(book.getStamp(), chunk));
+						return null;
+					}
+				});
+			}
+			invokeAll(executor, tasks);
+		} finally {
+			executor.shutdown();
+			for (ChunkedWriter writer : writers) {
+				if (writer != null)
+					writer.close();
+			}
+		}
+
+		manifest.save(outFs, manifestPath);
+		for (String chunk : stale)
+			outFs.delete(new Path(out, chunk), false);
+	}
+
+	/**
+	 * Moves books which the manifest still places in the chunk to the
+	 * writer.
+	 */
+	private void copyUnchanged(FileSystem fs, Path chunk, Manifest manifest,
+			ChunkedWriter writer) throws IOException {
+		LOG.info("rewriting " + chunk.getName());
+		SequenceFile.Reader reader = new SequenceFile.Reader(fs, chunk, conf);
+		try {
+			Text key = new Text();
+			Text value = new Text();
+			while (reader.next(key, value)) {
+				String name = key.toString();
+				Manifest.Entry e = manifest.books.get(name);
+				if (e != null && e.chunk.equals(chunk.getName())) {
+					String moved = writer.write(name, value.toString());
+					manifest.books.put(name, new Manifest.Entry(e.stamp, moved));
+				}
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Chunks not in the manifest were left by an interrupted run or a run
+	 * without manifest, their books are written again.
+	 */
+	private static void deleteUnknownChunks(FileSystem fs, Path out,
+			Set<String> known) throws IOException {
+		if (!fs.exists(out))
+			return;
+		for (FileStatus s : fs.listStatus(out)) {
+			String name = s.getPath().getName();
+			if (name.startsWith(CHUNK_PREFIX) && !known.contains(name)) {
+				LOG.info("Deleting " + name + ", it is not in the manifest");
+				fs.delete(s.getPath(), false);
+			}
+		}
+	}
+
+	private static void invokeAll(ExecutorService executor,
+			List<Callable<Object>> tasks) throws IOException {
+		try {
+			for (Future<Object> f : executor.invokeAll(tasks))
+				f.get();
+		} catch (InterruptedException e) {
+			throw new IOException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new IOException(e.getCause());
+		}
 	}
 
 	@Override
@@ -175,8 +473,7 @@ public final class SequenceFilesFromDirectory extends Configured implements
 	@Override
 	public int run(String[] args) throws Exception {
 		Charset charset = Charset.forName("UTF-8");
-		SequenceFilesFromDirectory dir = new SequenceFilesFromDirectory();
-		dir.createSequenceFiles(new Path(args[0]), args[1], args[2], 64,
+		createSequenceFiles(new Path(args[0]), args[1], args[2], 64,
 				charset);
 		return 0;
 	}
@@ -192,4 +489,4 @@ public final class SequenceFilesFromDirectory extends Configured implements
 		}
 	}
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,111 @@
+package com.fb2pdf.hadoop.cluster;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.DefaultCodec;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SequenceFilesFromDirectoryTest {
+
+	private Configuration conf;
+	private FileSystem fs;
+	private Path root;
+	private Path in;
+	private Path out;
+
+	@Before
+	public void setUp() throws IOException {
+		conf = new Configuration();
+		// gzip needs the native library
+		conf.setClass(SequenceFilesFromDirectory.CODEC, DefaultCodec.class, CompressionCodec.class);
+		conf.setInt(SequenceFilesFromDirectory.READERS, 3);
+		fs = FileSystem.getLocal(conf);
+		root = new Path(new File(System.getProperty("java.io.tmpdir"), "sffd-test-" + System.nanoTime()).getAbsolutePath());
+		in = new Path(root, "in");
+		out = new Path(root, "out");
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		fs.delete(root, true);
+	}
+
+	private void writeBook(String name, String part, String... words) throws IOException {
+		SequenceFile.Writer writer = SequenceFile.createWriter(fs, conf, new Path(new Path(in, name), part),
+				Text.class, LongWritable.class);
+		try {
+			for (String w : words)
+				writer.append(new Text(w), new LongWritable(1));
+		} finally {
+			writer.close();
+		}
+	}
+
+	private Map<String, String> readOutput() throws IOException {
+		Map<String, String> books = new HashMap<String, String>();
+		for (FileStatus s : fs.listStatus(out)) {
+			if (!s.getPath().getName().startsWith("chunk-"))
+				continue;
+			SequenceFile.Reader reader = new SequenceFile.Reader(fs, s.getPath(), conf);
+			try {
+				Text key = new Text();
+				Text value = new Text();
+				while (reader.next(key, value))
+					assertNull("one record per book", books.put(key.toString(), value.toString()));
+			} finally {
+				reader.close();
+			}
+		}
+		return books;
+	}
+
+	private void run() throws IOException {
+		SequenceFilesFromDirectory sffd = new SequenceFilesFromDirectory();
+		sffd.setConf(conf);
+		sffd.createSequenceFiles(in, out.toString(), "part-", 64, Charset.forName("UTF-8"));
+	}
+
+	@Test
+	public void testIncremental() throws IOException {
+		for (int i = 0; i < 10; i++)
+			writeBook("book" + i + ".fb2", "part-00000", "word" + i, "common");
+		writeBook("book0.fb2", "part-00001", "second");
+		run();
+
+		Map<String, String> books = readOutput();
+		assertEquals(10, books.size());
+		assertEquals("word0 common second ", books.get("book0.fb2"));
+
+		run();
+		assertEquals(books, readOutput());
+
+		fs.delete(new Path(in, "book3.fb2"), true);
+		fs.delete(new Path(in, "book5.fb2"), true);
+		writeBook("book5.fb2", "part-00000", "changed", "book");
+		writeBook("book10.fb2", "part-00000", "new");
+		run();
+
+		books = readOutput();
+		assertEquals(10, books.size());
+		assertNull(books.get("book3.fb2"));
+		assertEquals("changed book ", books.get("book5.fb2"));
+		assertEquals("new ", books.get("book10.fb2"));
+		assertEquals("word9 common ", books.get("book9.fb2"));
+	}
+}
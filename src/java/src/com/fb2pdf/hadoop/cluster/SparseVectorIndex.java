@@ -0,0 +1,312 @@
+package com.fb2pdf.hadoop.cluster;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+
+import org.apache.mahout.math.Vector;
+
+/**
+ * Normalized sparse vectors kept in primitive arrays with an inverted index
+ * over dimensions, to find all vectors within a cosine distance of a query
+ * without comparing it to every vector.
+ *
+ * Dimensions of the query are visited in order of their largest possible
+ * contribution (query weight times the largest weight of the dimension).
+ * Once the contributions left can not reach the threshold, no new
+ * candidates are taken, and the candidates found so far are checked with an
+ * exact dot product.
+ *
+ * Once built the index is read only; concurrent searches each need their own
+ * {@link Searcher}.
+ */
+class SparseVectorIndex {
+
+	private static final double EPSILON = 1e-9;
+
+	private int size;
+	private String[] names = new String[16];
+	private int[] rowStarts = new int[17];
+	private int[] dims = new int[1024];
+	private double[] weights = new double[1024];
+	private int nonZeros;
+	private int maxDim = -1;
+
+	private int[] postingStarts;
+	private int[] postingRows;
+	private double[] postingWeights;
+	private double[] maxWeights;
+
+	private Searcher searcher;
+
+	public int size() {
+		return size;
+	}
+
+	public String getName(int row) {
+		return names[row];
+	}
+
+	/**
+	 * Adds a vector, vectors of zero length are ignored. Call
+	 * {@link #build()} after the last one.
+	 */
+	public void add(String name, Vector v) {
+		int n = v.getNumNondefaultElements();
+		int[] vDims = new int[n];
+		double[] values = new double[n];
+		int count = 0;
+		for (Iterator<Vector.Element> it = v.iterateNonZero(); it.hasNext();) {
+			Vector.Element e = it.next();
+			if (count == vDims.length) {
+				vDims = Arrays.copyOf(vDims, count * 2 + 1);
+				values = Arrays.copyOf(values, count * 2 + 1);
+			}
+			vDims[count] = e.index();
+			values[count] = e.get();
+			count++;
+		}
+		add(name, vDims, values, count);
+	}
+
+	/**
+	 * Adds a vector given by its first count (dimension, value) pairs in any
+	 * order.
+	 */
+	public void add(String name, int[] vDims, double[] values, int count) {
+		long[] packed = new long[count];
+		int n = 0;
+		double lengthSquared = 0;
+		for (int i = 0; i < count; i++) {
+			if (values[i] == 0)
+				continue;
+			packed[n++] = ((long) vDims[i] << 32) | i;
+			lengthSquared += values[i] * values[i];
+		}
+		if (n == 0)
+			return;
+		count = n;
+		Arrays.sort(packed, 0, count);
+
+		if (size + 1 == names.length) {
+			names = Arrays.copyOf(names, names.length * 2);
+			rowStarts = Arrays.copyOf(rowStarts, names.length + 1);
+		}
+		if (nonZeros + count > dims.length) {
+			int capacity = Math.max(dims.length * 2, nonZeros + count);
+			dims = Arrays.copyOf(dims, capacity);
+			weights = Arrays.copyOf(weights, capacity);
+		}
+		double length = Math.sqrt(lengthSquared);
+		for (int i = 0; i < count; i++) {
+			int dim = (int) (packed[i] >>> 32);
+			dims[nonZeros + i] = dim;
+			weights[nonZeros + i] = values[(int) packed[i]] / length;
+			maxDim = Math.max(maxDim, dim);
+		}
+		names[size] = name;
+		nonZeros += count;
+		rowStarts[++size] = nonZeros;
+	}
+
+	/**
+	 * Builds the inverted index.
+	 */
+	public void build() {
+		int dimCount = maxDim + 1;
+		postingStarts = new int[dimCount + 1];
+		maxWeights = new double[dimCount];
+		for (int i = 0; i < nonZeros; i++) {
+			postingStarts[dims[i] + 1]++;
+			maxWeights[dims[i]] = Math.max(maxWeights[dims[i]], Math.abs(weights[i]));
+		}
+		for (int d = 0; d < dimCount; d++)
+			postingStarts[d + 1] += postingStarts[d];
+
+		postingRows = new int[nonZeros];
+		postingWeights = new double[nonZeros];
+		int[] next = Arrays.copyOf(postingStarts, dimCount);
+		for (int row = 0; row < size; row++) {
+			for (int i = rowStarts[row]; i < rowStarts[row + 1]; i++) {
+				int p = next[dims[i]]++;
+				postingRows[p] = row;
+				postingWeights[p] = weights[i];
+			}
+		}
+		searcher = new Searcher();
+	}
+
+	/**
+	 * Number of dimensions, one more than the largest dimension seen.
+	 */
+	public int getDimensions() {
+		return maxDim + 1;
+	}
+
+	public int getRowLength(int row) {
+		return rowStarts[row + 1] - rowStarts[row];
+	}
+
+	/**
+	 * Copies the normalized vector of the row into rowDims and rowWeights.
+	 *
+	 * @return number of non zero elements
+	 */
+	public int getRow(int row, int[] rowDims, double[] rowWeights) {
+		int start = rowStarts[row];
+		int n = rowStarts[row + 1] - start;
+		System.arraycopy(dims, start, rowDims, 0, n);
+		System.arraycopy(weights, start, rowWeights, 0, n);
+		return n;
+	}
+
+	/**
+	 * Finds vectors v with 1 - cos(query, v) &lt; t, the same condition as
+	 * CosineDistanceMeasure.distance(query, v) &lt; t. Not thread safe.
+	 *
+	 * @return number of vectors found, see {@link #getResult(int)}
+	 */
+	public int search(Vector query, double t) {
+		int n = query.getNumNondefaultElements();
+		int[] qDims = new int[n];
+		double[] qWeights = new double[n];
+		int count = 0;
+		for (Iterator<Vector.Element> it = query.iterateNonZero(); it.hasNext();) {
+			Vector.Element e = it.next();
+			if (count == n)
+				break;
+			qDims[count] = e.index();
+			qWeights[count] = e.get();
+			count++;
+		}
+		return searcher.search(qDims, qWeights, count, t);
+	}
+
+	public int getResult(int i) {
+		return searcher.getResult(i);
+	}
+
+	/**
+	 * @return search state for one thread, the index must be built
+	 */
+	public Searcher newSearcher() {
+		return new Searcher();
+	}
+
+	/**
+	 * Per thread search state.
+	 */
+	class Searcher {
+		private final double[] acc = new double[size];
+		private final int[] touched = new int[size];
+		private final int[] results = new int[size];
+
+		public int getResult(int i) {
+			return results[i];
+		}
+
+		/**
+		 * Same as {@link SparseVectorIndex#search(Vector, double)} for a
+		 * query given by its first count (dimension, value) pairs. The
+		 * arrays are not changed.
+		 */
+		public int search(int[] queryDims, double[] queryWeights, int count, double t) {
+			final int[] qDims = new int[count];
+			final double[] qWeights = new double[count];
+			final double[] bounds = new double[count];
+			int n = 0;
+			double lengthSquared = 0;
+			for (int i = 0; i < count; i++) {
+				if (queryWeights[i] == 0)
+					continue;
+				qDims[n] = queryDims[i];
+				qWeights[n] = queryWeights[i];
+				lengthSquared += queryWeights[i] * queryWeights[i];
+				n++;
+			}
+			count = n;
+			if (count == 0 || size == 0)
+				return 0;
+
+			double length = Math.sqrt(lengthSquared);
+			double remaining = 0;
+			Integer[] order = new Integer[count];
+			for (int i = 0; i < count; i++) {
+				qWeights[i] /= length;
+				bounds[i] = qDims[i] < maxWeights.length ? Math.abs(qWeights[i]) * maxWeights[qDims[i]] : 0;
+				remaining += bounds[i];
+				order[i] = i;
+			}
+			Arrays.sort(order, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer a, Integer b) {
+					return Double.compare(bounds[b], bounds[a]);
+				}
+			});
+
+			double s = 1 - t;
+			int touchedCount = 0;
+			int k = 0;
+			for (; k < count && remaining > s - EPSILON; k++) {
+				int q = order[k];
+				if (bounds[q] == 0)
+					break;
+				int dim = qDims[q];
+				for (int p = postingStarts[dim]; p < postingStarts[dim + 1]; p++) {
+					int row = postingRows[p];
+					if (acc[row] == 0)
+						touched[touchedCount++] = row;
+					acc[row] += qWeights[q] * postingWeights[p];
+					if (acc[row] == 0)
+						acc[row] = Double.MIN_VALUE; // stays marked as touched
+				}
+				remaining -= bounds[q];
+			}
+
+			int found = 0;
+			int[] sorted = null;
+			for (int i = 0; i < touchedCount; i++) {
+				int row = touched[i];
+				double partial = acc[row];
+				acc[row] = 0;
+				if (partial + remaining <= s - EPSILON)
+					continue;
+				if (sorted == null)
+					sorted = sortByDim(qDims, count);
+				if (1 - dot(sorted, qDims, qWeights, row) < t)
+					results[found++] = row;
+			}
+			return found;
+		}
+	}
+
+	private static int[] sortByDim(int[] qDims, int count) {
+		long[] packed = new long[count];
+		for (int i = 0; i < count; i++)
+			packed[i] = ((long) qDims[i] << 32) | i;
+		Arrays.sort(packed);
+		int[] sorted = new int[count];
+		for (int i = 0; i < count; i++)
+			sorted[i] = (int) packed[i];
+		return sorted;
+	}
+
+	private double dot(int[] sorted, int[] qDims, double[] qWeights, int row) {
+		double sum = 0;
+		int i = 0;
+		int j = rowStarts[row];
+		int end = rowStarts[row + 1];
+		while (i < sorted.length && j < end) {
+			int qd = qDims[sorted[i]];
+			if (qd == dims[j]) {
+				sum += qWeights[sorted[i]] * weights[j];
+				i++;
+				j++;
+			} else if (qd < dims[j])
+				i++;
+			else
+				j++;
+		}
+		return sum;
+	}
+}
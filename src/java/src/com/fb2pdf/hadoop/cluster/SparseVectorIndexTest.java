@@ -0,0 +1,62 @@
+package com.fb2pdf.hadoop.cluster;
+
+import static org.junit.Assert.*;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.mahout.common.distance.CosineDistanceMeasure;
+import org.apache.mahout.math.RandomAccessSparseVector;
+import org.apache.mahout.math.Vector;
+import org.junit.Test;
+
+public class SparseVectorIndexTest {
+
+	private static final int CARDINALITY = 500;
+
+	private Vector randomVector(Random r, String name, Vector base) {
+		Vector v = new RandomAccessSparseVector(name, CARDINALITY);
+		if (base != null) {
+			v.assign(base);
+		}
+		for (int i = 0; i < 20; i++) {
+			v.setQuick(r.nextInt(base == null ? CARDINALITY : 40), r.nextInt(5) + 1);
+		}
+		return v;
+	}
+
+	@Test
+	public void testSameAsCosineDistance() {
+		Random r = new Random(42);
+		Vector[] vectors = new Vector[300];
+		SparseVectorIndex index = new SparseVectorIndex();
+		for (int i = 0; i < vectors.length; i++) {
+			// every third vector is a small change of the previous one
+			vectors[i] = randomVector(r, "book" + i, i % 3 == 0 ? null : vectors[i - 1]);
+			index.add(vectors[i].getName(), vectors[i]);
+		}
+		index.add("empty", new RandomAccessSparseVector("empty", CARDINALITY));
+		index.build();
+		assertEquals(vectors.length, index.size());
+
+		CosineDistanceMeasure measure = new CosineDistanceMeasure();
+		for (double t : new double[] { 0.002, 0.02, 0.2, 0.6 }) {
+			int total = 0;
+			for (Vector query : vectors) {
+				Set<String> expected = new HashSet<String>();
+				for (Vector v : vectors) {
+					if (measure.distance(query, v) < t)
+						expected.add(v.getName());
+				}
+				Set<String> actual = new HashSet<String>();
+				int found = index.search(query, t);
+				for (int i = 0; i < found; i++)
+					actual.add(index.getName(index.getResult(i)));
+				assertEquals(expected, actual);
+				total += found;
+			}
+			assertTrue(total >= vectors.length);
+		}
+	}
+}
@@ -0,0 +1,82 @@
+package com.fb2pdf.search;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Catalog fields of a book read from its &lt;description&gt; by
+ * {@link DescriptionReader}. Authors are formatted as www/fbparser.php does:
+ * "last-name, first-name".
+ */
+public class BookDescription
+{
+    private final String       storageKey;
+    final List<String>         authors = new ArrayList<String>();
+    final List<String>         genres  = new ArrayList<String>();
+    String                     title;
+    String                     series;
+    int                        seriesNumber;
+    String                     lang;
+    String                     isbn;
+    String                     annotation;
+
+    public BookDescription(String storageKey)
+    {
+        this.storageKey = storageKey;
+    }
+
+    /**
+     * @return file name of the book without .zip, as in
+     *         OriginalBooks.storage_key
+     */
+    public String getStorageKey()
+    {
+        return storageKey;
+    }
+
+    public List<String> getAuthors()
+    {
+        return authors;
+    }
+
+    public List<String> getGenres()
+    {
+        return genres;
+    }
+
+    public String getTitle()
+    {
+        return title;
+    }
+
+    public String getSeries()
+    {
+        return series;
+    }
+
+    /**
+     * @return number of the book in its series or 0
+     */
+    public int getSeriesNumber()
+    {
+        return seriesNumber;
+    }
+
+    public String getLang()
+    {
+        return lang;
+    }
+
+    public String getIsbn()
+    {
+        return isbn;
+    }
+
+    /**
+     * @return text of the annotation paragraphs separated by new lines
+     */
+    public String getAnnotation()
+    {
+        return annotation;
+    }
+}
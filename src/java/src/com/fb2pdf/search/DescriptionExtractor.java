@@ -0,0 +1,202 @@
+package com.fb2pdf.search;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Reads descriptions of all books in a directory tree on a thread pool and
+ * writes SQL filling the TitleSearch and AuthorSearch tables of
+ * search/searchtable.sql. Books are matched to OriginalBooks by
+ * storage_key, so the script can be loaded into a catalog at any time.
+ * Subclasses may handle the books in another way, see {@link SearchIndexer}.
+ */
+public class DescriptionExtractor
+{
+    private static final Log    logger  = LogFactory.getLog("com.fb2pdf.search.DescriptionExtractor");
+
+    private final Writer        out;
+    private final AtomicInteger books   = new AtomicInteger();
+    private final AtomicInteger failed  = new AtomicInteger();
+
+    public DescriptionExtractor(Writer out)
+    {
+        this.out = out;
+    }
+
+    /**
+     * For subclasses overriding {@link #book(File, BookDescription)}.
+     */
+    protected DescriptionExtractor()
+    {
+        this.out = null;
+    }
+
+    /**
+     * Called on the walking thread for each book file found.
+     *
+     * @return false to skip the book
+     */
+    protected boolean accept(File file)
+    {
+        return true;
+    }
+
+    /**
+     * Called on a pool thread for each book read, writes its SQL rows.
+     */
+    protected void book(File file, BookDescription d) throws IOException
+    {
+        write(d);
+    }
+
+    /**
+     * Reads all books below dir. The directory walk feeds a bounded queue;
+     * when it is full the walking thread reads the book itself.
+     */
+    public void extract(File dir, int threads) throws IOException, InterruptedException
+    {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(threads * 64), new ThreadPoolExecutor.CallerRunsPolicy());
+        try
+        {
+            List<File> dirs = new ArrayList<File>();
+            dirs.add(dir);
+            while(!dirs.isEmpty())
+            {
+                File[] files = dirs.remove(dirs.size() - 1).listFiles();
+                if(files == null)
+                    continue;
+                for(final File f : files)
+                {
+                    if(f.isDirectory())
+                        dirs.add(f);
+                    else if(DescriptionReader.isBook(f.getName()) && accept(f))
+                    {
+                        executor.execute(new Runnable()
+                        {
+                            public void run()
+                            {
+                                extract(f);
+                            }
+                        });
+                    }
+                }
+            }
+        } finally
+        {
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+        }
+        logger.info("Read " + books.get() + " books, " + failed.get() + " failed");
+    }
+
+    private void extract(File file)
+    {
+        try
+        {
+            BookDescription d = DescriptionReader.read(file);
+            book(file, d);
+            books.incrementAndGet();
+        } catch(IOException e)
+        {
+            failed.incrementAndGet();
+            logger.warn("Skipping " + file + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes the rows of one book, AuthorSearch.author is unique.
+     */
+    void write(BookDescription d) throws IOException
+    {
+        StringBuilder sql = new StringBuilder();
+        if(d.getTitle() != null)
+        {
+            sql.append("INSERT INTO TitleSearch (book_id, title) SELECT id, ");
+            quote(sql, d.getTitle(), 256);
+            sql.append(" FROM OriginalBooks WHERE storage_key = ");
+            quote(sql, d.getStorageKey(), 64);
+            sql.append(";\n");
+        }
+        for(String author : d.getAuthors())
+        {
+            sql.append("INSERT IGNORE INTO AuthorSearch (author) VALUES (");
+            quote(sql, author, 256);
+            sql.append(");\n");
+        }
+        synchronized(out)
+        {
+            out.write(sql.toString());
+        }
+    }
+
+    /**
+     * Appends a MySQL string literal of at most maxLength characters.
+     */
+    static void quote(StringBuilder sql, String value, int maxLength)
+    {
+        sql.append('\'');
+        int length = Math.min(value.length(), maxLength);
+        for(int i = 0; i < length; i++)
+        {
+            char c = value.charAt(i);
+            switch(c)
+            {
+            case '\'':
+            case '\\':
+                sql.append('\\').append(c);
+                break;
+            case '\n':
+                sql.append("\\n");
+                break;
+            case '\r':
+                sql.append("\\r");
+                break;
+            case '\0':
+                sql.append("\\0");
+                break;
+            case '\u001a':
+                sql.append("\\Z");
+                break;
+            default:
+                sql.append(c);
+            }
+        }
+        sql.append('\'');
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        if(args.length != 2 && args.length != 3)
+        {
+            System.err.println("Usage DescriptionExtractor <books dir> <out.sql> [<threads>]");
+            System.exit(1);
+        }
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(args[1]), "UTF-8"), 256 * 1024);
+        try
+        {
+            out.write("SET NAMES UTF8;\n");
+            long start = System.currentTimeMillis();
+            DescriptionExtractor extractor = new DescriptionExtractor(out);
+            extractor.extract(new File(args[0]), threads);
+            logger.info("Done in " + (System.currentTimeMillis() - start) + " ms");
+        } finally
+        {
+            out.close();
+        }
+    }
+}
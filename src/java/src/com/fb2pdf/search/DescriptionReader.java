@@ -0,0 +1,313 @@
+package com.fb2pdf.search;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Reads the &lt;description&gt; of an FB2 book with a streaming parser. Parsing
+ * stops at &lt;/description&gt;, so the body and binaries are never read; in a
+ * .fb2.zip only the beginning of the entry is inflated.
+ */
+public class DescriptionReader
+{
+    private static final ThreadLocal<XMLInputFactory> factory = new ThreadLocal<XMLInputFactory>()
+    {
+        @Override
+        protected XMLInputFactory initialValue()
+        {
+            XMLInputFactory f = XMLInputFactory.newInstance();
+            // many books use the l: prefix without declaring it, like
+            // www/fbparser.php names are taken without namespaces
+            f.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.FALSE);
+            f.setProperty(XMLInputFactory.IS_COALESCING, Boolean.FALSE);
+            f.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+            f.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+            return f;
+        }
+    };
+
+    private DescriptionReader()
+    {
+    }
+
+    /**
+     * @return true for the .fb2 and .fb2.zip files read by
+     *         {@link #read(File)}
+     */
+    public static boolean isBook(String name)
+    {
+        String lower = name.toLowerCase();
+        return lower.endsWith(".fb2") || lower.endsWith(".fb2.zip");
+    }
+
+    /**
+     * @return storage key of a book file: its name without .fb2 and .zip,
+     *         as www/process.php stores the books
+     */
+    public static String getStorageKey(String name)
+    {
+        String lower = name.toLowerCase();
+        if(lower.endsWith(".zip"))
+        {
+            name = name.substring(0, name.length() - 4);
+            lower = lower.substring(0, lower.length() - 4);
+        }
+        return lower.endsWith(".fb2") ? name.substring(0, name.length() - 4) : name;
+    }
+
+    public static BookDescription read(File file) throws IOException
+    {
+        String key = getStorageKey(file.getName());
+        if(!file.getName().toLowerCase().endsWith(".zip"))
+        {
+            InputStream in = new FileInputStream(file);
+            try
+            {
+                return read(new BufferedInputStream(in, 8192), key);
+            } finally
+            {
+                in.close();
+            }
+        }
+
+        ZipFile zip = new ZipFile(file);
+        try
+        {
+            ZipEntry book = null;
+            for(Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements();)
+            {
+                ZipEntry entry = e.nextElement();
+                if(!entry.isDirectory() && (book == null || entry.getName().toLowerCase().endsWith(".fb2")))
+                    book = entry;
+                if(book != null && book.getName().toLowerCase().endsWith(".fb2"))
+                    break;
+            }
+            if(book == null)
+                throw new IOException("No book in " + file);
+            // the entry is inflated as it is read
+            InputStream in = zip.getInputStream(book);
+            try
+            {
+                return read(new BufferedInputStream(in, 8192), key);
+            } finally
+            {
+                in.close();
+            }
+        } finally
+        {
+            zip.close();
+        }
+    }
+
+    /**
+     * Reads the description from the beginning of the stream, the stream is
+     * left open.
+     */
+    public static BookDescription read(InputStream in, String storageKey) throws IOException
+    {
+        XMLStreamReader r;
+        try
+        {
+            r = factory.get().createXMLStreamReader(in);
+        } catch(XMLStreamException e)
+        {
+            throw new IOException(e);
+        }
+        try
+        {
+            return read(r, storageKey);
+        } catch(XMLStreamException e)
+        {
+            throw new IOException(storageKey + ": " + e.getMessage());
+        } finally
+        {
+            try
+            {
+                r.close();
+            } catch(XMLStreamException e)
+            {
+                // the stream is closed by the caller
+            }
+        }
+    }
+
+    /**
+     * Skips the element just started with its content.
+     */
+    private static void skipElement(XMLStreamReader r) throws XMLStreamException
+    {
+        for(int depth = 1; depth > 0;)
+        {
+            int event = r.next();
+            if(event == XMLStreamConstants.START_ELEMENT)
+                depth++;
+            else if(event == XMLStreamConstants.END_ELEMENT)
+                depth--;
+        }
+    }
+
+    private static BookDescription read(XMLStreamReader r, String storageKey) throws XMLStreamException,
+            IOException
+    {
+        BookDescription d = new BookDescription(storageKey);
+        String[] path = new String[32];
+        int depth = 0;
+        StringBuilder text = new StringBuilder();
+        StringBuilder annotation = null;
+        int annotationDepth = 0;
+        String firstName = null;
+        String lastName = null;
+        String nickname = null;
+
+        while(r.hasNext())
+        {
+            switch(r.next())
+            {
+            case XMLStreamConstants.START_ELEMENT:
+            {
+                String name = r.getLocalName();
+                name = name.substring(name.indexOf(':') + 1);
+                if(depth == 0 && !"FictionBook".equals(name))
+                    throw new IOException(storageKey + " is not a FictionBook");
+                if(depth == path.length)
+                    throw new IOException(storageKey + ": description is nested too deep");
+                if(depth == 1 && !"description".equals(name))
+                {
+                    if("body".equals(name) || "binary".equals(name))
+                        return d; // no description
+                    // a stylesheet may come first
+                    skipElement(r);
+                    break;
+                }
+                path[depth++] = name;
+                text.setLength(0);
+                if(depth == 4 && "title-info".equals(path[2]))
+                {
+                    if("author".equals(name))
+                    {
+                        firstName = null;
+                        lastName = null;
+                        nickname = null;
+                    } else if("sequence".equals(name) && d.series == null)
+                    {
+                        d.series = trim(r.getAttributeValue(null, "name"));
+                        d.seriesNumber = parseNumber(r.getAttributeValue(null, "number"));
+                    } else if("annotation".equals(name))
+                    {
+                        annotation = new StringBuilder();
+                        annotationDepth = depth;
+                    }
+                }
+                break;
+            }
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.CDATA:
+            case XMLStreamConstants.SPACE:
+                if(depth >= 3)
+                {
+                    text.append(r.getTextCharacters(), r.getTextStart(), r.getTextLength());
+                    if(annotation != null)
+                        annotation.append(r.getTextCharacters(), r.getTextStart(), r.getTextLength());
+                }
+                break;
+            case XMLStreamConstants.END_ELEMENT:
+            {
+                String name = path[--depth];
+                if(depth == 1)
+                    return d; // </description>
+                String section = depth >= 2 ? path[2] : null;
+                if(annotation != null)
+                {
+                    if(depth == annotationDepth - 1)
+                    {
+                        d.annotation = trim(annotation.toString().replaceAll("\\s*\n\\s*", "\n").replaceAll(
+                                "[ \t\r\u00a0]+", " "));
+                        annotation = null;
+                    } else if("p".equals(name) || "v".equals(name) || "subtitle".equals(name))
+                        annotation.append('\n');
+                } else if("title-info".equals(section))
+                {
+                    if(depth == 3)
+                    {
+                        if("book-title".equals(name))
+                            d.title = trim(text.toString());
+                        else if("genre".equals(name))
+                            addTo(d.genres, text.toString());
+                        else if("lang".equals(name))
+                            d.lang = trim(text.toString());
+                        else if("author".equals(name))
+                            addAuthor(d, firstName, lastName, nickname);
+                    } else if(depth == 4 && "author".equals(path[3]))
+                    {
+                        if("first-name".equals(name))
+                            firstName = trim(text.toString());
+                        else if("last-name".equals(name))
+                            lastName = trim(text.toString());
+                        else if("nickname".equals(name))
+                            nickname = trim(text.toString());
+                    }
+                } else if("publish-info".equals(section) && depth == 3 && "isbn".equals(name))
+                    d.isbn = trim(text.toString());
+                text.setLength(0);
+                break;
+            }
+            default:
+                break;
+            }
+        }
+        return d;
+    }
+
+    private static void addAuthor(BookDescription d, String firstName, String lastName, String nickname)
+    {
+        if(lastName != null && firstName != null)
+            d.authors.add(lastName + ", " + firstName);
+        else if(lastName != null || firstName != null)
+            d.authors.add(lastName != null ? lastName : firstName);
+        else if(nickname != null)
+            d.authors.add(nickname);
+    }
+
+    private static void addTo(List<String> list, String value)
+    {
+        value = trim(value);
+        if(value != null)
+            list.add(value);
+    }
+
+    /**
+     * @return value without surrounding white space, null if nothing is left
+     */
+    private static String trim(String value)
+    {
+        if(value == null)
+            return null;
+        value = value.trim();
+        return value.length() == 0 ? null : value;
+    }
+
+    private static int parseNumber(String value)
+    {
+        if(value == null)
+            return 0;
+        try
+        {
+            return Integer.parseInt(value.trim());
+        } catch(NumberFormatException e)
+        {
+            return 0;
+        }
+    }
+}
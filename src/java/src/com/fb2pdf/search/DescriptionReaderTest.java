@@ -0,0 +1,102 @@
+package com.fb2pdf.search;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Test;
+
+public class DescriptionReaderTest
+{
+    private static final String BOOK = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<FictionBook xmlns=\"http://www.gribuser.ru/xml/fictionbook/2.0\" xmlns:l=\"http://www.w3.org/1999/xlink\">"
+            + "<description><title-info><genre>sf</genre><genre> prose_classic </genre>"
+            + "<author><first-name>Ivan</first-name><middle-name>S.</middle-name><last-name>Petrov</last-name></author>"
+            + "<author><nickname>anon</nickname></author>"
+            + "<book-title> The Title </book-title>"
+            + "<annotation><p>First <emphasis>line</emphasis>.</p>\n<p>Second line.</p></annotation>"
+            + "<lang>ru</lang><sequence name=\"Saga\" number=\"3\"/></title-info>"
+            + "<document-info><author><last-name>Maker</last-name></author></document-info>"
+            + "<publish-info><isbn>5-01</isbn></publish-info></description>"
+            + "<body><section><p>text</p></section></body><broken";
+
+    @Test
+    public void testDescription() throws IOException
+    {
+        BookDescription d = DescriptionReader.read(new ByteArrayInputStream(BOOK.getBytes("UTF-8")), "a.fb2");
+        assertEquals("a.fb2", d.getStorageKey());
+        assertEquals("The Title", d.getTitle());
+        assertEquals(2, d.getAuthors().size());
+        assertEquals("Petrov, Ivan", d.getAuthors().get(0));
+        assertEquals("anon", d.getAuthors().get(1));
+        assertEquals("[sf, prose_classic]", d.getGenres().toString());
+        assertEquals("Saga", d.getSeries());
+        assertEquals(3, d.getSeriesNumber());
+        assertEquals("ru", d.getLang());
+        assertEquals("5-01", d.getIsbn());
+        assertEquals("First line.\nSecond line.", d.getAnnotation());
+    }
+
+    @Test
+    public void testZip() throws IOException
+    {
+        File zip = File.createTempFile("book", ".fb2.zip");
+        try
+        {
+            ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip));
+            out.putNextEntry(new ZipEntry("book.fb2"));
+            out.write(BOOK.getBytes("UTF-8"));
+            out.closeEntry();
+            out.close();
+
+            BookDescription d = DescriptionReader.read(zip);
+            assertEquals(zip.getName().substring(0, zip.getName().length() - 8), d.getStorageKey());
+            assertEquals("The Title", d.getTitle());
+        } finally
+        {
+            zip.delete();
+        }
+    }
+
+    @Test
+    public void testStorageKey()
+    {
+        // www/process.php stores <md5>.fb2 with storage_key <md5>
+        assertEquals("0cc175b9c0f1b6a831c399e269772661", DescriptionReader.getStorageKey("0cc175b9c0f1b6a831c399e269772661.fb2"));
+        assertEquals("0cc175b9c0f1b6a831c399e269772661", DescriptionReader.getStorageKey("0cc175b9c0f1b6a831c399e269772661.FB2.zip"));
+        assertEquals("a", DescriptionReader.getStorageKey("a.zip"));
+    }
+
+    @Test
+    public void testStylesheetFirst() throws IOException
+    {
+        String book = BOOK.replace("<description>", "<stylesheet type=\"text/css\">p { x: 1 }<x/></stylesheet><description>");
+        BookDescription d = DescriptionReader.read(new ByteArrayInputStream(book.getBytes("UTF-8")), "a");
+        assertEquals("The Title", d.getTitle());
+        assertEquals(2, d.getAuthors().size());
+    }
+
+    @Test
+    public void testFile() throws IOException
+    {
+        BookDescription d = DescriptionReader.read(new File("test_data/fictionbook_2_1.fb2"));
+        assertNotNull(d.getTitle());
+        assertFalse(d.getAuthors().isEmpty());
+    }
+
+    @Test
+    public void testQuote()
+    {
+        StringBuilder sql = new StringBuilder();
+        DescriptionExtractor.quote(sql, "O'Brien\\\n", 256);
+        assertEquals("'O\\'Brien\\\\\\n'", sql.toString());
+        sql.setLength(0);
+        DescriptionExtractor.quote(sql, "abcdef", 3);
+        assertEquals("'abc'", sql.toString());
+    }
+}
@@ -0,0 +1,546 @@
+package com.fb2pdf.search;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.trivee.fb2pdf.Translit;
+
+/**
+ * Inverted index over the catalog fields of books: authors, title, series,
+ * genres and annotation. Words are lower cased and transliterated with
+ * {@link Translit}, so a Cyrillic name in any case and its Latin spelling
+ * are the same term and a query in either alphabet finds both.
+ *
+ * Postings keep a weight per book, the sum of the weights of the fields the
+ * term occurs in. Deleted books are only marked and skipped by queries, they
+ * are dropped when the index is compacted or saved. The whole index is held
+ * in memory and written to a single file; all methods are synchronized.
+ */
+public class SearchIndex
+{
+    static final int                    AUTHOR_WEIGHT     = 8;
+    static final int                    TITLE_WEIGHT      = 6;
+    static final int                    SERIES_WEIGHT     = 4;
+    static final int                    GENRE_WEIGHT      = 2;
+    static final int                    ANNOTATION_WEIGHT = 1;
+    /** Keeps long annotations from outweighing the title */
+    private static final int            MAX_WEIGHT        = 32;
+    /** Weight of a longer term found by a prefix, relative to the exact one */
+    private static final float          PREFIX_FACTOR     = 0.5F;
+
+    private static final int            VERSION           = 1;
+
+    private int                         size;
+    private String[]                    keys              = new String[16];
+    private String[]                    titles            = new String[16];
+    private String[]                    authors           = new String[16];
+    private long[]                      modified          = new long[16];
+    private final BitSet                deleted           = new BitSet();
+    private int                         deletedCount;
+    private final Map<String, Integer>  books             = new HashMap<String, Integer>();
+    private final TreeMap<String, Postings> terms         = new TreeMap<String, Postings>();
+
+    /**
+     * Books containing a term in increasing order and their weights.
+     */
+    private static class Postings
+    {
+        int[] books   = new int[2];
+        int[] weights = new int[2];
+        int   size;
+
+        void add(int book, int weight)
+        {
+            if(size == books.length)
+            {
+                books = Arrays.copyOf(books, size * 2);
+                weights = Arrays.copyOf(weights, size * 2);
+            }
+            books[size] = book;
+            weights[size++] = weight;
+        }
+    }
+
+    /**
+     * A book found by {@link SearchIndex#search(String, int)}.
+     */
+    public static class Hit
+    {
+        private final String storageKey;
+        private final String title;
+        private final String authors;
+        private final float  score;
+
+        Hit(String storageKey, String title, String authors, float score)
+        {
+            this.storageKey = storageKey;
+            this.title = title;
+            this.authors = authors;
+            this.score = score;
+        }
+
+        public String getStorageKey()
+        {
+            return storageKey;
+        }
+
+        public String getTitle()
+        {
+            return title;
+        }
+
+        /**
+         * @return authors separated by "; "
+         */
+        public String getAuthors()
+        {
+            return authors;
+        }
+
+        public float getScore()
+        {
+            return score;
+        }
+
+        @Override
+        public String toString()
+        {
+            return storageKey + "\t" + score + "\t" + authors + "\t" + title;
+        }
+    }
+
+    /**
+     * @return number of books in the index
+     */
+    public synchronized int size()
+    {
+        return books.size();
+    }
+
+    /**
+     * @return storage keys of all books
+     */
+    public synchronized List<String> getKeys()
+    {
+        return new ArrayList<String>(books.keySet());
+    }
+
+    /**
+     * @return modification time the book was added with, -1 if it is not in
+     *         the index
+     */
+    public synchronized long getModified(String storageKey)
+    {
+        Integer book = books.get(storageKey);
+        return book == null ? -1 : modified[book];
+    }
+
+    /**
+     * Adds a book, replacing a book with the same storage key.
+     *
+     * @param lastModified time of the book file, see
+     *            {@link #getModified(String)}
+     */
+    public synchronized void add(BookDescription d, long lastModified)
+    {
+        delete(d.getStorageKey());
+        Map<String, Integer> weights = new HashMap<String, Integer>();
+        List<String> words = new ArrayList<String>();
+        for(String author : d.getAuthors())
+            addTerms(author, AUTHOR_WEIGHT, words, weights);
+        addTerms(d.getTitle(), TITLE_WEIGHT, words, weights);
+        addTerms(d.getSeries(), SERIES_WEIGHT, words, weights);
+        for(String genre : d.getGenres())
+            addTerms(genre, GENRE_WEIGHT, words, weights);
+        addTerms(d.getAnnotation(), ANNOTATION_WEIGHT, words, weights);
+
+        if(size == keys.length)
+        {
+            keys = Arrays.copyOf(keys, size * 2);
+            titles = Arrays.copyOf(titles, size * 2);
+            authors = Arrays.copyOf(authors, size * 2);
+            modified = Arrays.copyOf(modified, size * 2);
+        }
+        int book = size++;
+        keys[book] = d.getStorageKey();
+        titles[book] = d.getTitle() == null ? "" : d.getTitle();
+        StringBuilder names = new StringBuilder();
+        for(String author : d.getAuthors())
+        {
+            if(names.length() > 0)
+                names.append("; ");
+            names.append(author);
+        }
+        authors[book] = names.toString();
+        modified[book] = lastModified;
+        books.put(d.getStorageKey(), book);
+
+        for(Map.Entry<String, Integer> e : weights.entrySet())
+        {
+            Postings p = terms.get(e.getKey());
+            if(p == null)
+                terms.put(e.getKey(), p = new Postings());
+            p.add(book, e.getValue());
+        }
+    }
+
+    private static void addTerms(String text, int weight, List<String> words, Map<String, Integer> weights)
+    {
+        if(text == null)
+            return;
+        words.clear();
+        getTerms(text, false, words);
+        for(String word : words)
+        {
+            Integer old = weights.get(word);
+            weights.put(word, old == null ? weight : Math.min(old + weight, MAX_WEIGHT));
+        }
+    }
+
+    /**
+     * Marks a book deleted, its postings are dropped by {@link #compact()}.
+     *
+     * @return false if there is no such book
+     */
+    public synchronized boolean delete(String storageKey)
+    {
+        Integer book = books.remove(storageKey);
+        if(book == null)
+            return false;
+        deleted.set(book);
+        deletedCount++;
+        if(deletedCount > 1024 && deletedCount > size / 2)
+            compact();
+        return true;
+    }
+
+    /**
+     * Drops deleted books and renumbers the rest.
+     */
+    public synchronized void compact()
+    {
+        if(deletedCount == 0)
+            return;
+        int[] remap = new int[size];
+        int live = 0;
+        for(int book = 0; book < size; book++)
+        {
+            if(deleted.get(book))
+            {
+                remap[book] = -1;
+                continue;
+            }
+            remap[book] = live;
+            keys[live] = keys[book];
+            titles[live] = titles[book];
+            authors[live] = authors[book];
+            modified[live] = modified[book];
+            books.put(keys[live], live);
+            live++;
+        }
+        Arrays.fill(keys, live, size, null);
+        Arrays.fill(titles, live, size, null);
+        Arrays.fill(authors, live, size, null);
+        for(Iterator<Postings> i = terms.values().iterator(); i.hasNext();)
+        {
+            Postings p = i.next();
+            int n = 0;
+            for(int j = 0; j < p.size; j++)
+            {
+                int book = remap[p.books[j]];
+                if(book >= 0)
+                {
+                    p.books[n] = book;
+                    p.weights[n++] = p.weights[j];
+                }
+            }
+            p.size = n;
+            if(n == 0)
+                i.remove();
+        }
+        size = live;
+        deleted.clear();
+        deletedCount = 0;
+    }
+
+    /**
+     * Finds books containing all words of the query. A word ending with *
+     * is a prefix and matches every term starting with it, longer terms
+     * count less than the exact one. Books are ranked by the sum over the
+     * words of the term weight times its inverse document frequency.
+     *
+     * @return at most limit books, best first
+     */
+    public synchronized List<Hit> search(String query, int limit)
+    {
+        List<String> words = new ArrayList<String>();
+        getTerms(query, true, words);
+        if(words.isEmpty() || limit <= 0)
+            return Collections.emptyList();
+
+        float[] scores = new float[size];
+        float[] current = new float[size];
+        // number of words matched so far, books that miss one fall behind
+        int[] matched = new int[size];
+        int live = books.size();
+        for(int w = 0; w < words.size(); w++)
+        {
+            String word = words.get(w);
+            SortedMap<String, Postings> found;
+            if(word.endsWith("*"))
+            {
+                word = word.substring(0, word.length() - 1);
+                found = terms.subMap(word, word + Character.MAX_VALUE);
+            } else
+                found = terms.subMap(word, true, word, true);
+            if(found.isEmpty())
+                return Collections.emptyList();
+            for(Map.Entry<String, Postings> e : found.entrySet())
+            {
+                Postings p = e.getValue();
+                float idf = (float) Math.log(1 + (double) live / p.size);
+                if(!e.getKey().equals(word))
+                    idf *= PREFIX_FACTOR;
+                for(int j = 0; j < p.size; j++)
+                {
+                    int book = p.books[j];
+                    float score = p.weights[j] * idf;
+                    if(matched[book] == w)
+                    {
+                        matched[book] = w + 1;
+                        current[book] = score;
+                        scores[book] += score;
+                    } else if(matched[book] == w + 1 && score > current[book])
+                    {
+                        // the best of the terms a prefix matches
+                        scores[book] += score - current[book];
+                        current[book] = score;
+                    }
+                }
+            }
+        }
+
+        PriorityQueue<Integer> best = new PriorityQueue<Integer>(limit + 1, new ScoreComparator(scores));
+        for(int book = 0; book < size; book++)
+        {
+            if(matched[book] == words.size() && !deleted.get(book))
+            {
+                best.add(book);
+                if(best.size() > limit)
+                    best.poll();
+            }
+        }
+        Hit[] hits = new Hit[best.size()];
+        for(int i = hits.length - 1; i >= 0; i--)
+        {
+            int book = best.poll();
+            hits[i] = new Hit(keys[book], titles[book], authors[book], scores[book]);
+        }
+        return Arrays.asList(hits);
+    }
+
+    /**
+     * Orders books by increasing score, later books first among equal ones.
+     */
+    private static class ScoreComparator implements Comparator<Integer>
+    {
+        private final float[] scores;
+
+        ScoreComparator(float[] scores)
+        {
+            this.scores = scores;
+        }
+
+        public int compare(Integer a, Integer b)
+        {
+            int c = Float.compare(scores[a], scores[b]);
+            return c != 0 ? c : b.compareTo(a);
+        }
+    }
+
+    /**
+     * Splits text into normalized terms: runs of letters and digits, lower
+     * cased, with yo read as ye and transliterated. The hard and soft signs
+     * are dropped. In a query a * after a word is kept at the end of its
+     * term.
+     */
+    static void getTerms(String text, boolean query, List<String> terms)
+    {
+        StringBuilder word = new StringBuilder();
+        int length = text.length();
+        for(int i = 0; i <= length; i++)
+        {
+            char c = i < length ? text.charAt(i) : ' ';
+            if(Character.isLetterOrDigit(c))
+            {
+                c = Character.toLowerCase(c);
+                word.append(c == '\u0451' ? '\u0435' : c);
+                continue;
+            }
+            if(word.length() == 0)
+                continue;
+            String term = Translit.get(word.toString());
+            word.setLength(0);
+            for(int j = 0; j < term.length(); j++)
+            {
+                if(Character.isLetterOrDigit(term.charAt(j)))
+                    word.append(term.charAt(j));
+            }
+            if(word.length() > 0)
+            {
+                if(query && c == '*')
+                    word.append('*');
+                terms.add(word.toString());
+            }
+            word.setLength(0);
+        }
+    }
+
+    public static SearchIndex load(File file) throws IOException
+    {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+        try
+        {
+            SearchIndex index = new SearchIndex();
+            index.read(in);
+            return index;
+        } finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Compacts the index and writes it to a temporary file first, so a
+     * failed write does not destroy the old index.
+     */
+    public synchronized void save(File file) throws IOException
+    {
+        compact();
+        File tmp = new File(file.getAbsoluteFile().getParentFile(), "." + file.getName() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 64 * 1024));
+        try
+        {
+            write(out);
+        } finally
+        {
+            out.close();
+        }
+        file.delete();
+        if(!tmp.renameTo(file))
+            throw new IOException("Can not rename " + tmp + " to " + file);
+    }
+
+    /**
+     * Writes the compacted index: the books, then the terms in order with
+     * their postings as delta coded variable length integers.
+     */
+    private void write(DataOutput out) throws IOException
+    {
+        out.writeInt(VERSION);
+        out.writeInt(size);
+        for(int book = 0; book < size; book++)
+        {
+            out.writeUTF(keys[book]);
+            out.writeUTF(titles[book]);
+            out.writeUTF(authors[book]);
+            out.writeLong(modified[book]);
+        }
+        out.writeInt(terms.size());
+        for(Map.Entry<String, Postings> e : terms.entrySet())
+        {
+            Postings p = e.getValue();
+            out.writeUTF(e.getKey());
+            writeVInt(out, p.size);
+            int last = 0;
+            for(int j = 0; j < p.size; j++)
+            {
+                writeVInt(out, p.books[j] - last);
+                writeVInt(out, p.weights[j]);
+                last = p.books[j];
+            }
+        }
+    }
+
+    private void read(DataInput in) throws IOException
+    {
+        int version = in.readInt();
+        if(version != VERSION)
+            throw new IOException("Unknown search index version " + version);
+        size = in.readInt();
+        keys = new String[Math.max(size, 16)];
+        titles = new String[keys.length];
+        authors = new String[keys.length];
+        modified = new long[keys.length];
+        for(int book = 0; book < size; book++)
+        {
+            keys[book] = in.readUTF();
+            titles[book] = in.readUTF();
+            authors[book] = in.readUTF();
+            modified[book] = in.readLong();
+            books.put(keys[book], book);
+        }
+        int count = in.readInt();
+        for(int t = 0; t < count; t++)
+        {
+            String term = in.readUTF();
+            Postings p = new Postings();
+            p.size = readVInt(in);
+            p.books = new int[Math.max(p.size, 2)];
+            p.weights = new int[p.books.length];
+            int last = 0;
+            for(int j = 0; j < p.size; j++)
+            {
+                last += readVInt(in);
+                if(last >= size)
+                    throw new IOException("Corrupt search index at term " + term);
+                p.books[j] = last;
+                p.weights[j] = readVInt(in);
+            }
+            terms.put(term, p);
+        }
+    }
+
+    private static void writeVInt(DataOutput out, int value) throws IOException
+    {
+        while((value & ~0x7f) != 0)
+        {
+            out.writeByte((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVInt(DataInput in) throws IOException
+    {
+        int value = 0;
+        for(int shift = 0; shift < 32; shift += 7)
+        {
+            int b = in.readByte();
+            value |= (b & 0x7f) << shift;
+            if((b & 0x80) == 0)
+                return value;
+        }
+        throw new IOException("Corrupt search index");
+    }
+}
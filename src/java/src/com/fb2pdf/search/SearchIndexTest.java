@@ -0,0 +1,102 @@
+package com.fb2pdf.search;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class SearchIndexTest
+{
+    private static BookDescription book(String key, String author, String title, String annotation)
+    {
+        BookDescription d = new BookDescription(key);
+        d.authors.add(author);
+        d.title = title;
+        d.annotation = annotation;
+        d.genres.add("prose_classic");
+        return d;
+    }
+
+    private static SearchIndex index()
+    {
+        SearchIndex index = new SearchIndex();
+        // Tolstoj, Lev / Vojna i mir
+        index.add(book("1.fb2", "\u0422\u043e\u043b\u0441\u0442\u043e\u0439, \u041b\u0435\u0432",
+                "\u0412\u043e\u0439\u043d\u0430 \u0438 \u043c\u0438\u0440", null), 1);
+        index.add(book("2.fb2", "Tolstoy, Aleksey", "Aelita", "Not by Tolstoj"), 2);
+        index.add(book("3.fb2", "Dickens, Charles", "Bleak House", "War and peace, peace and war"), 3);
+        return index;
+    }
+
+    private static List<String> keys(List<SearchIndex.Hit> hits)
+    {
+        List<String> keys = new ArrayList<String>();
+        for(SearchIndex.Hit hit : hits)
+            keys.add(hit.getStorageKey());
+        return keys;
+    }
+
+    @Test
+    public void testTerms()
+    {
+        List<String> terms = new ArrayList<String>();
+        // YOlka, s"ezd, Tolst*
+        SearchIndex.getTerms("\u0401\u043b\u043a\u0430 \u0441\u044a\u0435\u0437\u0434, Tolst*", true, terms);
+        assertEquals("[elka, sezd, tolst*]", terms.toString());
+        terms.clear();
+        SearchIndex.getTerms("Tolst* O'Brien", false, terms);
+        assertEquals("[tolst, o, brien]", terms.toString());
+    }
+
+    @Test
+    public void testSearch()
+    {
+        SearchIndex index = index();
+        assertEquals("[1.fb2, 2.fb2]", keys(index.search("tolstoj", 10)).toString());
+        // Cyrillic query
+        assertEquals("[1.fb2, 2.fb2]", keys(index.search("\u0442\u043e\u043b\u0441\u0442\u043e\u0439", 10))
+                .toString());
+        assertEquals("[2.fb2, 1.fb2]", keys(index.search("tolst*", 10)).toString());
+        assertEquals("[1.fb2]", keys(index.search("tolst* vojn*", 10)).toString());
+        assertEquals("[]", keys(index.search("tolstoj dickens", 10)).toString());
+        assertEquals("[3.fb2]", keys(index.search("peace", 10)).toString());
+        assertEquals(1, index.search("prose", 1).size());
+        assertEquals(3, index.search("prose", 10).size());
+        assertTrue(index.search("", 10).isEmpty());
+    }
+
+    @Test
+    public void testUpdate() throws IOException
+    {
+        SearchIndex index = index();
+        assertTrue(index.delete("1.fb2"));
+        assertFalse(index.delete("1.fb2"));
+        assertEquals("[2.fb2]", keys(index.search("tolstoj", 10)).toString());
+        index.add(book("2.fb2", "Tolstoy, Aleksey", "Giperboloid", null), 4);
+        assertEquals(4, index.getModified("2.fb2"));
+        assertEquals("[]", keys(index.search("aelita", 10)).toString());
+
+        File file = File.createTempFile("search", ".idx");
+        try
+        {
+            index.save(file);
+            SearchIndex loaded = SearchIndex.load(file);
+            assertEquals(2, loaded.size());
+            assertEquals(-1, loaded.getModified("1.fb2"));
+            assertEquals(3, loaded.getModified("3.fb2"));
+            List<SearchIndex.Hit> hits = loaded.search("gip*", 10);
+            assertEquals("[2.fb2]", keys(hits).toString());
+            assertEquals("Giperboloid", hits.get(0).getTitle());
+            assertEquals("Tolstoy, Aleksey", hits.get(0).getAuthors());
+            loaded.add(book("5.fb2", "Wells, Herbert", "War of the Worlds", null), 5);
+            assertEquals("[5.fb2, 3.fb2]", keys(loaded.search("war", 10)).toString());
+        } finally
+        {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.fb2pdf.search;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Maintains a {@link SearchIndex} file from a directory of books and
+ * queries it.
+ *
+ * update reads only the books added or modified since the last update and
+ * deletes the books whose files are gone.
+ */
+public class SearchIndexer extends DescriptionExtractor
+{
+    private static final Log  logger  = LogFactory.getLog("com.fb2pdf.search.SearchIndexer");
+
+    private final SearchIndex index;
+    /** Storage keys found by the walk, only used on the walking thread */
+    private final Set<String> seen    = new HashSet<String>();
+    private int               changed;
+
+    public SearchIndexer(SearchIndex index)
+    {
+        this.index = index;
+    }
+
+    @Override
+    protected boolean accept(File file)
+    {
+        String key = DescriptionReader.getStorageKey(file.getName());
+        // of several files with the same key the first one found is indexed
+        if(!seen.add(key) || index.getModified(key) == file.lastModified())
+            return false;
+        changed++;
+        return true;
+    }
+
+    @Override
+    protected void book(File file, BookDescription d)
+    {
+        index.add(d, file.lastModified());
+    }
+
+    /**
+     * Adds the new and modified books below dir and deletes the books which
+     * were not found.
+     */
+    public void update(File dir, int threads) throws IOException, InterruptedException
+    {
+        extract(dir, threads);
+        int deleted = 0;
+        for(String key : index.getKeys())
+        {
+            if(!seen.contains(key) && index.delete(key))
+                deleted++;
+        }
+        logger.info(changed + " books added or modified, " + deleted + " deleted");
+        seen.clear();
+        changed = 0;
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        if(args.length < 3)
+        {
+            System.err.println("Usage SearchIndexer update <index> <books dir> [<threads>]");
+            System.err.println("      SearchIndexer delete <index> <storage key>...");
+            System.err.println("      SearchIndexer query <index> <query> [<limit>]");
+            System.exit(1);
+        }
+        String command = args[0];
+        File file = new File(args[1]);
+        SearchIndex index = file.exists() ? SearchIndex.load(file) : new SearchIndex();
+        if("update".equals(command))
+        {
+            int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+            long start = System.currentTimeMillis();
+            new SearchIndexer(index).update(new File(args[2]), threads);
+            index.save(file);
+            logger.info("Indexed " + index.size() + " books in " + (System.currentTimeMillis() - start) + " ms");
+        } else if("delete".equals(command))
+        {
+            for(int i = 2; i < args.length; i++)
+            {
+                if(!index.delete(args[i]))
+                    logger.warn("No book " + args[i]);
+            }
+            index.save(file);
+        } else if("query".equals(command))
+        {
+            int limit = args.length > 3 ? Integer.parseInt(args[3]) : 20;
+            long start = System.nanoTime();
+            for(SearchIndex.Hit hit : index.search(args[2], limit))
+                System.out.println(hit);
+            logger.info("Query took " + (System.nanoTime() - start) / 1000 + " us");
+        } else
+        {
+            System.err.println("Unknown command " + command);
+            System.exit(1);
+        }
+    }
+}
@@ -84,6 +84,12 @@ public class BidiLine {
     protected int storedCurrentChar = 0;
 
     protected boolean shortStore;
+
+    /** Skip BidiOrder for LTR paragraphs without right to left text, see {@link #isLtrOnly(char[], int)} */
+    protected boolean ltrFastPath = true;
+    /** The paragraph is laid out left to right without reordering */
+    protected boolean ltrOnly;
+    protected boolean storedLtrOnly;
 //    protected ArabicShaping arabic = new ArabicShaping(ArabicShaping.LETTERS_SHAPE | ArabicShaping.LENGTH_GROW_SHRINK | ArabicShaping.TEXT_DIRECTION_LOGICAL);
     protected static final IntHashtable mirrorChars = new IntHashtable();
     protected int arabicOptions;
@@ -92,8 +98,18 @@ public class BidiLine {
     public BidiLine() {
     }
 
+    /**
+     * Sets whether left to right paragraphs without right to left text
+     * skip BidiOrder.
+     * @param ltrFastPath true to skip BidiOrder where it changes nothing
+     */
+    public void setLtrFastPath(final boolean ltrFastPath) {
+        this.ltrFastPath = ltrFastPath;
+    }
+
     public BidiLine(BidiLine org) {
         runDirection = org.runDirection;
+        ltrFastPath = org.ltrFastPath;
         pieceSize = org.pieceSize;
         text = org.text.clone();
         detailChunks = org.detailChunks.clone();
@@ -121,6 +137,8 @@ public class BidiLine {
 
         shortStore = org.shortStore;
         arabicOptions = org.arabicOptions;
+        ltrOnly = org.ltrOnly;
+        storedLtrOnly = org.storedLtrOnly;
     }
 
     public boolean isEmpty() {
@@ -135,6 +153,7 @@ public class BidiLine {
 
     public boolean getParagraph(int runDirection) {
         this.runDirection = runDirection;
+        ltrOnly = false;
         currentChar = 0;
         totalTextLength = 0;
         boolean hasText = false;
@@ -178,7 +197,12 @@ public class BidiLine {
         	return true;
         }
 
-        if (runDirection == PdfWriter.RUN_DIRECTION_LTR || runDirection == PdfWriter.RUN_DIRECTION_RTL) {
+        if (runDirection == PdfWriter.RUN_DIRECTION_LTR && ltrFastPath
+                && (arabicOptions & ArabicLigaturizer.DIGITS_MASK) == 0 && isLtrOnly(text, totalTextLength)) {
+            // BidiOrder would give every char level 0: nothing to reorder, mirror or shape
+            ltrOnly = true;
+        }
+        else if (runDirection == PdfWriter.RUN_DIRECTION_LTR || runDirection == PdfWriter.RUN_DIRECTION_RTL) {
             if (orderLevels.length < totalTextLength) {
                 orderLevels = new byte[pieceSize];
                 indexChars = new int[pieceSize];
@@ -197,6 +221,36 @@ public class BidiLine {
         return true;
     }
 
+    /**
+     * Checks if an LTR paragraph can be laid out without BidiOrder. It can
+     * unless it has a char of type R, AL or AN, an explicit embedding or
+     * override, or a char shaped by {@link #doArabicShapping()}. Without them
+     * every European number and neutral resolves to the embedding level 0.
+     * @param text the chars of the paragraph
+     * @param length the number of chars
+     * @return true if every char would get level 0
+     */
+    public static boolean isLtrOnly(char text[], int length) {
+        for (int k = 0; k < length; ++k) {
+            char c = text[k];
+            if (c < 0x0590) // no right to left or explicit types below Hebrew
+                continue;
+            if (c >= 0x0600 && c <= 0x06ff)
+                return false;
+            byte type = BidiOrder.getDirection(c);
+            if (type >= BidiOrder.LRE && type <= BidiOrder.PDF || type == BidiOrder.AN)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the chars are reordered by levels
+     */
+    protected boolean isBidi() {
+        return !ltrOnly && (runDirection == PdfWriter.RUN_DIRECTION_LTR || runDirection == PdfWriter.RUN_DIRECTION_RTL);
+    }
+
     public void addChunk(PdfChunk chunk) {
         chunks.add(chunk);
     }
@@ -234,6 +288,7 @@ public class BidiLine {
         storedIndexChunk = indexChunk;
         storedIndexChunkChar = indexChunkChar;
         storedCurrentChar = currentChar;
+        storedLtrOnly = ltrOnly;
         shortStore = currentChar < totalTextLength;
         if (!shortStore) {
             // long save
@@ -244,7 +299,7 @@ public class BidiLine {
             System.arraycopy(text, 0, storedText, 0, totalTextLength);
             System.arraycopy(detailChunks, 0, storedDetailChunks, 0, totalTextLength);
         }
-        if (runDirection == PdfWriter.RUN_DIRECTION_LTR || runDirection == PdfWriter.RUN_DIRECTION_RTL) {
+        if (isBidi()) {
             if (storedOrderLevels.length < totalTextLength) {
                 storedOrderLevels = new byte[totalTextLength];
                 storedIndexChars = new int[totalTextLength];
@@ -260,12 +315,13 @@ public class BidiLine {
         indexChunk = storedIndexChunk;
         indexChunkChar = storedIndexChunkChar;
         currentChar = storedCurrentChar;
+        ltrOnly = storedLtrOnly;
         if (!shortStore) {
             // long restore
             System.arraycopy(storedText, 0, text, 0, totalTextLength);
             System.arraycopy(storedDetailChunks, 0, detailChunks, 0, totalTextLength);
         }
-        if (runDirection == PdfWriter.RUN_DIRECTION_LTR || runDirection == PdfWriter.RUN_DIRECTION_RTL) {
+        if (isBidi()) {
             System.arraycopy(storedOrderLevels, currentChar, orderLevels, currentChar, totalTextLength - currentChar);
             System.arraycopy(storedIndexChars, currentChar, indexChars, currentChar, totalTextLength - currentChar);
         }
@@ -505,7 +561,7 @@ public class BidiLine {
     }
 
     public ArrayList<PdfChunk> createArrayOfPdfChunks(int startIdx, int endIdx, PdfChunk extraPdfChunk) {
-        boolean bidi = runDirection == PdfWriter.RUN_DIRECTION_LTR || runDirection == PdfWriter.RUN_DIRECTION_RTL;
+        boolean bidi = isBidi();
         if (bidi)
             reorder(startIdx, endIdx);
         ArrayList<PdfChunk> ar = new ArrayList<PdfChunk>();
@@ -65,11 +65,7 @@ public class ByteBuffer extends OutputStream {
     /** The buffer where the bytes are stored. */
     protected byte buf[];
     
-    private static int byteCacheSize = 0;
-    
-    private static byte[][] byteCache = new byte[byteCacheSize][];
     public static final byte ZERO = (byte)'0';
-    private static final char[] chars = new char[] {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9'};
     private static final byte[] bytes = new byte[] {48, 49, 50, 51, 52, 53, 54, 55, 56, 57, 97, 98, 99, 100, 101, 102};
     /**
      * If <CODE>true</CODE> always output floating point numbers with 6 decimal digits.
@@ -94,86 +90,25 @@ public class ByteBuffer extends OutputStream {
     }
     
     /**
-     * Sets the cache size.
-     * <P>
-     * This can only be used to increment the size.
-     * If the size that is passed through is smaller than the current size, nothing happens.
+     * Does nothing. Numbers are written straight into the buffer, there is
+     * no cache to size.
      *
      * @param   size    the size of the cache
+     * @deprecated numbers are no longer cached
      */
-    
+    @Deprecated
     public static void setCacheSize(int size) {
-        if (size > 3276700) size = 3276700;
-        if (size <= byteCacheSize) return;
-        byte[][] tmpCache = new byte[size][];
-        System.arraycopy(byteCache, 0, tmpCache, 0, byteCacheSize);
-        byteCache = tmpCache;
-        byteCacheSize = size;
     }
     
     /**
-     * You can fill the cache in advance if you want to.
+     * Does nothing. Numbers are written straight into the buffer, there is
+     * no cache to fill.
      *
      * @param   decimals
+     * @deprecated numbers are no longer cached
      */
-    
+    @Deprecated
     public static void fillCache(int decimals) {
-        int step = 1;
-        switch(decimals) {
-            case 0:
-                step = 100;
-                break;
-            case 1:
-                step = 10;
-                break;
-        }
-        for (int i = 1; i < byteCacheSize; i += step) {
-            if (byteCache[i] != null) continue;
-            byteCache[i] = convertToBytes(i);
-        }
-    }
-    
-    /**
-     * Converts an double (multiplied by 100 and cast to an int) into an array of bytes.
-     *
-     * @param   i   the int
-     * @return  a byte array
-     */
-    
-    private static byte[] convertToBytes(int i) {
-        int size = (int)Math.floor(Math.log(i) / Math.log(10));
-        if (i % 100 != 0) {
-            size += 2;
-        }
-        if (i % 10 != 0) {
-            size++;
-        }
-        if (i < 100) {
-            size++;
-            if (i < 10) {
-                size++;
-            }
-        }
-        size--;
-        byte[] cache = new byte[size];
-        size --;
-        if (i < 100) {
-            cache[0] = (byte)'0';
-        }
-        if (i % 10 != 0) {
-            cache[size--] = bytes[i % 10];
-        }
-        if (i % 100 != 0) {
-            cache[size--] = bytes[(i / 10) % 10];
-            cache[size--] = (byte)'.';
-        }
-        size = (int)Math.floor(Math.log(i) / Math.log(10)) - 1;
-        int add = 0;
-        while (add < size) {
-            cache[add] = bytes[(i / (int)Math.pow(10, size - add + 1)) % 10];
-            add++;
-        }
-        return cache;
     }
     
     /**
@@ -262,7 +197,12 @@ public class ByteBuffer extends OutputStream {
      * @return a reference to this <CODE>ByteBuffer</CODE> object
      */
     public ByteBuffer append(int i) {
-        return append((double)i);
+        // formatDouble writes every int as its plain decimal digits
+        ensureCapacity(11);
+        if (i < 0)
+            buf[count++] = (byte)'-';
+        count = putDigits(buf, count, Math.abs((long)i));
+        return this;
     }
     
     /**
@@ -300,246 +240,156 @@ public class ByteBuffer extends OutputStream {
      * @return a reference to this <CODE>ByteBuffer</CODE> object
      */
     public ByteBuffer append(double d) {
-        append(formatDouble(d, this));
+        formatDouble(d, this);
         return this;
     }
     
     /**
-     * Outputs a <CODE>double</CODE> into a format suitable for the PDF.
-     * @param d a double
-     * @return the <CODE>String</CODE> representation of the <CODE>double</CODE>
+     * Makes room for at least <CODE>len</CODE> more bytes.
+     * @param len the number of bytes to be appended
      */
-    public static String formatDouble(double d) {
-        return formatDouble(d, null);
+    private void ensureCapacity(int len) {
+        int newcount = count + len;
+        if (newcount > buf.length) {
+            byte newbuf[] = new byte[Math.max(buf.length << 1, newcount)];
+            System.arraycopy(buf, 0, newbuf, 0, count);
+            buf = newbuf;
+        }
     }
     
     /**
-     * Outputs a <CODE>double</CODE> into a format suitable for the PDF.
-     * @param d a double
-     * @param buf a ByteBuffer
-     * @return the <CODE>String</CODE> representation of the <CODE>double</CODE> if
-     * <CODE>buf</CODE> is <CODE>null</CODE>. If <CODE>buf</CODE> is <B>not</B> <CODE>null</CODE>,
-     * then the double is appended directly to the buffer and this methods returns <CODE>null</CODE>.
+     * Writes the decimal digits of a non negative number.
+     * @param b the array
+     * @param pos the position of the first digit
+     * @param v the number
+     * @return the position after the last digit
      */
-    public static String formatDouble(double d, ByteBuffer buf) {
-        if (HIGH_PRECISION) {
-            DecimalFormat dn = new DecimalFormat("0.######", dfs);
-            String sform = dn.format(d);
-            if (buf == null)
-                return sform;
-            else {
-                buf.append(sform);
-                return null;
-            }
+    private static int putDigits(byte b[], int pos, long v) {
+        if (v <= Integer.MAX_VALUE)
+            return putDigits(b, pos, (int)v);
+        int end = pos + 1;
+        for (long t = v / 10; t != 0; t /= 10)
+            ++end;
+        for (int k = end - 1; k >= pos; --k) {
+            b[k] = (byte)(v % 10 + ZERO);
+            v /= 10;
+        }
+        return end;
+    }
+    
+    private static int putDigits(byte b[], int pos, int v) {
+        int end = pos + (v < 10 ? 1 : v < 100 ? 2 : v < 1000 ? 3 : v < 10000 ? 4 : v < 100000 ? 5 : 6);
+        if (v >= 1000000) {
+            end = pos + 7;
+            for (int t = v / 10000000; t != 0; t /= 10)
+                ++end;
         }
-        boolean negative = false;
+        for (int k = end - 1; k > pos; --k) {
+            int q = v / 10;
+            b[k] = (byte)(v - q * 10 + ZERO);
+            v = q;
+        }
+        b[pos] = (byte)(v + ZERO);
+        return end;
+    }
+    
+    /**
+     * Writes a <CODE>double</CODE> with at most 5 decimal digits below 1, 2
+     * up to 32767 and none above, without trailing zeros. The digits are
+     * generated into the buffer, nothing is allocated.
+     * @param d the <CODE>double</CODE> to be appended
+     */
+    private void appendDouble(double d) {
+        ensureCapacity(24);
+        byte b[] = buf;
+        int pos = count;
         if (Math.abs(d) < 0.000015) {
-            if (buf != null) {
-                buf.append(ZERO);
-                return null;
-            } else {
-                return "0";
-            }
+            b[pos++] = ZERO;
+            count = pos;
+            return;
         }
         if (d < 0) {
-            negative = true;
+            b[pos++] = (byte)'-';
             d = -d;
         }
         if (d < 1.0) {
             d += 0.000005;
             if (d >= 1) {
-                if (negative) {
-                    if (buf != null) {
-                        buf.append((byte)'-');
-                        buf.append((byte)'1');
-                        return null;
-                    } else {
-                        return "-1";
-                    }
-                } else {
-                    if (buf != null) {
-                        buf.append((byte)'1');
-                        return null;
-                    } else {
-                        return "1";
-                    }
-                }
+                b[pos++] = (byte)'1';
             }
-            if (buf != null) {
+            else {
                 int v = (int) (d * 100000);
-                
-                if (negative) buf.append((byte)'-');
-                buf.append((byte)'0');
-                buf.append((byte)'.');
-                
-                buf.append( (byte)(v / 10000 + ZERO) );
+                b[pos++] = ZERO;
+                b[pos++] = (byte)'.';
+                b[pos++] = (byte)(v / 10000 + ZERO);
                 if (v % 10000 != 0) {
-                    buf.append( (byte)((v / 1000) % 10 + ZERO) );
+                    b[pos++] = (byte)((v / 1000) % 10 + ZERO);
                     if (v % 1000 != 0) {
-                        buf.append( (byte)((v / 100) % 10 + ZERO) );
+                        b[pos++] = (byte)((v / 100) % 10 + ZERO);
                         if (v % 100 != 0) {
-                            buf.append((byte)((v / 10) % 10 + ZERO) );
+                            b[pos++] = (byte)((v / 10) % 10 + ZERO);
                             if (v % 10 != 0) {
-                                buf.append((byte)((v) % 10 + ZERO) );
+                                b[pos++] = (byte)(v % 10 + ZERO);
                             }
                         }
                     }
                 }
-                return null;
-            } else {
-                int x = 100000;
-                int v = (int) (d * x);
-                
-                StringBuilder res = new StringBuilder();
-                if (negative) res.append('-');
-                res.append("0.");
-                
-                while( v < x/10 ) {
-                    res.append('0');
-                    x /= 10;
-                }
-                res.append(v);
-                int cut = res.length() - 1;
-                while (res.charAt(cut) == '0') {
-                    --cut;
-                }
-                res.setLength(cut + 1);
-                return res.toString();
             }
-        } else if (d <= 32767) {
+        }
+        else if (d <= 32767) {
             d += 0.005;
             int v = (int) (d * 100);
-            
-            if (v < byteCacheSize && byteCache[v] != null) {
-                if (buf != null) {
-                    if (negative) buf.append((byte)'-');
-                    buf.append(byteCache[v]);
-                    return null;
-                } else {
-                    String tmp = PdfEncodings.convertToString(byteCache[v], null);
-                    if (negative) tmp = "-" + tmp;
-                    return tmp;
+            pos = putDigits(b, pos, v / 100);
+            if (v % 100 != 0) {
+                b[pos++] = (byte)'.';
+                b[pos++] = (byte)((v / 10) % 10 + ZERO);
+                if (v % 10 != 0) {
+                    b[pos++] = (byte)(v % 10 + ZERO);
                 }
             }
-            if (buf != null) {
-                if (v < byteCacheSize) {
-                    //create the cachebyte[]
-                    byte[] cache;
-                    int size = 0;
-                    if (v >= 1000000) {
-                        //the original number is >=10000, we need 5 more bytes
-                        size += 5;
-                    } else if (v >= 100000) {
-                        //the original number is >=1000, we need 4 more bytes
-                        size += 4;
-                    } else if (v >= 10000) {
-                        //the original number is >=100, we need 3 more bytes
-                        size += 3;
-                    } else if (v >= 1000) {
-                        //the original number is >=10, we need 2 more bytes
-                        size += 2;
-                    } else if (v >= 100) {
-                        //the original number is >=1, we need 1 more bytes
-                        size += 1;
-                    }
-                    
-                    //now we must check if we have a decimal number
-                    if (v % 100 != 0) {
-                        //yes, do not forget the "."
-                        size += 2;
-                    }
-                    if (v % 10 != 0) {
-                        size++;
-                    }
-                    cache = new byte[size];
-                    int add = 0;
-                    if (v >= 1000000) {
-                        cache[add++] = bytes[(v / 1000000)];
-                    }
-                    if (v >= 100000) {
-                        cache[add++] = bytes[(v / 100000) % 10];
-                    }
-                    if (v >= 10000) {
-                        cache[add++] = bytes[(v / 10000) % 10];
-                    }
-                    if (v >= 1000) {
-                        cache[add++] = bytes[(v / 1000) % 10];
-                    }
-                    if (v >= 100) {
-                        cache[add++] = bytes[(v / 100) % 10];
-                    }
-                    
-                    if (v % 100 != 0) {
-                        cache[add++] = (byte)'.';
-                        cache[add++] = bytes[(v / 10) % 10];
-                        if (v % 10 != 0) {
-                            cache[add++] = bytes[v % 10];
-                        }
-                    }
-                    byteCache[v] = cache;
-                }
-                
-                if (negative) buf.append((byte)'-');
-                if (v >= 1000000) {
-                    buf.append( bytes[(v / 1000000)] );
-                }
-                if (v >= 100000) {
-                    buf.append( bytes[(v / 100000) % 10] );
-                }
-                if (v >= 10000) {
-                    buf.append( bytes[(v / 10000) % 10] );
-                }
-                if (v >= 1000) {
-                    buf.append( bytes[(v / 1000) % 10] );
-                }
-                if (v >= 100) {
-                    buf.append( bytes[(v / 100) % 10] );
-                }
-                
-                if (v % 100 != 0) {
-                    buf.append((byte)'.');
-                    buf.append( bytes[(v / 10) % 10] );
-                    if (v % 10 != 0) {
-                        buf.append( bytes[v % 10] );
-                    }
-                }
+        }
+        else {
+            d += 0.5;
+            pos = putDigits(b, pos, (long) d);
+        }
+        count = pos;
+    }
+    
+    /**
+     * Outputs a <CODE>double</CODE> into a format suitable for the PDF.
+     * @param d a double
+     * @return the <CODE>String</CODE> representation of the <CODE>double</CODE>
+     */
+    public static String formatDouble(double d) {
+        return formatDouble(d, null);
+    }
+    
+    /**
+     * Outputs a <CODE>double</CODE> into a format suitable for the PDF.
+     * @param d a double
+     * @param buf a ByteBuffer
+     * @return the <CODE>String</CODE> representation of the <CODE>double</CODE> if
+     * <CODE>buf</CODE> is <CODE>null</CODE>. If <CODE>buf</CODE> is <B>not</B> <CODE>null</CODE>,
+     * then the double is appended directly to the buffer and this methods returns <CODE>null</CODE>.
+     */
+    public static String formatDouble(double d, ByteBuffer buf) {
+        if (HIGH_PRECISION) {
+            DecimalFormat dn = new DecimalFormat("0.######", dfs);
+            String sform = dn.format(d);
+            if (buf == null)
+                return sform;
+            else {
+                buf.append(sform);
                 return null;
-            } else {
-                StringBuilder res = new StringBuilder();
-                if (negative) res.append('-');
-                if (v >= 1000000) {
-                    res.append( chars[(v / 1000000)] );
-                }
-                if (v >= 100000) {
-                    res.append( chars[(v / 100000) % 10] );
-                }
-                if (v >= 10000) {
-                    res.append( chars[(v / 10000) % 10] );
-                }
-                if (v >= 1000) {
-                    res.append( chars[(v / 1000) % 10] );
-                }
-                if (v >= 100) {
-                    res.append( chars[(v / 100) % 10] );
-                }
-                
-                if (v % 100 != 0) {
-                    res.append('.');
-                    res.append( chars[(v / 10) % 10] );
-                    if (v % 10 != 0) {
-                        res.append( chars[v % 10] );
-                    }
-                }
-                return res.toString();
             }
-        } else {
-            d += 0.5;
-            long v = (long) d;
-            if (negative) 
-                return "-" + Long.toString(v);
-            else
-                return Long.toString(v);
         }
+        if (buf != null) {
+            buf.appendDouble(d);
+            return null;
+        }
+        ByteBuffer tmp = new ByteBuffer(24);
+        tmp.appendDouble(d);
+        return PdfEncodings.convertToString(tmp.toByteArray(), null);
     }
     
     /**
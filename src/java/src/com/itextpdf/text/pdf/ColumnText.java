@@ -359,6 +359,8 @@ public class ColumnText {
     private void addWaitingPhrase() {
         if (bidiLine == null && waitPhrase != null) {
             bidiLine = new BidiLine();
+            if (canvas != null && canvas.getPdfWriter() != null)
+                bidiLine.setLtrFastPath(canvas.getPdfWriter().isLtrFastPath());
             for (Chunk c: waitPhrase.getChunks()) {
                 bidiLine.addChunk(new PdfChunk(c, null));
             }
@@ -103,6 +103,24 @@ public class PdfContentByte {
         /** The current word spacing */
         protected float wordSpace = 0;
 
+        /** The current text rise */
+        protected float textRise = 0;
+
+        /** The current text rendering mode */
+        protected int textRenderMode = TEXT_RENDER_MODE_FILL;
+
+        /** The text state last written to the content, only kept with state elision */
+        FontDetails writtenFontDetails;
+        float writtenSize;
+        protected float writtenScale = 100;
+        protected float writtenCharSpace = 0;
+        protected float writtenWordSpace = 0;
+        protected float writtenTextRise = 0;
+        protected int writtenTextRenderMode = TEXT_RENDER_MODE_FILL;
+
+        /** The last fill color operator written, null if unknown */
+        byte[] writtenFill;
+
         GraphicState() {
         }
 
@@ -121,6 +139,30 @@ public class PdfContentByte {
             scale = cp.scale;
             charSpace = cp.charSpace;
             wordSpace = cp.wordSpace;
+            textRise = cp.textRise;
+            textRenderMode = cp.textRenderMode;
+            writtenFontDetails = cp.writtenFontDetails;
+            writtenSize = cp.writtenSize;
+            writtenScale = cp.writtenScale;
+            writtenCharSpace = cp.writtenCharSpace;
+            writtenWordSpace = cp.writtenWordSpace;
+            writtenTextRise = cp.writtenTextRise;
+            writtenTextRenderMode = cp.writtenTextRenderMode;
+            writtenFill = cp.writtenFill;
+        }
+
+        /**
+         * Makes the written text state and fill color unknown, so that
+         * they are written again.
+         */
+        void forgetWritten() {
+            writtenFontDetails = null;
+            writtenScale = Float.NaN;
+            writtenCharSpace = Float.NaN;
+            writtenWordSpace = Float.NaN;
+            writtenTextRise = Float.NaN;
+            writtenTextRenderMode = -1;
+            writtenFill = null;
         }
     }
 
@@ -203,6 +245,28 @@ public class PdfContentByte {
      */
     protected boolean autoControlTextBlocks = false;
 
+    /**
+     * Indicates if text state and fill color operators are only written when
+     * they change the state and if adjacent text showing operators are merged.
+     */
+    protected boolean stateElision = false;
+
+    /** The text state operators set since the text was last shown, only counted */
+    private ByteBuffer elided;
+
+    /** The number of bytes state elision did not write */
+    private int savedBytes;
+
+    /** The position of the last text showing operator, -1 if none */
+    private int lastShowStart = -1;
+    private int lastShowEnd = -1;
+
+    /** The position and the offsets of the last Td operator, -1 if none */
+    private int lastMoveStart = -1;
+    private int lastMoveEnd = -1;
+    private double lastMoveX;
+    private double lastMoveY;
+
     //for development needs only! to be removed once tagged pdf support is complete.
     private boolean allowTaggedImages = false;
 
@@ -278,7 +342,45 @@ public class PdfContentByte {
     public void add(final PdfContentByte other) {
         if (other.writer != null && writer != other.writer)
             throw new RuntimeException(MessageLocalization.getComposedMessage("inconsistent.writers.are.you.mixing.two.documents"));
+        writeTextState();
         content.append(other.content);
+        state.forgetWritten();
+    }
+
+    /**
+     * Sets if text state operators (Tf, Tc, Tw, Tz, Ts and Tr) are only
+     * written before text is shown and only if they change the state, if a
+     * fill color operator that does not change the color is dropped and if
+     * adjacent text showing and Td operators are merged.
+     * <P>
+     * The content must start in the default graphics state, so this is
+     * only safe for a content that is not drawn inside another one.</P>
+     *
+     * @param stateElision true to elide redundant operators
+     */
+    public void setStateElision(final boolean stateElision) {
+        this.stateElision = stateElision;
+        if (stateElision && elided == null)
+            elided = new ByteBuffer(64);
+    }
+
+    /**
+     * Checks if redundant state operators are elided.
+     *
+     * @return true if redundant state operators are elided
+     * @see #setStateElision(boolean)
+     */
+    public boolean isStateElision() {
+        return stateElision;
+    }
+
+    /**
+     * Gets the number of bytes not written to this content because of state elision.
+     *
+     * @return the number of bytes saved
+     */
+    public int getSavedBytes() {
+        return elided == null ? savedBytes : savedBytes + elided.size();
     }
 
     /**
@@ -516,7 +618,9 @@ public class PdfContentByte {
      */
 
     public void setGrayFill(final float gray) {
+        int start = content.size();
         content.append(gray).append(" g").append_i(separator);
+        fillWritten(start);
     }
 
     /**
@@ -524,7 +628,9 @@ public class PdfContentByte {
      */
 
     public void resetGrayFill() {
+        int start = content.size();
         content.append("0 g").append_i(separator);
+        fillWritten(start);
     }
 
     /**
@@ -586,8 +692,10 @@ public class PdfContentByte {
      */
 
     public void setRGBColorFillF(final float red, final float green, final float blue) {
+        int start = content.size();
         HelperRGB(red, green, blue);
         content.append(" rg").append_i(separator);
+        fillWritten(start);
     }
 
     /**
@@ -595,7 +703,9 @@ public class PdfContentByte {
      */
 
     public void resetRGBColorFill() {
+        int start = content.size();
         content.append("0 g").append_i(separator);
+        fillWritten(start);
     }
 
     /**
@@ -670,8 +780,10 @@ public class PdfContentByte {
      */
 
     public void setCMYKColorFillF(final float cyan, final float magenta, final float yellow, final float black) {
+        int start = content.size();
         HelperCMYK(cyan, magenta, yellow, black);
         content.append(" k").append_i(separator);
+        fillWritten(start);
     }
 
     /**
@@ -680,7 +792,9 @@ public class PdfContentByte {
      */
 
     public void resetCMYKColorFill() {
+        int start = content.size();
         content.append("0 0 0 1 k").append_i(separator);
+        fillWritten(start);
     }
 
     /**
@@ -1434,6 +1548,10 @@ public class PdfContentByte {
         	sanityCheck();
         }
         state = new GraphicState();
+        if (elided != null)
+            elided.reset();
+        lastShowStart = lastShowEnd = -1;
+        lastMoveStart = lastMoveEnd = -1;
     }
 
 
@@ -1523,7 +1641,7 @@ public class PdfContentByte {
             beginText(true);
         }
         state.charSpace = charSpace;
-        content.append(charSpace).append(" Tc").append_i(separator);
+        textState().append(charSpace).append(" Tc").append_i(separator);
     }
 
     /**
@@ -1536,7 +1654,7 @@ public class PdfContentByte {
             beginText(true);
         }
         state.wordSpace = wordSpace;
-        content.append(wordSpace).append(" Tw").append_i(separator);
+        textState().append(wordSpace).append(" Tw").append_i(separator);
     }
 
     /**
@@ -1549,7 +1667,7 @@ public class PdfContentByte {
             beginText(true);
         }
         state.scale = scale;
-        content.append(scale).append(" Tz").append_i(separator);
+        textState().append(scale).append(" Tz").append_i(separator);
     }
 
     /**
@@ -1586,7 +1704,7 @@ public class PdfContentByte {
         PageResources prs = getPageResources();
         PdfName name = state.fontDetails.getFontName();
         name = prs.addFont(name, state.fontDetails.getIndirectReference());
-        content.append(name.getBytes()).append(' ').append(size).append(" Tf").append_i(separator);
+        textState().append(name.getBytes()).append(' ').append(size).append(" Tf").append_i(separator);
     }
 
     /**
@@ -1598,7 +1716,8 @@ public class PdfContentByte {
         if (!inText && autoControlTextBlocks) {
             beginText(true);
         }
-        content.append(rendering).append(" Tr").append_i(separator);
+        state.textRenderMode = rendering;
+        textState().append(rendering).append(" Tr").append_i(separator);
     }
 
     /**
@@ -1612,7 +1731,148 @@ public class PdfContentByte {
         if (!inText && autoControlTextBlocks) {
             beginText(true);
         }
-        content.append(rise).append(" Ts").append_i(separator);
+        state.textRise = rise;
+        textState().append(rise).append(" Ts").append_i(separator);
+    }
+
+    /**
+     * Gets the buffer a text state operator is written to: the content or,
+     * with state elision, a buffer that only counts it.
+     */
+    private ByteBuffer textState() {
+        return stateElision ? elided : content;
+    }
+
+    /**
+     * Writes the text state operators that changed since the text was last
+     * shown, with state elision.
+     */
+    private void writeTextState() {
+        if (!stateElision)
+            return;
+        int start = content.size();
+        if (state.fontDetails != null && (state.fontDetails != state.writtenFontDetails || !isWritten(state.size, state.writtenSize))) {
+            PdfName name = getPageResources().addFont(state.fontDetails.getFontName(), state.fontDetails.getIndirectReference());
+            content.append(name.getBytes()).append(' ').append(state.size).append(" Tf").append_i(separator);
+            state.writtenFontDetails = state.fontDetails;
+            state.writtenSize = state.size;
+        }
+        if (!isWritten(state.charSpace, state.writtenCharSpace)) {
+            content.append(state.charSpace).append(" Tc").append_i(separator);
+            state.writtenCharSpace = state.charSpace;
+        }
+        if (!isWritten(state.wordSpace, state.writtenWordSpace)) {
+            content.append(state.wordSpace).append(" Tw").append_i(separator);
+            state.writtenWordSpace = state.wordSpace;
+        }
+        if (!isWritten(state.scale, state.writtenScale)) {
+            content.append(state.scale).append(" Tz").append_i(separator);
+            state.writtenScale = state.scale;
+        }
+        if (!isWritten(state.textRise, state.writtenTextRise)) {
+            content.append(state.textRise).append(" Ts").append_i(separator);
+            state.writtenTextRise = state.textRise;
+        }
+        if (state.textRenderMode != state.writtenTextRenderMode) {
+            content.append(state.textRenderMode).append(" Tr").append_i(separator);
+            state.writtenTextRenderMode = state.textRenderMode;
+        }
+        savedBytes += elided.size() - (content.size() - start);
+        elided.reset();
+    }
+
+    /**
+     * Checks if writing <CODE>value</CODE> would write the same number as
+     * <CODE>written</CODE>, so that a spacing that only differs by a
+     * rounding error is not written again.
+     */
+    private static boolean isWritten(final float value, final float written) {
+        return value == written
+            || !Float.isNaN(written) && ByteBuffer.formatDouble(value).equals(ByteBuffer.formatDouble(written));
+    }
+
+    /**
+     * Gets the number a PDF reader reads for <CODE>value</CODE> as it is
+     * written to the content.
+     */
+    private static double asWritten(final double value) {
+        return Double.parseDouble(ByteBuffer.formatDouble(value));
+    }
+
+    /**
+     * Drops the fill color operator written since <CODE>start</CODE> if
+     * it is the same as the last one, with state elision.
+     */
+    private void fillWritten(final int start) {
+        if (!stateElision)
+            return;
+        int length = content.size() - start;
+        byte[] buf = content.getBuffer();
+        byte[] fill = state.writtenFill;
+        if (fill != null && fill.length == length) {
+            int k = 0;
+            while (k < length && fill[k] == buf[start + k])
+                ++k;
+            if (k == length) {
+                content.setSize(start);
+                savedBytes += length;
+                return;
+            }
+        }
+        fill = new byte[length];
+        System.arraycopy(buf, start, fill, 0, length);
+        state.writtenFill = fill;
+    }
+
+    /**
+     * Merges the text showing operator written since <CODE>start</CODE>
+     * with the one right before it, with state elision.
+     */
+    private void textShown(final int start) {
+        if (!stateElision)
+            return;
+        if (start != lastShowEnd)
+            lastShowStart = start;
+        else
+            mergeTextShow(start);
+        lastShowEnd = content.size();
+    }
+
+    /**
+     * Merges two adjacent text showing operators: (a)Tj (b)Tj becomes
+     * (ab)Tj and any other pair a single TJ array.
+     */
+    private void mergeTextShow(final int start) {
+        byte buf[] = content.getBuffer();
+        int end = content.size();
+        boolean array = buf[lastShowStart] == '[';
+        boolean nextArray = buf[start] == '[';
+        // the operands without the brackets, the operator and the separator
+        int p = start - (array ? 4 : 3);
+        int from = nextArray ? start + 1 : start;
+        int to = end - (nextArray ? 4 : 3);
+        boolean join = buf[p - 1] == ')' && from < to && buf[from] == '(';
+        if (!array && (nextArray || !join)) {
+            System.arraycopy(buf, lastShowStart, buf, lastShowStart + 1, p - lastShowStart);
+            buf[lastShowStart] = '[';
+            ++p;
+            array = true;
+        }
+        if (join) {
+            --p;
+            ++from;
+        }
+        else if (from < to && isNumberByte(buf[p - 1]) && isNumberByte(buf[from])) {
+            buf[p++] = ' ';
+        }
+        System.arraycopy(buf, from, buf, p, to - from);
+        content.setSize(p + to - from);
+        content.append(array ? "]TJ" : "Tj").append_i(separator);
+        savedBytes += end - content.size();
+    }
+
+    private static boolean isNumberByte(final byte b) {
+        return b >= '0' && b <= '9' || b == '.' || b == '-';
     }
 
     /**
@@ -1637,11 +1897,14 @@ public class PdfContentByte {
         if (!inText && autoControlTextBlocks) {
             beginText(true);
         }
+        writeTextState();
         if (writer.isTagged())
             beginMarkedContentSequence(new PdfStructureElement(getParentStructureElement(), PdfName.SPAN));
+        int start = content.size();
         showText2(text);
         updateTx(text, 0);
         content.append("Tj").append_i(separator);
+        textShown(start);
         if (writer.isTagged())
            endMarkedContentSequence();
     }
@@ -1701,6 +1964,7 @@ public class PdfContentByte {
         if (!inText && autoControlTextBlocks) {
             beginText(true);
         }
+        writeTextState();
         if (writer.isTagged())
             beginMarkedContentSequence(new PdfStructureElement(getParentStructureElement(), PdfName.SPAN));
         state.yTLM -= state.leading;
@@ -1723,6 +1987,7 @@ public class PdfContentByte {
         if (!inText && autoControlTextBlocks) {
             beginText(true);
         }
+        writeTextState();
         if (writer.isTagged())
             beginMarkedContentSequence(new PdfStructureElement(getParentStructureElement(), PdfName.SPAN));
         state.yTLM -= state.leading;
@@ -1733,8 +1998,8 @@ public class PdfContentByte {
             endMarkedContentSequence();
         // The " operator sets charSpace and wordSpace into graphics state
         // (cfr PDF reference v1.6, table 5.6)
-        state.charSpace = charSpacing;
-        state.wordSpace = wordSpacing;
+        state.charSpace = state.writtenCharSpace = charSpacing;
+        state.wordSpace = state.writtenWordSpace = wordSpacing;
         state.tx = state.xTLM;
         updateTx(text, 0);
     }
@@ -1806,7 +2071,29 @@ public class PdfContentByte {
         if (autoControlTextBlocks && state.xTLM != state.tx) {
             setTextMatrix(state.aTLM, state.bTLM, state.cTLM, state.dTLM, state.xTLM, state.yTLM);
         } else {
+            int start = content.size();
             content.append(x).append(' ').append(y).append(" Td").append_i(separator);
+            if (stateElision) {
+                double moveX = lastMoveX + asWritten(x);
+                double moveY = lastMoveY + asWritten(y);
+                // two moves in a row are one move by their sum, if the sum
+                // is written without rounding so the text stays where it was
+                if (start == lastMoveEnd && Math.abs(asWritten(moveX) - moveX) < 1e-9
+                        && Math.abs(asWritten(moveY) - moveY) < 1e-9) {
+                    int end = content.size();
+                    lastMoveX = moveX;
+                    lastMoveY = moveY;
+                    content.setSize(lastMoveStart);
+                    content.append(lastMoveX).append(' ').append(lastMoveY).append(" Td").append_i(separator);
+                    savedBytes += end - content.size();
+                }
+                else {
+                    lastMoveStart = start;
+                    lastMoveX = asWritten(x);
+                    lastMoveY = asWritten(y);
+                }
+                lastMoveEnd = content.size();
+            }
         }
     }
 
@@ -2407,6 +2694,7 @@ public class PdfContentByte {
      */
 
     public void setCMYKColorFill(final int cyan, final int magenta, final int yellow, final int black) {
+        int start = content.size();
         content.append((float)(cyan & 0xFF) / 0xFF);
         content.append(' ');
         content.append((float)(magenta & 0xFF) / 0xFF);
@@ -2415,6 +2703,7 @@ public class PdfContentByte {
         content.append(' ');
         content.append((float)(black & 0xFF) / 0xFF);
         content.append(" k").append_i(separator);
+        fillWritten(start);
     }
     /**
      * Changes the current color for stroking paths (device dependent colors!).
@@ -2462,8 +2751,10 @@ public class PdfContentByte {
      */
 
     public void setRGBColorFill(final int red, final int green, final int blue) {
+        int start = content.size();
         HelperRGB((float) (red & 0xFF) / 0xFF, (float) (green & 0xFF) / 0xFF, (float) (blue & 0xFF) / 0xFF);
         content.append(" rg").append_i(separator);
+        fillWritten(start);
     }
 
     /**
@@ -2572,7 +2863,9 @@ public class PdfContentByte {
         PageResources prs = getPageResources();
         PdfName name = state.colorDetails.getColorName();
         name = prs.addColor(name, state.colorDetails.getIndirectReference());
+        int start = content.size();
         content.append(name.getBytes()).append(" cs ").append(tint).append(" scn").append_i(separator);
+        fillWritten(start);
     }
 
     /** Sets the stroke color to a spot color.
@@ -2602,7 +2895,9 @@ public class PdfContentByte {
         PageResources prs = getPageResources();
         PdfName name = writer.addSimplePattern(p);
         name = prs.addPattern(name, p.getIndirectReference());
+        int start = content.size();
         content.append(PdfName.PATTERN.getBytes()).append(" cs ").append(name.getBytes()).append(" scn").append_i(separator);
+        fillWritten(start);
     }
 
     /** Outputs the color values to the content.
@@ -2662,9 +2957,11 @@ public class PdfContentByte {
         name = prs.addPattern(name, p.getIndirectReference());
         ColorDetails csDetail = writer.addSimplePatternColorspace(color);
         PdfName cName = prs.addColor(csDetail.getColorName(), csDetail.getIndirectReference());
+        int start = content.size();
         content.append(cName.getBytes()).append(" cs").append_i(separator);
         outputColorNumbers(color, tint);
         content.append(' ').append(name.getBytes()).append(" scn").append_i(separator);
+        fillWritten(start);
     }
 
     /** Sets the stroke color to an uncolored pattern.
@@ -2743,7 +3040,9 @@ public class PdfContentByte {
         writer.addSimpleShadingPattern(shading);
         PageResources prs = getPageResources();
         PdfName name = prs.addPattern(shading.getPatternName(), shading.getPatternReference());
+        int start = content.size();
         content.append(PdfName.PATTERN.getBytes()).append(" cs ").append(name.getBytes()).append(" scn").append_i(separator);
+        fillWritten(start);
         ColorDetails details = shading.getColorDetails();
         if (details != null)
             prs.addColor(details.getColorName(), details.getIndirectReference());
@@ -2781,8 +3080,10 @@ public class PdfContentByte {
         }
         if (state.fontDetails == null)
             throw new NullPointerException(MessageLocalization.getComposedMessage("font.and.size.must.be.set.before.writing.any.text"));
+        writeTextState();
         if (writer.isTagged())
             beginMarkedContentSequence(new PdfStructureElement(getParentStructureElement(), PdfName.SPAN));
+        int start = content.size();
         content.append("[");
         ArrayList<Object> arrayList = text.getArrayList();
         boolean lastWasNumber = false;
@@ -2802,6 +3103,7 @@ public class PdfContentByte {
             }
         }
         content.append("]TJ").append_i(separator);
+        textShown(start);
         if (writer.isTagged())
             endMarkedContentSequence();
     }
@@ -2932,21 +3234,27 @@ public class PdfContentByte {
      * @param s the <CODE>String</CODE>
      */
     public void setLiteral(final String s) {
+        writeTextState();
         content.append(s);
+        state.forgetWritten();
     }
 
     /** Outputs a <CODE>char</CODE> directly to the content.
      * @param c the <CODE>char</CODE>
      */
     public void setLiteral(final char c) {
+        writeTextState();
         content.append(c);
+        state.forgetWritten();
     }
 
     /** Outputs a <CODE>float</CODE> directly to the content.
      * @param n the <CODE>float</CODE>
      */
     public void setLiteral(final float n) {
+        writeTextState();
         content.append(n);
+        state.forgetWritten();
     }
 
     /** Throws an error if it is a pattern.
@@ -897,6 +897,7 @@ public class PdfDocument extends Document {
         	if (writer.isTagged())
         		page.put(PdfName.STRUCTPARENTS, new PdfNumber(writer.getCurrentPageNumber() - 1));
 
+            writer.contentBytesSaved += text.getSavedBytes();
             if (text.size() > textEmptySize || !useSeparateCanvasesForTextAndGraphics)
         		text.endText();
         	else
@@ -1536,6 +1537,8 @@ public class PdfDocument extends Document {
                 rise = fr.floatValue();
             if (color != null)
                 text.setColorFill(color);
+            else if (text.isStateElision())
+                text.resetRGBColorFill();
             if (rise != 0)
                 text.setTextRise(rise);
             if (chunk.isImage()) {
@@ -1597,7 +1600,8 @@ public class PdfDocument extends Document {
 
             if (rise != 0)
                 text.setTextRise(0);
-            if (color != null)
+            // with state elision the next chunk sets its own fill color
+            if (color != null && !text.isStateElision())
                 text.resetRGBColorFill();
             if (tr != PdfContentByte.TEXT_RENDER_MODE_FILL)
                 text.setTextRenderingMode(PdfContentByte.TEXT_RENDER_MODE_FILL);
@@ -2207,6 +2211,7 @@ public class PdfDocument extends Document {
         if (useSeparateCanvasesForTextAndGraphics) {
             text = new PdfContentByte(writer);
             text.reset();
+            text.setStateElision(stateElision);
         } else {
             text = graphics;
         }
@@ -2303,6 +2308,40 @@ public class PdfDocument extends Document {
         this.strictImageSequence = strictImageSequence;
     }
 
+    /** Holds value of property ltrFastPath. */
+    protected boolean ltrFastPath = true;
+
+    /** Getter for property ltrFastPath.
+     * @return Value of property ltrFastPath.
+     */
+    boolean isLtrFastPath() {
+        return this.ltrFastPath;
+    }
+
+    /** Setter for property ltrFastPath.
+     * @param ltrFastPath New value of property ltrFastPath.
+     */
+    void setLtrFastPath(final boolean ltrFastPath) {
+        this.ltrFastPath = ltrFastPath;
+    }
+
+    /** Holds value of property stateElision, elides redundant operators on the page text. */
+    protected boolean stateElision = true;
+
+    /** Getter for property stateElision.
+     * @return Value of property stateElision.
+     */
+    boolean isStateElision() {
+        return this.stateElision;
+    }
+
+    /** Setter for property stateElision.
+     * @param stateElision New value of property stateElision.
+     */
+    void setStateElision(final boolean stateElision) {
+        this.stateElision = stateElision;
+    }
+
     /** This is the position where the image ends. */
     protected float imageEnd = -1;
 
@@ -2681,6 +2720,7 @@ public class PdfDocument extends Document {
             float numLines = Float.POSITIVE_INFINITY;
             for (int i=0; i<4; i++) {
                 BidiLine bidiLine = new BidiLine();
+                bidiLine.setLtrFastPath(ltrFastPath);
 
                 java.util.List<Chunk> chunks = paragraph.getChunks();
                 for (Chunk chunk: chunks) {
@@ -0,0 +1,674 @@
+/*
+ * $Id$
+ *
+ * This file is part of the iText (R) project.
+ * Copyright (c) 1998-2012 1T3XT BVBA
+ * Authors: Bruno Lowagie, Paulo Soares, et al.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License version 3
+ * as published by the Free Software Foundation with the addition of the
+ * following permission added to Section 15 as permitted in Section 7(a):
+ * FOR ANY PART OF THE COVERED WORK IN WHICH THE COPYRIGHT IS OWNED BY 1T3XT,
+ * 1T3XT DISCLAIMS THE WARRANTY OF NON INFRINGEMENT OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA, or download the license from the following URL:
+ * http://itextpdf.com/terms-of-use/
+ *
+ * The interactive user interfaces in modified source and object code versions
+ * of this program must display Appropriate Legal Notices, as required under
+ * Section 5 of the GNU Affero General Public License.
+ *
+ * In accordance with Section 7(b) of the GNU Affero General Public License,
+ * a covered work must retain the producer line in every PDF that is created
+ * or manipulated using iText.
+ *
+ * You can be released from the requirements of the license by purchasing
+ * a commercial license. Buying such a license is mandatory as soon as you
+ * develop commercial activities involving the iText software without
+ * disclosing the source code of your own applications.
+ * These activities include: offering paid services to customers as an ASP,
+ * serving PDFs on the fly in a web application, shipping iText with a closed
+ * source product.
+ *
+ * For more information, please contact iText Software Corp. at this
+ * address: sales@itextpdf.com
+ */
+package com.itextpdf.text.pdf;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.zip.DeflaterOutputStream;
+
+import com.itextpdf.text.DocWriter;
+import com.itextpdf.text.error_messages.MessageLocalization;
+
+/**
+ * Rewrites a document as a linearized file (ISO 32000-1, Annex F), so that
+ * a viewer reading it over a slow connection can show the first page after
+ * reading a small prefix of the file.
+ * <P>
+ * The catalog with its document-level objects, the hint stream and the first
+ * page with every object it uses come first, then the other pages in page order with the objects only they
+ * use, the objects shared by several pages and the rest of the document.
+ * Object streams are expanded and standard cross-reference tables are
+ * written. Objects not reachable from the trailer are dropped.
+ * <P>
+ * The reader may be opened in partial mode, the objects are read again
+ * when they are written.
+ */
+public class PdfLinearizer {
+
+    // parts of a linearized file, see Annex F.3
+    private static final int CATALOG = 4;
+    private static final int FIRST_PAGE = 6;
+    private static final int PAGE = 7;
+    private static final int SHARED = 8;
+    private static final int OTHER = 9;
+
+    /** Entries of the catalog whose objects go into part 4 with it, see Annex F.3.4 */
+    private static final PdfName DOCUMENT_LEVEL[] = {PdfName.VIEWERPREFERENCES, PdfName.OPENACTION,
+        PdfName.ACROFORM, PdfName.THREADS};
+
+    /** Width of the numbers written before their values are known */
+    private static final int FIELD = 10;
+
+    private static final byte ENDOBJ[] = DocWriter.getISOBytes("\nendobj\n");
+    private static final byte STREAM[] = DocWriter.getISOBytes("\nstream\n");
+    private static final byte ENDSTREAM[] = DocWriter.getISOBytes("\nendstream");
+
+    private final PdfReader reader;
+    private final int size;
+    /** Object numbers referenced by each object, read on first use */
+    private final int children[][];
+    /** The catalog, the page tree nodes and the pages, where the traversal of a page stops */
+    private final boolean boundary[];
+    private final int part[];
+    private final int newNumber[];
+
+    private int pages[];
+    /** Objects in part 4, 6 and the main section, in file order */
+    private final ArrayList<Integer> catalogPart = new ArrayList<Integer>();
+    private final ArrayList<Integer> firstPagePart = new ArrayList<Integer>();
+    private final ArrayList<Integer> main = new ArrayList<Integer>();
+    private final ArrayList<Integer> sharedPart = new ArrayList<Integer>();
+    /** Number of objects of each page in part 6 or 7 */
+    private int pageObjects[];
+    /** Shared object hint table entries used by each page */
+    private int sharedIdentifiers[][];
+
+    public PdfLinearizer(final PdfReader reader) {
+        if (reader.isEncrypted())
+            throw new IllegalArgumentException(MessageLocalization.getComposedMessage("linearization.of.encrypted.documents.is.not.supported"));
+        this.reader = reader;
+        size = reader.getXrefSize();
+        children = new int[size][];
+        boundary = new boolean[size];
+        part = new int[size];
+        newNumber = new int[size];
+    }
+
+    /**
+     * Writes the linearized document.
+     * @param os the stream to write to, it is not closed
+     * @throws IOException on error
+     */
+    public void write(final OutputStream os) throws IOException {
+        PdfDictionary trailer = reader.getTrailer();
+        int root = getNumber(trailer.get(PdfName.ROOT));
+        int info = getNumber(trailer.get(PdfName.INFO));
+        assignParts(root, info);
+
+        // the main section is numbered from 1, the first page section follows it
+        int number = 1;
+        for (int num : main)
+            newNumber[num] = number++;
+        int linearized = number++;
+        for (int num : catalogPart)
+            newNumber[num] = number++;
+        for (int num : firstPagePart)
+            newNumber[num] = number++;
+        int hint = number++;
+
+        long length[] = new long[number];
+        long offset[] = new long[number];
+        for (int num : catalogPart)
+            length[newNumber[num]] = writeObject(null, num);
+        for (int num : firstPagePart)
+            length[newNumber[num]] = writeObject(null, num);
+        for (int num : main)
+            length[newNumber[num]] = writeObject(null, num);
+
+        // offsets without the hint stream, as the hint tables need them
+        byte header[] = DocWriter.getISOBytes("%PDF-1." + reader.getPdfVersion() + "\n%\u00e2\u00e3\u00cf\u00d3\n");
+        long pos = header.length;
+        long linearizedLength = getLinearizationDictionary(linearized, 0, 0, 0, 0, 0).length;
+        offset[linearized] = pos;
+        pos += linearizedLength;
+        long firstXref = pos;
+        pos += getFirstPageXref(linearized, number, offset, length, 0).length;
+        for (int num : catalogPart) {
+            offset[newNumber[num]] = pos;
+            pos += length[newNumber[num]];
+        }
+        long hintOffset = pos;
+        for (int num : firstPagePart) {
+            offset[newNumber[num]] = pos;
+            pos += length[newNumber[num]];
+        }
+        long endOfFirstPage = pos;
+        for (int num : main) {
+            offset[newNumber[num]] = pos;
+            pos += length[newNumber[num]];
+        }
+        long mainXref = pos;
+
+        byte hintStream[] = getHintStream(hint, offset, length);
+        offset[hint] = hintOffset;
+        length[hint] = hintStream.length;
+        for (int k = 1; k < number; ++k) {
+            if (k != hint && offset[k] >= hintOffset)
+                offset[k] += hintStream.length;
+        }
+        endOfFirstPage += hintStream.length;
+        mainXref += hintStream.length;
+        byte mainXrefBytes[] = getMainXref(linearized, number, offset, firstXref);
+        long fileLength = mainXref + mainXrefBytes.length;
+        // the white space before the first entry of the main cross-reference table
+        long firstEntry = mainXref + ("xref\n0 " + linearized).length();
+
+        os.write(header);
+        os.write(getLinearizationDictionary(linearized, fileLength, hintOffset, hintStream.length, endOfFirstPage, firstEntry));
+        os.write(getFirstPageXref(linearized, number, offset, length, mainXref));
+        for (int num : catalogPart)
+            writeObject(os, num);
+        os.write(hintStream);
+        for (int num : firstPagePart)
+            writeObject(os, num);
+        for (int num : main)
+            writeObject(os, num);
+        os.write(mainXrefBytes);
+    }
+
+    /**
+     * Sorts the objects into the parts of the file.
+     */
+    private void assignParts(final int root, final int info) {
+        int n = reader.getNumberOfPages();
+        pages = new int[n];
+        for (int k = 0; k < n; ++k) {
+            pages[k] = reader.getPageOrigRef(k + 1).getNumber();
+            boundary[pages[k]] = true;
+        }
+        boundary[root] = true;
+        PdfDictionary catalog = reader.getCatalog();
+        ArrayList<Integer> stack = new ArrayList<Integer>();
+        stack.add(getNumber(catalog.get(PdfName.PAGES)));
+        while (!stack.isEmpty()) {
+            int num = stack.remove(stack.size() - 1);
+            if (num == 0 || boundary[num])
+                continue;
+            boundary[num] = true;
+            for (int kid : getChildren(num))
+                stack.add(kid);
+        }
+
+        // the outlines only when they are shown on opening, the names and the
+        // rest of the catalog go to the end
+        part[root] = CATALOG;
+        catalogPart.add(root);
+        ArrayList<Integer> documentLevel = new ArrayList<Integer>();
+        for (PdfName key : DOCUMENT_LEVEL)
+            addChildren(catalog.get(key), documentLevel);
+        if (PdfName.USEOUTLINES.equals(catalog.get(PdfName.PAGEMODE)))
+            addChildren(catalog.get(PdfName.OUTLINES), documentLevel);
+        for (int num : documentLevel) {
+            // an open action may point to a page
+            if (!boundary[num])
+                collect(num, CATALOG, catalogPart);
+        }
+        collect(pages[0], FIRST_PAGE, firstPagePart);
+
+        // the objects each later page uses and the ones several pages use
+        int reached[][] = new int[n][];
+        int user[] = new int[size];
+        boolean shared[] = new boolean[size];
+        ArrayList<Integer> list = new ArrayList<Integer>();
+        for (int p = 1; p < n; ++p) {
+            list.clear();
+            for (int kid : getChildren(pages[p]))
+                stack.add(kid);
+            while (!stack.isEmpty()) {
+                int num = stack.remove(stack.size() - 1);
+                if (user[num] == p + 1 || boundary[num] || part[num] == CATALOG)
+                    continue;
+                if (user[num] != 0)
+                    shared[num] = true;
+                user[num] = p + 1;
+                list.add(num);
+                int kids[] = getChildren(num);
+                for (int k = kids.length - 1; k >= 0; --k)
+                    stack.add(kids[k]);
+            }
+            reached[p] = toArray(list);
+        }
+
+        pageObjects = new int[n];
+        pageObjects[0] = firstPagePart.size();
+        for (int p = 1; p < n; ++p) {
+            part[pages[p]] = PAGE;
+            main.add(pages[p]);
+            pageObjects[p] = 1;
+            for (int num : reached[p]) {
+                if (part[num] == 0 && !shared[num]) {
+                    part[num] = PAGE;
+                    main.add(num);
+                    pageObjects[p]++;
+                }
+            }
+        }
+        for (int p = 1; p < n; ++p) {
+            for (int num : reached[p]) {
+                if (part[num] == 0) {
+                    part[num] = SHARED;
+                    main.add(num);
+                    sharedPart.add(num);
+                }
+            }
+        }
+
+        // the shared object hint table lists part 6 and then part 8
+        int identifier[] = new int[size];
+        for (int k = 0; k < firstPagePart.size(); ++k)
+            identifier[firstPagePart.get(k)] = k;
+        for (int k = 0; k < sharedPart.size(); ++k)
+            identifier[sharedPart.get(k)] = firstPagePart.size() + k;
+        sharedIdentifiers = new int[n][];
+        sharedIdentifiers[0] = new int[0];
+        for (int p = 1; p < n; ++p) {
+            list.clear();
+            for (int num : reached[p]) {
+                if (part[num] == FIRST_PAGE || part[num] == SHARED)
+                    list.add(identifier[num]);
+            }
+            sharedIdentifiers[p] = toArray(list);
+        }
+
+        // the page tree, the outlines, the names and everything else
+        boolean visited[] = new boolean[size];
+        stack.add(info);
+        stack.add(root);
+        while (!stack.isEmpty()) {
+            int num = stack.remove(stack.size() - 1);
+            if (num == 0 || visited[num])
+                continue;
+            visited[num] = true;
+            if (part[num] == 0) {
+                part[num] = OTHER;
+                main.add(num);
+            }
+            int kids[] = getChildren(num);
+            for (int k = kids.length - 1; k >= 0; --k)
+                stack.add(kids[k]);
+        }
+    }
+
+    /**
+     * Adds the objects reachable from start without a part yet to a part,
+     * depth first. The traversal stops at the pages and the page tree.
+     */
+    private void collect(final int start, final int p, final ArrayList<Integer> list) {
+        ArrayList<Integer> stack = new ArrayList<Integer>();
+        stack.add(start);
+        while (!stack.isEmpty()) {
+            int num = stack.remove(stack.size() - 1);
+            if (num == 0 || part[num] != 0 || num != start && boundary[num])
+                continue;
+            part[num] = p;
+            list.add(num);
+            int kids[] = getChildren(num);
+            for (int k = kids.length - 1; k >= 0; --k)
+                stack.add(kids[k]);
+        }
+    }
+
+    private int[] getChildren(final int num) {
+        if (children[num] == null) {
+            ArrayList<Integer> list = new ArrayList<Integer>();
+            addChildren(reader.getPdfObjectRelease(num), list);
+            children[num] = toArray(list);
+        }
+        return children[num];
+    }
+
+    private void addChildren(final PdfObject obj, final ArrayList<Integer> list) {
+        if (obj == null)
+            return;
+        if (obj.isIndirect()) {
+            int num = getNumber(obj);
+            if (num != 0)
+                list.add(num);
+        }
+        else if (obj.isDictionary() || obj.isStream()) {
+            PdfDictionary dic = (PdfDictionary)obj;
+            for (PdfName key : dic.getKeys()) {
+                // the length of a stream is written directly
+                if (!(obj.isStream() && PdfName.LENGTH.equals(key)))
+                    addChildren(dic.get(key), list);
+            }
+        }
+        else if (obj.isArray()) {
+            PdfArray array = (PdfArray)obj;
+            for (int k = 0; k < array.size(); ++k)
+                addChildren(array.getPdfObject(k), list);
+        }
+    }
+
+    private int getNumber(final PdfObject ref) {
+        if (ref == null || !ref.isIndirect())
+            return 0;
+        int num = ((PRIndirectReference)ref).getNumber();
+        return num > 0 && num < size ? num : 0;
+    }
+
+    private static int[] toArray(final ArrayList<Integer> list) {
+        int a[] = new int[list.size()];
+        for (int k = 0; k < a.length; ++k)
+            a[k] = list.get(k);
+        return a;
+    }
+
+    /**
+     * Writes an object with its new number.
+     * @param os the stream to write to, or null to only get the length
+     * @return the length of the object
+     */
+    private long writeObject(final OutputStream os, final int num) throws IOException {
+        PdfObject obj = reader.getPdfObjectRelease(num);
+        ByteBuffer buf = new ByteBuffer();
+        buf.append(newNumber[num]).append(" 0 obj\n");
+        writeDirect(obj, buf);
+        long length = buf.size() + ENDOBJ.length;
+        if (obj.isStream()) {
+            PRStream stream = (PRStream)obj;
+            buf.append(STREAM);
+            length += STREAM.length + getRawLength(stream) + ENDSTREAM.length;
+            if (os != null) {
+                buf.writeTo(os);
+                os.write(PdfReader.getStreamBytesRaw(stream));
+                os.write(ENDSTREAM);
+                os.write(ENDOBJ);
+            }
+        }
+        else if (os != null) {
+            buf.append(ENDOBJ);
+            buf.writeTo(os);
+        }
+        return length;
+    }
+
+    private static int getRawLength(final PRStream stream) {
+        return stream.getOffset() > 0 ? stream.getLength() : stream.getBytes().length;
+    }
+
+    /**
+     * Writes a direct object replacing the object numbers of the references.
+     */
+    private void writeDirect(final PdfObject obj, final ByteBuffer buf) throws IOException {
+        if (obj == null) {
+            PdfNull.PDFNULL.toPdf(null, buf);
+        }
+        else if (obj.isIndirect()) {
+            int num = getNumber(obj);
+            if (num == 0 || newNumber[num] == 0)
+                PdfNull.PDFNULL.toPdf(null, buf);
+            else
+                buf.append(newNumber[num]).append(" 0 R");
+        }
+        else if (obj.isDictionary() || obj.isStream()) {
+            PdfDictionary dic = (PdfDictionary)obj;
+            buf.append("<<");
+            for (PdfName key : dic.getKeys()) {
+                if (obj.isStream() && PdfName.LENGTH.equals(key))
+                    continue;
+                key.toPdf(null, buf);
+                buf.append(' ');
+                writeDirect(dic.get(key), buf);
+            }
+            if (obj.isStream()) {
+                PdfName.LENGTH.toPdf(null, buf);
+                buf.append(' ').append(getRawLength((PRStream)obj));
+            }
+            buf.append(">>");
+        }
+        else if (obj.isArray()) {
+            buf.append('[');
+            PdfArray array = (PdfArray)obj;
+            for (int k = 0; k < array.size(); ++k) {
+                if (k > 0)
+                    buf.append(' ');
+                writeDirect(array.getPdfObject(k), buf);
+            }
+            buf.append(']');
+        }
+        else {
+            obj.toPdf(null, buf);
+        }
+    }
+
+    private static String pad(final long value) {
+        StringBuilder s = new StringBuilder(FIELD);
+        String digits = String.valueOf(value);
+        for (int k = digits.length(); k < FIELD; ++k)
+            s.append(' ');
+        return s.append(digits).toString();
+    }
+
+    private static void appendXrefEntry(final ByteBuffer buf, final long offset) {
+        String s = String.valueOf(offset);
+        for (int k = s.length(); k < 10; ++k)
+            buf.append('0');
+        buf.append(s).append(" 00000 n \n");
+    }
+
+    private byte[] getLinearizationDictionary(final int linearized, final long fileLength, final long hintOffset,
+            final long hintLength, final long endOfFirstPage, final long firstEntry) {
+        ByteBuffer buf = new ByteBuffer();
+        buf.append(linearized).append(" 0 obj\n<</Linearized 1/L ").append(pad(fileLength))
+            .append("/H [").append(pad(hintOffset)).append(' ').append(pad(hintLength))
+            .append("]/O ").append(newNumber[pages[0]]).append("/E ").append(pad(endOfFirstPage))
+            .append("/N ").append(pages.length).append("/T ").append(pad(firstEntry)).append(">>").append(ENDOBJ);
+        return buf.toByteArray();
+    }
+
+    /**
+     * The cross-reference table of the first page section and the trailer
+     * of the document.
+     */
+    private byte[] getFirstPageXref(final int linearized, final int number, final long offset[], final long length[],
+            final long mainXref) throws IOException {
+        ByteBuffer buf = new ByteBuffer();
+        buf.append("xref\n").append(linearized).append(' ').append(number - linearized).append('\n');
+        for (int k = linearized; k < number; ++k)
+            appendXrefEntry(buf, offset[k]);
+        PdfDictionary trailer = reader.getTrailer();
+        buf.append("trailer\n<</Size ").append(number);
+        buf.append("/Root ");
+        writeDirect(trailer.get(PdfName.ROOT), buf);
+        if (trailer.get(PdfName.INFO) != null) {
+            buf.append("/Info ");
+            writeDirect(trailer.get(PdfName.INFO), buf);
+        }
+        if (trailer.get(PdfName.ID) != null) {
+            buf.append("/ID ");
+            writeDirect(trailer.get(PdfName.ID), buf);
+        }
+        buf.append("/Prev ").append(pad(mainXref)).append(">>\nstartxref\n0\n%%EOF\n");
+        return buf.toByteArray();
+    }
+
+    private byte[] getMainXref(final int linearized, final int number, final long offset[], final long firstXref) {
+        ByteBuffer buf = new ByteBuffer();
+        buf.append("xref\n0 ").append(linearized).append("\n0000000000 65535 f \n");
+        for (int k = 1; k < linearized; ++k)
+            appendXrefEntry(buf, offset[k]);
+        buf.append("trailer\n<</Size ").append(number).append(">>\nstartxref\n").append(firstXref).append("\n%%EOF\n");
+        return buf.toByteArray();
+    }
+
+    /**
+     * Builds the hint stream with the page offset and the shared object hint
+     * tables, see Annex F.4. The offsets are the ones the objects would have
+     * without the hint stream.
+     */
+    private byte[] getHintStream(final int hint, final long offset[], final long length[]) throws IOException {
+        int n = pages.length;
+        long pageLength[] = new long[n];
+        for (int k = 0; k < firstPagePart.size(); ++k)
+            pageLength[0] += length[newNumber[firstPagePart.get(k)]];
+        int index = 0;
+        for (int p = 1; p < n; ++p) {
+            for (int k = 0; k < pageObjects[p]; ++k)
+                pageLength[p] += length[newNumber[main.get(index++)]];
+        }
+        int leastObjects = Integer.MAX_VALUE, mostObjects = 0;
+        long leastLength = Long.MAX_VALUE, mostLength = 0;
+        int mostShared = 0, greatestIdentifier = 0;
+        for (int p = 0; p < n; ++p) {
+            leastObjects = Math.min(leastObjects, pageObjects[p]);
+            mostObjects = Math.max(mostObjects, pageObjects[p]);
+            leastLength = Math.min(leastLength, pageLength[p]);
+            mostLength = Math.max(mostLength, pageLength[p]);
+            mostShared = Math.max(mostShared, sharedIdentifiers[p].length);
+            for (int id : sharedIdentifiers[p])
+                greatestIdentifier = Math.max(greatestIdentifier, id);
+        }
+        int objectsBits = bits(mostObjects - leastObjects);
+        int lengthBits = bits(mostLength - leastLength);
+        int sharedBits = bits(mostShared);
+        int identifierBits = bits(greatestIdentifier);
+
+        // page offset hint table, the content stream of a page is given as the whole page
+        BitWriter w = new BitWriter();
+        w.write(leastObjects, 32);
+        w.write(offset[newNumber[pages[0]]], 32);
+        w.write(objectsBits, 16);
+        w.write(leastLength, 32);
+        w.write(lengthBits, 16);
+        w.write(0, 32);
+        w.write(0, 16);
+        w.write(leastLength, 32);
+        w.write(lengthBits, 16);
+        w.write(sharedBits, 16);
+        w.write(identifierBits, 16);
+        w.write(0, 16);
+        w.write(1, 16);
+        for (int p = 0; p < n; ++p)
+            w.write(pageObjects[p] - leastObjects, objectsBits);
+        w.flush();
+        for (int p = 0; p < n; ++p)
+            w.write(pageLength[p] - leastLength, lengthBits);
+        w.flush();
+        for (int p = 0; p < n; ++p)
+            w.write(sharedIdentifiers[p].length, sharedBits);
+        w.flush();
+        for (int p = 0; p < n; ++p) {
+            for (int id : sharedIdentifiers[p])
+                w.write(id, identifierBits);
+        }
+        w.flush();
+        for (int p = 0; p < n; ++p)
+            w.write(pageLength[p] - leastLength, lengthBits);
+        w.flush();
+        int sharedTable = w.size();
+
+        // shared object hint table, one object per group
+        int groups = firstPagePart.size() + sharedPart.size();
+        long groupLength[] = new long[groups];
+        for (int k = 0; k < firstPagePart.size(); ++k)
+            groupLength[k] = length[newNumber[firstPagePart.get(k)]];
+        for (int k = 0; k < sharedPart.size(); ++k)
+            groupLength[firstPagePart.size() + k] = length[newNumber[sharedPart.get(k)]];
+        long leastGroup = Long.MAX_VALUE, mostGroup = 0;
+        for (long l : groupLength) {
+            leastGroup = Math.min(leastGroup, l);
+            mostGroup = Math.max(mostGroup, l);
+        }
+        int groupBits = bits(mostGroup - leastGroup);
+        if (sharedPart.isEmpty()) {
+            w.write(0, 32);
+            w.write(0, 32);
+        }
+        else {
+            w.write(newNumber[sharedPart.get(0)], 32);
+            w.write(offset[newNumber[sharedPart.get(0)]], 32);
+        }
+        w.write(firstPagePart.size(), 32);
+        w.write(groups, 32);
+        w.write(0, 16);
+        w.write(leastGroup, 32);
+        w.write(groupBits, 16);
+        for (long l : groupLength)
+            w.write(l - leastGroup, groupBits);
+        w.flush();
+        for (int k = 0; k < groups; ++k)
+            w.write(0, 1);
+        w.flush();
+
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        DeflaterOutputStream zip = new DeflaterOutputStream(data);
+        w.writeTo(zip);
+        zip.close();
+        ByteBuffer buf = new ByteBuffer();
+        buf.append(hint).append(" 0 obj\n<</Filter/FlateDecode/S ").append(sharedTable)
+            .append("/Length ").append(data.size()).append(">>").append(STREAM);
+        data.writeTo(buf);
+        buf.append(ENDSTREAM).append(ENDOBJ);
+        return buf.toByteArray();
+    }
+
+    private static int bits(final long value) {
+        return 64 - Long.numberOfLeadingZeros(value);
+    }
+
+    /** Writes the items of the hint tables, most significant bit first */
+    private static class BitWriter {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        private int bits;
+        private int count;
+
+        void write(final long value, final int n) {
+            for (int k = n - 1; k >= 0; --k) {
+                bits = bits << 1 | (int)(value >>> k & 1);
+                if (++count == 8) {
+                    out.write(bits);
+                    bits = 0;
+                    count = 0;
+                }
+            }
+        }
+
+        /** Pads the last byte with zero bits */
+        void flush() {
+            if (count > 0)
+                write(0, 8 - count);
+        }
+
+        int size() {
+            return out.size();
+        }
+
+        void writeTo(final OutputStream os) throws IOException {
+            out.writeTo(os);
+        }
+    }
+}
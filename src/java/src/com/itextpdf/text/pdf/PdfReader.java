@@ -58,6 +58,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -139,6 +140,17 @@ public class PdfReader implements PdfViewerPreferences {
     private int lastXrefPartial = -1;
     private boolean partial;
 
+    /** The object streams decoded last in partial mode by their object numbers */
+    private final LinkedHashMap<Long, ObjStm> objStmCache = new LinkedHashMap<Long, ObjStm>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<Long, ObjStm> eldest) {
+            return size() > OBJSTM_CACHE_SIZE;
+        }
+    };
+    private static final int OBJSTM_CACHE_SIZE = 8;
+
     private PRIndirectReference cryptoRef;
 	private final PdfViewerPreferencesImp viewerPreferences = new PdfViewerPreferencesImp();
     private boolean encryptionError;
@@ -1023,6 +1035,12 @@ public class PdfReader implements PdfViewerPreferences {
         long pos = xref[k2];
         if (pos < 0)
             return null;
+        ObjStm cached = xref[k2 + 1] > 0 ? objStmCache.get(Long.valueOf(xref[k2 + 1])) : null;
+        if (cached != null) {
+            PdfObject obj = readCachedObjStm(cached, (int)xref[k2]);
+            xrefObj.set(k, obj);
+            return obj;
+        }
         if (xref[k2 + 1] > 0)
             pos = objStmToOffset.get(xref[k2 + 1]);
         if (pos == 0)
@@ -1054,12 +1072,88 @@ public class PdfReader implements PdfViewerPreferences {
             obj = null;
         }
         if (xref[k2 + 1] > 0) {
-            obj = readOneObjStm((PRStream)obj, (int)xref[k2]);
+            obj = readCachedObjStm(cacheObjStm((PRStream)obj, xref[k2 + 1]), (int)xref[k2]);
         }
         xrefObj.set(k, obj);
         return obj;
     }
 
+    /** A decoded object stream and the addresses of its objects */
+    private static class ObjStm {
+        final byte bytes[];
+        final int address[];
+
+        ObjStm(final byte bytes[], final int address[]) {
+            this.bytes = bytes;
+            this.address = address;
+        }
+    }
+
+    /**
+     * Decodes an object stream and reads the addresses of its objects. In
+     * partial mode the objects of a few streams are read in turn, so the
+     * last streams decoded are kept instead of decoding one for each object.
+     * @param stream the object stream
+     * @param number the object number of the stream
+     * @return the decoded stream
+     * @throws IOException on error
+     */
+    private ObjStm cacheObjStm(final PRStream stream, final long number) throws IOException {
+        int first = stream.getAsNumber(PdfName.FIRST).intValue();
+        int n = stream.getAsNumber(PdfName.N).intValue();
+        byte b[] = getStreamBytes(stream, tokens.getFile());
+        PRTokeniser saveTokens = tokens;
+        tokens = new PRTokeniser(b);
+        try {
+            int address[] = new int[n];
+            int k;
+            for (k = 0; k < n; ++k) {
+                if (!tokens.nextToken() || tokens.getTokenType() != TokenType.NUMBER)
+                    break;
+                if (!tokens.nextToken() || tokens.getTokenType() != TokenType.NUMBER)
+                    break;
+                address[k] = tokens.intValue() + first;
+            }
+            if (k < n) {
+                int read[] = new int[k];
+                System.arraycopy(address, 0, read, 0, k);
+                address = read;
+            }
+            ObjStm objStm = new ObjStm(b, address);
+            objStmCache.put(Long.valueOf(number), objStm);
+            return objStm;
+        }
+        finally {
+            tokens = saveTokens;
+        }
+    }
+
+    /**
+     * Reads an object of an object stream decoded by {@link #cacheObjStm(PRStream, long)}.
+     * @param objStm the decoded stream
+     * @param idx the index of the object in the stream
+     * @return the object
+     * @throws IOException on error
+     */
+    private PdfObject readCachedObjStm(final ObjStm objStm, final int idx) throws IOException {
+        if (idx < 0 || idx >= objStm.address.length)
+            throw new InvalidPdfException(MessageLocalization.getComposedMessage("error.reading.objstm"));
+        PRTokeniser saveTokens = tokens;
+        tokens = new PRTokeniser(objStm.bytes);
+        try {
+            int address = objStm.address[idx];
+            tokens.seek(address);
+            tokens.nextToken();
+            if (tokens.getTokenType() == PRTokeniser.TokenType.NUMBER)
+                return new PdfNumber(tokens.getStringValue());
+            tokens.seek(address);
+            return readPRObject();
+        }
+        finally {
+            tokens = saveTokens;
+        }
+    }
+
     protected PdfObject readOneObjStm(final PRStream stream, int idx) throws IOException {
         int first = stream.getAsNumber(PdfName.FIRST).intValue();
         byte b[] = getStreamBytes(stream, tokens.getFile());
@@ -2284,6 +2378,16 @@ public class PdfReader implements PdfViewerPreferences {
      * @return the stream content
      */
     public static byte[] getStreamBytes(final PRStream stream) throws IOException {
+        RandomAccessFileOrArray file = stream.getReader().getPartialFile();
+        if (file != null) {
+            long pos = file.getFilePointer();
+            try {
+                return getStreamBytes(stream, file);
+            }
+            finally {
+                file.seek(pos);
+            }
+        }
         RandomAccessFileOrArray rf = stream.getReader().getSafeFile();
         try {
             rf.reOpen();
@@ -2342,6 +2446,16 @@ public class PdfReader implements PdfViewerPreferences {
      * @return the stream content
      */
     public static byte[] getStreamBytesRaw(final PRStream stream) throws IOException {
+        RandomAccessFileOrArray file = stream.getReader().getPartialFile();
+        if (file != null) {
+            long pos = file.getFilePointer();
+            try {
+                return getStreamBytesRaw(stream, file);
+            }
+            finally {
+                file.seek(pos);
+            }
+        }
         RandomAccessFileOrArray rf = stream.getReader().getSafeFile();
         try {
             rf.reOpen();
@@ -2352,6 +2466,19 @@ public class PdfReader implements PdfViewerPreferences {
         }
     }
 
+    /**
+     * Gets the file a reader in partial mode keeps open until it is closed.
+     * Reading the streams from it saves opening, and mapping, the file again
+     * for each one.
+     * @return the open file or <CODE>null</CODE>
+     */
+    private RandomAccessFileOrArray getPartialFile() {
+        if (!partial)
+            return null;
+        RandomAccessFileOrArray file = tokens.getFile();
+        return file.isOpen() ? file : null;
+    }
+
     /** Eliminates shared streams if they exist. */
     public void eliminateSharedStreams() {
         if (!sharedStreams)
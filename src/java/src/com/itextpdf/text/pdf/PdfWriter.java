@@ -2836,6 +2836,20 @@ public class PdfWriter extends DocWriter implements
             this.spaceCharRatio = spaceCharRatio;
     }
 
+    /** The bytes state elision did not write to the page contents. */
+    long contentBytesSaved;
+
+    /**
+     * Gets the number of bytes not written to the page text because
+     * redundant text state operators were elided. The fill color resets
+     * the page text leaves to the next chunk are not counted.
+     * @return the number of bytes saved
+     * @see PdfContentByte#setStateElision(boolean)
+     */
+    public long getContentBytesSaved() {
+        return contentBytesSaved;
+    }
+
 //  [U7] run direction (doesn't actually do anything)
 
     /** Use the default run direction. */
@@ -2996,6 +3010,44 @@ public class PdfWriter extends DocWriter implements
         pdf.setStrictImageSequence(strictImageSequence);
     }
 
+    /**
+     * Use this method to get the ltrFastPath status.
+     * @return value of property ltrFastPath
+     * @see BidiLine#setLtrFastPath(boolean)
+     */
+    public boolean isLtrFastPath() {
+        return pdf.isLtrFastPath();
+    }
+
+    /**
+     * Use this method to let left to right paragraphs without right to
+     * left text skip the bidirectional reordering (or not).
+     * @param ltrFastPath new value of property ltrFastPath
+     * @see BidiLine#setLtrFastPath(boolean)
+     */
+    public void setLtrFastPath(final boolean ltrFastPath) {
+        pdf.setLtrFastPath(ltrFastPath);
+    }
+
+    /**
+     * Use this method to get the stateElision status.
+     * @return value of property stateElision
+     * @see PdfContentByte#setStateElision(boolean)
+     */
+    public boolean isStateElision() {
+        return pdf.isStateElision();
+    }
+
+    /**
+     * Use this method to elide redundant text state and fill color
+     * operators on the page text (or not). Takes effect from the next page.
+     * @param stateElision new value of property stateElision
+     * @see PdfContentByte#setStateElision(boolean)
+     */
+    public void setStateElision(final boolean stateElision) {
+        pdf.setStateElision(stateElision);
+    }
+
     /**
      * Use this method to clear text wrapping around images (if applicable).
      * @throws DocumentException
@@ -18,9 +18,15 @@
 
 package com.itextpdf.text.pdf.hyphenation;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.Map;
 
 /**
  * This tree structure stores the hyphenation patterns in an efficient
@@ -54,6 +60,17 @@ public class HyphenationTree extends TernaryTree
      */
     private transient TernaryTree ivalues;
 
+    /**
+     * The character classes of the characters from classBase on, 0 for
+     * the characters without a class. Built from classmap when the
+     * patterns are loaded, null if classmap has to be searched.
+     */
+    private transient char[] classTable;
+    private transient int classBase;
+
+    /** First bytes of the compiled patterns written by {@link #writeCompiledPatterns(DataOutputStream)} */
+    private static final int COMPILED_PATTERNS_VERSION = 0x48594201;
+
     public HyphenationTree() {
         stoplist = new HashMap<String, ArrayList<Object>>(23);    // usually a small table
         classmap = new TernaryTree();
@@ -119,6 +136,192 @@ public class HyphenationTree extends TernaryTree
 
         // get rid of the auxiliary map
         ivalues = null;
+        buildClassTable();
+    }
+
+    /**
+     * Loads the patterns written by {@link #writeCompiledPatterns(DataOutputStream)},
+     * much faster than parsing the XML patterns.
+     * @param stream the compiled patterns, not closed
+     * @throws IOException if the stream does not hold compiled patterns of this version
+     */
+    public void loadCompiledPatterns(InputStream stream) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int n;
+        while ((n = stream.read(buf)) >= 0) {
+            out.write(buf, 0, n);
+        }
+        loadCompiledPatterns(ByteBuffer.wrap(out.toByteArray()));
+    }
+
+    /**
+     * Loads the compiled patterns from a buffer, which may be a memory
+     * mapped file.
+     * @param buf the compiled patterns
+     * @throws IOException if the buffer does not hold compiled patterns of this version
+     */
+    public void loadCompiledPatterns(ByteBuffer buf) throws IOException {
+        try {
+            if (buf.getInt() != COMPILED_PATTERNS_VERSION) {
+                throw new IOException("Unknown compiled patterns version");
+            }
+            readTree(buf, this);
+            readTree(buf, classmap);
+            byte[] values = new byte[buf.getInt()];
+            buf.get(values);
+            vspace = new ByteVector(values);
+            stoplist.clear();
+            for (int k = buf.getInt(); k > 0; k--) {
+                String word = readString(buf);
+                ArrayList<Object> hyphenatedword = new ArrayList<Object>();
+                for (int i = buf.getInt(); i > 0; i--) {
+                    if (buf.get() == 0) {
+                        hyphenatedword.add(readString(buf));
+                    } else {
+                        hyphenatedword.add(new Hyphen(readString(buf), readString(buf), readString(buf)));
+                    }
+                }
+                stoplist.put(word, hyphenatedword);
+            }
+        } catch (RuntimeException e) {
+            // BufferUnderflowException and friends on a truncated file
+            throw new IOException("Bad compiled patterns: " + e);
+        }
+        buildClassTable();
+    }
+
+    /**
+     * Writes the loaded patterns in a binary form for
+     * {@link #loadCompiledPatterns(InputStream)}.
+     * @param out the stream to write to
+     * @throws IOException on error
+     */
+    public void writeCompiledPatterns(DataOutputStream out) throws IOException {
+        out.writeInt(COMPILED_PATTERNS_VERSION);
+        writeTree(out, this);
+        writeTree(out, classmap);
+        out.writeInt(vspace.length());
+        out.write(vspace.getArray(), 0, vspace.length());
+        out.writeInt(stoplist.size());
+        for (Map.Entry<String, ArrayList<Object>> e : stoplist.entrySet()) {
+            writeString(out, e.getKey());
+            out.writeInt(e.getValue().size());
+            for (Object o : e.getValue()) {
+                if (o instanceof Hyphen) {
+                    Hyphen h = (Hyphen)o;
+                    out.writeByte(1);
+                    writeString(out, h.preBreak);
+                    writeString(out, h.noBreak);
+                    writeString(out, h.postBreak);
+                } else {
+                    out.writeByte(0);
+                    writeString(out, (String)o);
+                }
+            }
+        }
+    }
+
+    private static void writeTree(DataOutputStream out, TernaryTree tree) throws IOException {
+        out.writeChar(tree.root);
+        out.writeChar(tree.freenode);
+        out.writeInt(tree.length);
+        writeChars(out, tree.lo, tree.lo.length);
+        writeChars(out, tree.hi, tree.hi.length);
+        writeChars(out, tree.eq, tree.eq.length);
+        writeChars(out, tree.sc, tree.sc.length);
+        writeChars(out, tree.kv.getArray(), tree.kv.length());
+    }
+
+    private static void readTree(ByteBuffer buf, TernaryTree tree) {
+        tree.root = buf.getChar();
+        tree.freenode = buf.getChar();
+        tree.length = buf.getInt();
+        tree.lo = readChars(buf);
+        tree.hi = readChars(buf);
+        tree.eq = readChars(buf);
+        tree.sc = readChars(buf);
+        tree.kv = new CharVector(readChars(buf));
+    }
+
+    private static void writeChars(DataOutputStream out, char[] chars, int length) throws IOException {
+        out.writeInt(length);
+        for (int i = 0; i < length; i++) {
+            out.writeChar(chars[i]);
+        }
+    }
+
+    private static char[] readChars(ByteBuffer buf) {
+        char[] chars = new char[buf.getInt()];
+        buf.asCharBuffer().get(chars);
+        buf.position(buf.position() + chars.length * 2);
+        return chars;
+    }
+
+    /** Writes a string which may be null */
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(s.length());
+            out.writeChars(s);
+        }
+    }
+
+    private static String readString(ByteBuffer buf) {
+        int length = buf.getInt();
+        if (length < 0) {
+            return null;
+        }
+        char[] chars = new char[length];
+        buf.asCharBuffer().get(chars);
+        buf.position(buf.position() + length * 2);
+        return new String(chars);
+    }
+
+    /**
+     * Fills classTable from classmap, so that hyphenate does not walk
+     * the tree for every character.
+     */
+    private void buildClassTable() {
+        classTable = null;
+        int min = Character.MAX_VALUE + 1;
+        int max = -1;
+        for (Enumeration<String> e = classmap.keys(); e.hasMoreElements();) {
+            String key = e.nextElement();
+            if (key.length() != 1) {
+                return;
+            }
+            min = Math.min(min, key.charAt(0));
+            max = Math.max(max, key.charAt(0));
+        }
+        if (max < 0) {
+            return;
+        }
+        char[] table = new char[max - min + 1];
+        char[] c = new char[2];
+        for (int i = 0; i < table.length; i++) {
+            c[0] = (char)(min + i);
+            int nc = classmap.find(c, 0);
+            if (nc > 0) {
+                table[i] = (char)nc;
+            }
+        }
+        classBase = min;
+        classTable = table;
+    }
+
+    /**
+     * @return the character class of ch or -1 if ch is not a letter
+     */
+    private int findClass(char ch, char[] c) {
+        char[] table = classTable;
+        if (table == null) {
+            c[0] = ch;
+            return classmap.find(c, 0);
+        }
+        int i = ch - classBase;
+        return i >= 0 && i < table.length && table[i] != 0 ? table[i] : -1;
     }
 
 
@@ -192,7 +395,6 @@ public class HyphenationTree extends TernaryTree
      * @param il interletter values array to update
      */
     protected void searchPatterns(char[] word, int index, byte[] il) {
-        byte[] values;
         int i = index;
         char p, q;
         char sp = word[i];
@@ -201,14 +403,7 @@ public class HyphenationTree extends TernaryTree
         while (p > 0 && p < sc.length) {
             if (sc[p] == 0xFFFF) {
                 if (hstrcmp(word, i, kv.getArray(), lo[p]) == 0) {
-                    values = getValues(eq[p]);    // data pointer is in eq[]
-                    int j = index;
-                    for (byte value : values) {
-                        if (j < il.length && value > il[j]) {
-                            il[j] = value;
-                        }
-                        j++;
-                    }
+                    applyValues(eq[p], index, il);    // data pointer is in eq[]
                 }
                 return;
             }
@@ -228,14 +423,7 @@ public class HyphenationTree extends TernaryTree
                         break;
                     }
                     if (sc[q] == 0) {
-                        values = getValues(eq[q]);
-                        int j = index;
-                        for (byte value : values) {
-                            if (j < il.length && value > il[j]) {
-                                il[j] = value;
-                            }
-                            j++;
-                        }
+                        applyValues(eq[q], index, il);
                         break;
                     } else {
                         q = lo[q];
@@ -253,6 +441,33 @@ public class HyphenationTree extends TernaryTree
         }
     }
 
+    /**
+     * Raises the interletter values from index on to the values stored at
+     * k, what {@link #getValues(int)} returns, without creating the array.
+     * The values are unpacked with the same arithmetic as in getValues, the
+     * high nibble being sign extended, so the hyphenation points do not change.
+     */
+    private void applyValues(int k, int index, byte[] il) {
+        byte[] va = vspace.getArray();
+        int j = index;
+        for (int v = va[k]; v != 0; v = va[++k]) {
+            byte value = (byte)((v >>> 4) - 1);
+            if (j < il.length && value > il[j]) {
+                il[j] = value;
+            }
+            j++;
+            int low = v & 0x0f;
+            if (low == 0) {
+                break;
+            }
+            value = (byte)(low - 1);
+            if (j < il.length && value > il[j]) {
+                il[j] = value;
+            }
+            j++;
+        }
+    }
+
     /**
      * Hyphenate word and return a Hyphenation object.
      * @param word the word to be hyphenated
@@ -320,8 +535,7 @@ public class HyphenationTree extends TernaryTree
         boolean bEndOfLetters = false;
         //for (i = 1; i <= len; i++) { //VIKTORZ --
         for (i = 1; i <= origlen; i++) { //VIKTORZ ++
-            c[0] = w[offset + i - 1];
-            int nc = classmap.find(c, 0);
+            int nc = findClass(w[offset + i - 1], c);
             if (nc < 0) {    // found a non-letter character ...
                 if (i == 1 + iIgnoreAtBeginning) {
                     // ... before any letter character
@@ -349,10 +563,9 @@ public class HyphenationTree extends TernaryTree
         int k = 0;
 
         // check exception list first
-        String sw = new String(word, 1, len);
-        if (stoplist.containsKey(sw)) {
+        ArrayList<Object> hw = stoplist.isEmpty() ? null : stoplist.get(new String(word, 1, len));
+        if (hw != null) {
             // assume only simple hyphens (Hyphen.pre="-", Hyphen.post = Hyphen.no = null)
-            ArrayList<Object> hw = stoplist.get(sw);
             int j = 0;
             for (i = 0; i < hw.size(); i++) {
                 Object o = hw.get(i);
@@ -412,6 +625,7 @@ public class HyphenationTree extends TernaryTree
      * character being the normalization char.
      */
     public void addClass(String chargroup) {
+        classTable = null;
         if (chargroup.length() > 0) {
             char equivChar = chargroup.charAt(0);
             char[] key = new char[2];
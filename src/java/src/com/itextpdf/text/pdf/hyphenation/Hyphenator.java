@@ -16,10 +16,16 @@
 
 package com.itextpdf.text.pdf.hyphenation;
 
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
-import java.util.Hashtable;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.itextpdf.text.pdf.BaseFont;
 
@@ -32,13 +38,17 @@ import com.itextpdf.text.pdf.BaseFont;
 public class Hyphenator {
 
     /** TODO: Don't use statics */
-    private static Hashtable<String, HyphenationTree> hyphenTrees = new Hashtable<String, HyphenationTree>();
+    // read by every new Hyphenator, the lookups do not lock
+    private static final ConcurrentHashMap<String, HyphenationTree> hyphenTrees = new ConcurrentHashMap<String, HyphenationTree>();
 
     private HyphenationTree hyphenTree = null;
     private int remainCharCount = 2;
     private int pushCharCount = 2;
     private static final String defaultHyphLocation = "com/itextpdf/text/pdf/hyphenation/hyph/";
 
+    /** Extension of the patterns compiled by {@link #main(String[])} */
+    private static final String compiledExtension = ".hyb";
+
     /** Holds value of property hyphenDir. */
     private static String hyphenDir = "";
 
@@ -68,19 +78,22 @@ public class Hyphenator {
             key += "_" + country;
         }
             // first try to find it in the cache
-        if (hyphenTrees.containsKey(key)) {
-            return hyphenTrees.get(key);
+        HyphenationTree hTree = hyphenTrees.get(key);
+        if (hTree == null) {
+            hTree = hyphenTrees.get(lang);
         }
-        if (hyphenTrees.containsKey(lang)) {
-            return hyphenTrees.get(lang);
+        if (hTree != null) {
+            return hTree;
         }
 
-        HyphenationTree hTree = getResourceHyphenationTree(key);
+        hTree = getResourceHyphenationTree(key);
         if (hTree == null)
             hTree = getFileHyphenationTree(key);
-        // put it into the pattern cache
+        // put it into the pattern cache, a tree loaded meanwhile by another thread wins
         if (hTree != null) {
-            hyphenTrees.put(key, hTree);
+            HyphenationTree cached = hyphenTrees.putIfAbsent(key, hTree);
+            if (cached != null)
+                hTree = cached;
         }
         return hTree;
     }
@@ -91,13 +104,9 @@ public class Hyphenator {
      */
     public static HyphenationTree getResourceHyphenationTree(String key) {
         try {
-            InputStream stream = BaseFont.getResourceStream(defaultHyphLocation + key + ".xml");
-            if (stream == null && key.length() > 2)
-                stream = BaseFont.getResourceStream(defaultHyphLocation + key.substring(0, 2) + ".xml");
-            if (stream == null)
-                return null;
-            HyphenationTree hTree = new HyphenationTree();
-            hTree.loadSimplePatterns(stream);
+            HyphenationTree hTree = getNamedResourceHyphenationTree(key);
+            if (hTree == null && key.length() > 2)
+                hTree = getNamedResourceHyphenationTree(key.substring(0, 2));
             return hTree;
         }
         catch (Exception e) {
@@ -105,6 +114,33 @@ public class Hyphenator {
         }
     }
 
+    /**
+     * Loads the compiled patterns of name or, if there are none or they
+     * can't be loaded, parses the XML ones.
+     */
+    private static HyphenationTree getNamedResourceHyphenationTree(String name) throws IOException {
+        HyphenationTree hTree = new HyphenationTree();
+        InputStream stream = BaseFont.getResourceStream(defaultHyphLocation + name + compiledExtension);
+        if (stream != null) {
+            try {
+                hTree.loadCompiledPatterns(stream);
+                return hTree;
+            }
+            catch (IOException e) {
+                // corrupt or of another version
+                hTree = new HyphenationTree();
+            }
+            finally {
+                stream.close();
+            }
+        }
+        stream = BaseFont.getResourceStream(defaultHyphLocation + name + ".xml");
+        if (stream == null)
+            return null;
+        hTree.loadSimplePatterns(stream);
+        return hTree;
+    }
+
     /**
      * @param key
      * @return a hyphenation tree
@@ -113,19 +149,9 @@ public class Hyphenator {
         try {
             if (hyphenDir == null)
                 return null;
-            InputStream stream = null;
-            File hyphenFile = new File(hyphenDir, key + ".xml");
-            if (hyphenFile.canRead())
-                stream = new FileInputStream(hyphenFile);
-            if (stream == null && key.length() > 2) {
-                hyphenFile = new File(hyphenDir, key.substring(0, 2) + ".xml");
-                if (hyphenFile.canRead())
-                    stream = new FileInputStream(hyphenFile);
-            }
-            if (stream == null)
-                return null;
-            HyphenationTree hTree = new HyphenationTree();
-            hTree.loadSimplePatterns(stream);
+            HyphenationTree hTree = getNamedFileHyphenationTree(key);
+            if (hTree == null && key.length() > 2)
+                hTree = getNamedFileHyphenationTree(key.substring(0, 2));
             return hTree;
         }
         catch (Exception e) {
@@ -133,6 +159,41 @@ public class Hyphenator {
         }
     }
 
+    /**
+     * Loads the compiled patterns of name from a memory mapped file or,
+     * if there are none or they can't be loaded, parses the XML ones.
+     */
+    private static HyphenationTree getNamedFileHyphenationTree(String name) throws IOException {
+        HyphenationTree hTree = new HyphenationTree();
+        File hyphenFile = new File(hyphenDir, name + compiledExtension);
+        if (hyphenFile.canRead()) {
+            FileInputStream stream = new FileInputStream(hyphenFile);
+            try {
+                FileChannel channel = stream.getChannel();
+                hTree.loadCompiledPatterns(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+                return hTree;
+            }
+            catch (IOException e) {
+                // corrupt or of another version
+                hTree = new HyphenationTree();
+            }
+            finally {
+                stream.close();
+            }
+        }
+        hyphenFile = new File(hyphenDir, name + ".xml");
+        if (!hyphenFile.canRead())
+            return null;
+        InputStream stream = new FileInputStream(hyphenFile);
+        try {
+            hTree.loadSimplePatterns(stream);
+        }
+        finally {
+            stream.close();
+        }
+        return hTree;
+    }
+
     /**
      * @param lang
      * @param country
@@ -236,4 +297,46 @@ public class Hyphenator {
         hyphenDir = _hyphenDir;
     }
 
+    /**
+     * Compiles the XML patterns of a directory, the build runs it on the
+     * patterns of itext-hyph-xml.jar. The compiled patterns are loaded in
+     * place of the XML ones with the same name.
+     * @param args the directory of the XML patterns and the output directory
+     * @throws IOException on error
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: Hyphenator <xml patterns dir> <output dir>");
+            System.exit(1);
+        }
+        File[] files = new File(args[0]).listFiles();
+        if (files == null)
+            throw new IOException("Cannot list " + args[0]);
+        Arrays.sort(files);
+        File outDir = new File(args[1]);
+        outDir.mkdirs();
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.endsWith(".xml"))
+                continue;
+            HyphenationTree hTree = new HyphenationTree();
+            InputStream stream = new FileInputStream(file);
+            try {
+                hTree.loadSimplePatterns(stream);
+            }
+            finally {
+                stream.close();
+            }
+            File compiled = new File(outDir, name.substring(0, name.length() - 4) + compiledExtension);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(compiled)));
+            try {
+                hTree.writeCompiledPatterns(out);
+            }
+            finally {
+                out.close();
+            }
+            System.out.println(name + " -> " + compiled.getName() + ", " + compiled.length() + " bytes");
+        }
+    }
+
 }
@@ -0,0 +1,126 @@
+package com.itextpdf.text.pdf.hyphenation;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.itextpdf.text.pdf.BaseFont;
+
+public class HyphenatorTest {
+
+    private static final String[] WORDS = {
+        "\u0434\u043e\u0441\u0442\u043e\u043f\u0440\u0438\u043c\u0435\u0447\u0430\u0442\u0435\u043b\u044c\u043d\u043e\u0441\u0442\u044c",
+        "\u044d\u043b\u0435\u043a\u0442\u0440\u0438\u0447\u0435\u0441\u0442\u0432\u043e",
+        "\u043f\u0435\u0440\u0435\u0432\u043e\u0440\u0430\u0447\u0438\u0432\u0430\u044e\u0449\u0438\u0439\u0441\u044f",
+        "\u043c\u0438\u0440"
+    };
+
+    private File dir;
+    private String oldHyphenDir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("hyph", "");
+        dir.delete();
+        assertTrue(dir.mkdir());
+        oldHyphenDir = Hyphenator.getHyphenDir();
+        Hyphenator.setHyphenDir(dir.getPath());
+    }
+
+    @After
+    public void tearDown() {
+        Hyphenator.setHyphenDir(oldHyphenDir);
+        for (File file : dir.listFiles())
+            file.delete();
+        dir.delete();
+    }
+
+    private static HyphenationTree loadXml() throws IOException {
+        HyphenationTree hTree = new HyphenationTree();
+        InputStream stream = BaseFont.getResourceStream("com/itextpdf/text/pdf/hyphenation/hyph/ru.xml");
+        assertNotNull(stream);
+        try {
+            hTree.loadSimplePatterns(stream);
+        }
+        finally {
+            stream.close();
+        }
+        return hTree;
+    }
+
+    private void copyXml() throws IOException {
+        InputStream in = BaseFont.getResourceStream("com/itextpdf/text/pdf/hyphenation/hyph/ru.xml");
+        OutputStream out = new FileOutputStream(new File(dir, "ru.xml"));
+        try {
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = in.read(buf)) >= 0)
+                out.write(buf, 0, n);
+        }
+        finally {
+            out.close();
+            in.close();
+        }
+    }
+
+    private static void assertSameHyphenation(HyphenationTree expected, HyphenationTree actual) {
+        assertNotNull(actual);
+        for (String word : WORDS) {
+            assertEquals(word, String.valueOf(expected.hyphenate(word, 2, 2)),
+                    String.valueOf(actual.hyphenate(word, 2, 2)));
+        }
+    }
+
+    @Test
+    public void testCompiledRoundTrip() throws IOException {
+        HyphenationTree xml = loadXml();
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(new File(dir, "ru.hyb"))));
+        try {
+            xml.writeCompiledPatterns(out);
+        }
+        finally {
+            out.close();
+        }
+        assertEquals("\u044d\u043b\u0435\u043a-\u0442\u0440\u0438-\u0447\u0435-\u0441\u0442\u0432\u043e",
+                xml.hyphenate(WORDS[1], 2, 2).toString());
+        assertSameHyphenation(xml, Hyphenator.getFileHyphenationTree("ru"));
+    }
+
+    @Test
+    public void testCorruptCompiledFallsBackToXml() throws IOException {
+        copyXml();
+        OutputStream out = new FileOutputStream(new File(dir, "ru.hyb"));
+        try {
+            // the version of the format and then the tree cut short
+            out.write(new byte[] { 0x48, 0x59, 0x42, 0x01, 0, 0, 0x10 });
+        }
+        finally {
+            out.close();
+        }
+        assertSameHyphenation(loadXml(), Hyphenator.getFileHyphenationTree("ru"));
+    }
+
+    @Test
+    public void testOldCompiledFallsBackToXml() throws IOException {
+        copyXml();
+        OutputStream out = new FileOutputStream(new File(dir, "ru.hyb"));
+        try {
+            out.write(new byte[] { 0x48, 0x59, 0x42, 0x00, 0, 0, 0, 0 });
+        }
+        finally {
+            out.close();
+        }
+        assertSameHyphenation(loadXml(), Hyphenator.getFileHyphenationTree("ru"));
+    }
+}
@@ -5,6 +5,9 @@
 package org.trivee.fb2pdf;
 
 import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Vector;
 import java.util.regex.Pattern;
 import org.apache.commons.cli.*;
@@ -24,7 +27,9 @@ public class CLIDriver {
             + "\n\n\tfb2pdf \"c:\\My Books\""
             + "\n\n\tfb2pdf test.fb2 mybook.pdf"
             + "\n\n\tfb2pdf -s data\\myStylePart1.json -s data\\myStylePart2.json test.fb2"
-            + "\n\n\tfb2pdf -l my_log.txt -e cp866 test.fb2";
+            + "\n\n\tfb2pdf -l my_log.txt -e cp866 test.fb2"
+            + "\n\n\tfb2pdf -m series.pdf -j 4 book1.fb2 book2.fb2 \"c:\\My Series\""
+            + "\n\n\tfb2pdf -g data\\kindle.json -g data\\sony.json test.fb2";
     private static int succeeded = 0;
     private static int failed = 0;
     private static CommandLine cl;
@@ -84,6 +89,24 @@ public class CLIDriver {
                 .withDescription("90, 180 or 270")
                 .create("rt"));
         options.addOption("x", "experiment", true, "Enable experimental features");
+        options.addOption(OptionBuilder
+                .withLongOpt("merge")
+                .hasArg()
+                .withArgName("PATH")
+                .withDescription("Merge all input files into one pdf")
+                .create('m'));
+        options.addOption(OptionBuilder
+                .withLongOpt("threads")
+                .hasArg()
+                .withArgName("N")
+                .withDescription("Number of books to read in parallel when merging, or of targets to render in parallel (default is 1)")
+                .create('j'));
+        options.addOption(OptionBuilder
+                .withLongOpt("target")
+                .hasArg()
+                .withArgName("PATH")
+                .withDescription("Stylesheet of a target, the book is read once and rendered to <output>.<stylesheet name>.pdf for each target")
+                .create('g'));
 
         cl = new PosixParser().parse(options, args);
 
@@ -94,7 +117,7 @@ public class CLIDriver {
             return;
         }
 
-        if (cl.getArgs().length < 1 || cl.getArgs().length > 2) {
+        if (cl.getArgs().length < 1 || cl.getArgs().length > 2 && !cl.hasOption('m')) {
             printNameVersion();
             formatter.printHelp(hlpText, options);
             return;
@@ -118,6 +141,12 @@ public class CLIDriver {
                     "Unknown encoding: %s, will use the default one.", logEncoding));
         }
 
+        if (cl.hasOption('m')) {
+            merge(cl.getArgs(), cl.getOptionValue('m'), stylesheetNames);
+            println(String.format("\nResults: succeeded: %s, failed: %s", succeeded, failed));
+            return;
+        }
+
         String fb2name = cl.getArgs()[0].replaceAll("\"", "");
         File fb2file = new File(fb2name);
 
@@ -151,6 +180,61 @@ public class CLIDriver {
         return srcName + ".pdf";
     }
 
+    /**
+     * Merges the books in the order given, a directory stands for the books
+     * in it sorted by name.
+     */
+    private static void merge(String[] names, String pdfname, String[] stylesheetNames) throws FileNotFoundException, UnsupportedEncodingException {
+        List<String> fb2names = new ArrayList<String>();
+        for (String name : names) {
+            File file = new File(name.replaceAll("\"", ""));
+            if (file.isDirectory()) {
+                File[] files = file.listFiles(new FileFilter() {
+                    @Override
+                    public boolean accept(File pathname) {
+                        return pathname.isFile()
+                                && (pathname.getPath().endsWith(".fb2") || pathname.getPath().endsWith(".fb2.zip"));
+                    }
+                });
+                Arrays.sort(files);
+                for (File f : files) {
+                    fb2names.add(f.getAbsolutePath());
+                }
+            } else if (file.exists()) {
+                fb2names.add(file.getPath());
+            } else {
+                println(String.format("Input file or directory %s not found.", file.getPath()));
+                return;
+            }
+        }
+        if (fb2names.isEmpty()) {
+            println("No books to merge.");
+            return;
+        }
+        int threads = cl.hasOption('j') ? Integer.parseInt(cl.getOptionValue('j')) : 1;
+
+        println(String.format("Merging %s books...\n", fb2names.size()));
+
+        PrintStream saveOut = System.out;
+        boolean createLog = setupLog(pdfname);
+        try {
+            if (!cl.hasOption("o")) {
+                pdfname = getNonExistingFileName(pdfname);
+            }
+            FB2toPDF.merge(fb2names, pdfname, openStylesheet(stylesheetNames), Math.max(threads, 1));
+            println(String.format("Success: %s\n", pdfname));
+            succeeded++;
+        } catch (Exception ex) {
+            println(String.format("Failed:  %s \n", pdfname));
+            Log.error(ex.toString());
+            failed++;
+        } finally {
+            if (createLog) {
+                System.setOut(saveOut);
+            }
+        }
+    }
+
     private static void processDirectory(File inputDir, String outputPath, String[] stylesheetNames) throws FileNotFoundException, UnsupportedEncodingException {
         File outDir = new File(outputPath);
         if (outDir.exists() && !outDir.isDirectory()) {
@@ -189,17 +273,20 @@ public class CLIDriver {
         }
     }
 
-    private static void translate(String fb2name, String pdfname, String[] stylesheetNames) throws FileNotFoundException, UnsupportedEncodingException {
-
+    private static InputStream openStylesheet(String[] stylesheetNames) throws FileNotFoundException {
         Vector<FileInputStream> streams = new Vector<FileInputStream>(stylesheetNames.length);
         for (String name : stylesheetNames) {
             FileInputStream stream = new FileInputStream(name);
             streams.add(stream);
         }
-        SequenceInputStream stylesheet = new SequenceInputStream(streams.elements());
-
-        PrintStream saveOut = System.out;
+        return new SequenceInputStream(streams.elements());
+    }
 
+    /**
+     * Sets up the log for the conversion to pdfname as the options say.
+     * @return true if the log was created
+     */
+    private static boolean setupLog(String pdfname) throws FileNotFoundException {
         // logging is on by default
         boolean createLog = true;
         String logFileName = null;
@@ -231,19 +318,41 @@ public class CLIDriver {
                 println("Can't setup logger: " + ex.getMessage());
             }
         }
+        return createLog;
+    }
+
+    private static void translate(String fb2name, String pdfname, String[] stylesheetNames) throws FileNotFoundException, UnsupportedEncodingException {
+
+        PrintStream saveOut = System.out;
+        boolean createLog = setupLog(pdfname);
 
         try {
-            if (!cl.hasOption("o")) {
-                pdfname = getNonExistingFileName(pdfname);
-            }
-            FB2toPDF.translate(fb2name, pdfname, stylesheet);
-            println(String.format("Success: %s\n", pdfname));
-            succeeded++;
-            if (cl.hasOption("t")) {
-                TwoUp.execute(pdfname, pdfname + ".booklet.pdf");
+            List<String> pdfnames = new ArrayList<String>();
+            if (cl.hasOption('g')) {
+                List<InputStream> stylesheets = new ArrayList<InputStream>();
+                for (String target : cl.getOptionValues('g')) {
+                    String name = String.format("%s.%s.pdf", FilenameUtils.removeExtension(pdfname), FilenameUtils.getBaseName(target));
+                    pdfnames.add(cl.hasOption("o") ? name : getNonExistingFileName(name));
+                    stylesheets.add(new FileInputStream(target));
+                }
+                int threads = cl.hasOption('j') ? Integer.parseInt(cl.getOptionValue('j')) : 1;
+                FB2toPDF.translate(fb2name, pdfnames, stylesheets, threads);
+            } else {
+                if (!cl.hasOption("o")) {
+                    pdfname = getNonExistingFileName(pdfname);
+                }
+                FB2toPDF.translate(fb2name, pdfname, openStylesheet(stylesheetNames));
+                pdfnames.add(pdfname);
             }
-            if (cl.hasOption("rt")) {
-                Rotate.execute(pdfname, pdfname + ".rotated.pdf", cl.getOptionValue("rt"));
+            for (String name : pdfnames) {
+                println(String.format("Success: %s\n", name));
+                succeeded++;
+                if (cl.hasOption("t")) {
+                    TwoUp.execute(name, name + ".booklet.pdf");
+                }
+                if (cl.hasOption("rt")) {
+                    Rotate.execute(name, name + ".rotated.pdf", cl.getOptionValue("rt"));
+                }
             }
         } catch (Exception ex) {
             println(String.format("Failed:  %s \n", fb2name));
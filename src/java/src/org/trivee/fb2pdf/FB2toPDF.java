@@ -10,9 +10,17 @@ import java.io.*;
 import java.net.MalformedURLException;
 import java.util.List;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
 import nu.xom.Element;
 import nu.xom.*;
 import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.tools.zip.ZipEntry;
 import org.apache.tools.zip.ZipFile;
@@ -22,6 +30,10 @@ public class FB2toPDF {
     private static final String NS_XLINK = "http://www.w3.org/1999/xlink";
     private static final String NS_FB2 = "http://www.gribuser.ru/xml/fictionbook/2.0";
     private static final XPathContext xCtx = new XPathContext("fb", NS_FB2);
+    /** An author name query listing child elements, like (first-name, middle-name, last-name) */
+    private static final Pattern CHILD_LIST_QUERY = Pattern.compile("\\(\\s*[\\w-]+(\\s*,\\s*[\\w-]+)*\\s*\\)");
+    /** A selector of elements by the names of their ancestors only, like //poem/title */
+    private static final Pattern PATH_SELECTOR = Pattern.compile("//[\\w-]+(/[\\w-]+)*");
     private String fromName;
     private String toName;
     private nu.xom.Document fb2;
@@ -58,6 +70,14 @@ public class FB2toPDF {
     private HeaderHelper headerHelperEven = null;
     private String chapterTitle = "";
     private BackgroundImageHelper backgroundImageHelper;
+    private boolean streaming;
+    private int sectionCounter;
+    private File binarySpoolFile;
+    private RandomAccessFile binarySpool;
+    private boolean merging;
+    private Map<String, Image> sharedImages;
+    private List<String> mergedTitles = new ArrayList<String>();
+    private Set<String> mergedAuthors = new LinkedHashSet<String>();
         
     private FB2toPDF(String fromName, String toName) {
         this.fromName = fromName;
@@ -84,7 +104,7 @@ public class FB2toPDF {
             if (isBlank(ref)) {
                 ref = String.format("section%d", section.hashCode());
             }
-            addGoToActionToChunk(ref, chunk);
+            addGoToActionToChunk(passNamePrefix + ref, chunk);
             currentParagraph = currentStyle.createParagraph();
             
             currentParagraph.setIndentationLeft(currentParagraph.getIndentationLeft() + extraIndent);
@@ -223,20 +243,73 @@ public class FB2toPDF {
     }
 
     private void applyXPathStyles() throws RuntimeException, IOException {
+        applyXPathStyles(fb2);
+        XQueryUtilities.outputDebugInfo(fb2, stylesheet.getTransformationSettings(), "styling-result.xml");
+    }
+
+    private void applyXPathStyles(nu.xom.Document target) throws RuntimeException {
         String prolog = XQueryUtilities.defaultProlog;
         String morpher = prolog + "(., attribute {'fb2pdf-style'} {'%s'})";
         for (ParagraphStyle style : stylesheet.getParagraphStyles()) {
             String xpath = style.getSelector();
             String name = style.getName();
             if (isBlank(xpath)) continue;
+            if (PATH_SELECTOR.matcher(xpath.trim()).matches()) {
+                applyPathStyle(target.getRootElement(), StringUtils.split(xpath.trim(), '/'), name);
+                continue;
+            }
                 
             try {
-                XQueryUtilities.transform(fb2, prolog + xpath + "/(* | text())[last()]", String.format(morpher, name));
+                XQueryUtilities.transform(target, prolog + xpath + "/(* | text())[last()]", String.format(morpher, name));
             } catch (Exception ex) {
                 throw new RuntimeException("Error applying styles. " + ex.getMessage());
             }
         }
-        XQueryUtilities.outputDebugInfo(fb2, stylesheet.getTransformationSettings(), "styling-result.xml");
+    }
+
+    /**
+     * Styles the elements matched by a path selector the way the query of
+     * applyXPathStyles does: an element with element or text children gets
+     * the style attribute.
+     */
+    private static void applyPathStyle(Element element, String[] path, String name) {
+        if (matchesPath(element, path)) {
+            for (int i = 0; i < element.getChildCount(); ++i) {
+                Node child = element.getChild(i);
+                if (child instanceof Element || child instanceof Text) {
+                    element.addAttribute(new Attribute("fb2pdf-style", name));
+                    break;
+                }
+            }
+        }
+        Elements children = element.getChildElements();
+        for (int i = 0; i < children.size(); ++i) {
+            applyPathStyle(children.get(i), path, name);
+        }
+    }
+
+    private static boolean matchesPath(Element element, String[] path) {
+        ParentNode node = element;
+        for (int i = path.length - 1; i >= 0; --i) {
+            if (!(node instanceof Element)) {
+                return false;
+            }
+            Element e = (Element) node;
+            if (!path[i].equals(e.getLocalName()) || !NS_FB2.equals(e.getNamespaceURI())) {
+                return false;
+            }
+            node = e.getParent();
+        }
+        return true;
+    }
+
+    private boolean hasXPathStyles() {
+        for (ParagraphStyle style : stylesheet.getParagraphStyles()) {
+            if (!isBlank(style.getSelector())) {
+                return true;
+            }
+        }
+        return false;
     }
 
     private void addFontChangeOutline(Map<Integer, Integer> pageElementMap, Map<Integer, Integer> elementPageMap, int maxPageNumLength) {
@@ -472,13 +545,18 @@ public class FB2toPDF {
         }
 
         if (stylesheet.getPageStyle().getHeader().enabled) {
-            if (isBlank(passNamePrefix)) {
+            if (headerHelperOdd == null) {
                 setupHeader();
             } else {
                 refreshHeader();
             }
         }
         
+        if (streaming) {
+            renderBodiesStreaming();
+            return;
+        }
+
         for (int i = 0; i < bodies.size(); ++i) {
             body = (Element) bodies.get(i);
             bodyIndex = i;
@@ -511,7 +589,9 @@ public class FB2toPDF {
         Chunk chunk = new Chunk(templateImage, 0, 0, false);
         chunk.setFont(currentStyle.getFont());
         currentParagraph.add(chunk);
-        linkPageNumTemplates.put(currentReference, new LinkPageNumTemplate(template, currentStyle, format));
+        // keyed like the anchors, with the prefix of the pass or book
+        String reference = "#" + passNamePrefix + currentReference.substring(1);
+        linkPageNumTemplates.put(reference, new LinkPageNumTemplate(template, currentStyle, format));
     }
 
     private void rescaleImage(Image image) throws FB2toPDFException {
@@ -882,29 +962,284 @@ public class FB2toPDF {
     }
 
     private void readFB2()
-            throws IOException, FileNotFoundException {
-        
-        InputStream is = null;
+            throws IOException, FileNotFoundException, FB2toPDFException {
+
+        InputStream is = openFB2();
+
+        try {
+            fb2 = new Builder(false).build(is);
+        } catch (ParsingException e) {
+            System.err.println("XML parsing error at line " + e.getLineNumber() + "#" + e.getColumnNumber() + ": " + e.getMessage());
+        } finally {
+            is.close();
+        }
+    }
+
+    /**
+     * Opens the book or the first entry of a zip, closing the stream closes
+     * the zip file.
+     */
+    private InputStream openFB2()
+            throws IOException, FileNotFoundException, FB2toPDFException {
+
         if (fromName.toLowerCase().endsWith(".fb2")) {
-            is = new FileInputStream(new File(fromName));
+            return new FileInputStream(new File(fromName));
         } else if (fromName.toLowerCase().endsWith(".zip")) {
-            ZipFile fromZip = new ZipFile(fromName);
-            ZipEntry entry = (ZipEntry) fromZip.getEntries().nextElement();
-            if (entry.getName().toLowerCase().endsWith(".fb2")) {
-                is = fromZip.getInputStream(entry);
-            } else {
-                System.err.println("First archive entry " + entry.getName() + " is not an FB2 file.");
-                System.exit(-1);
+            final ZipFile fromZip = new ZipFile(fromName);
+            Enumeration<?> entries = fromZip.getEntries();
+            ZipEntry entry = entries.hasMoreElements() ? (ZipEntry) entries.nextElement() : null;
+            if (entry == null || !entry.getName().toLowerCase().endsWith(".fb2")) {
+                fromZip.close();
+                throw new FB2toPDFException("First archive entry " + (entry == null ? "" : entry.getName() + " ") + "is not an FB2 file.");
             }
-        } else {
-            System.err.println("Unrecognized file extension: " + fromName + ", only FB2 or ZIP supported.");
-            System.exit(-1);
+            return new FilterInputStream(fromZip.getInputStream(entry)) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        fromZip.close();
+                    }
+                }
+            };
+        }
+        throw new FB2toPDFException("Unrecognized file extension: " + fromName + ", only FB2 or ZIP supported.");
+    }
+
+    /**
+     * Streaming render keeps only a skeleton of the book in memory: the
+     * description, the named (notes) bodies, and the section/title tree of
+     * the main bodies needed for the TOC. Binaries are decoded into a
+     * temporary spool file. Body content is then rendered from a second
+     * parse, one top-level section at a time, and released once laid out.
+     *
+     * Paragraph style selectors are applied to each top-level section while
+     * it is the only body content in memory, so a selector can not match
+     * across sections. Stylesheets that need the whole document fall back to
+     * the in-memory path: XQuery transformations and a custom bodiesToRender
+     * query.
+     */
+    private boolean canRenderStreaming() {
+        if (stylesheet.getTransformationSettings().enabled) {
+            Log.warning("Streaming render is not available with transformations, using in-memory render");
+            return false;
+        }
+        if (!GeneralSettings.ALL_BODIES.equals(settings().bodiesToRender.trim())) {
+            Log.warning("Streaming render is not available with bodiesToRender [{0}], using in-memory render", settings().bodiesToRender);
+            return false;
+        }
+        return true;
+    }
+
+    private void readFB2Skeleton()
+            throws IOException, FileNotFoundException, FB2toPDFException {
+        binarySpoolFile = File.createTempFile("fb2pdf", ".bin");
+        binarySpool = new RandomAccessFile(binarySpoolFile, "rw");
+        sectionCounter = 0;
+
+        InputStream is = openFB2();
+        try {
+            fb2 = new Builder(false, new SkeletonNodeFactory()).build(is);
+        } catch (ParsingException e) {
+            System.err.println("XML parsing error at line " + e.getLineNumber() + "#" + e.getColumnNumber() + ": " + e.getMessage());
+        } finally {
+            is.close();
         }
+    }
 
+    private void renderBodiesStreaming()
+            throws IOException, DocumentException, FB2toPDFException {
+        sectionCounter = 0;
+        bodyIndex = -1;
+
+        InputStream is = openFB2();
         try {
-            fb2 = new Builder(false).build(is);
+            new Builder(false, new StreamingBodyNodeFactory()).build(is);
         } catch (ParsingException e) {
-            System.err.println("XML parsing error at line " + e.getLineNumber() + "#" + e.getColumnNumber() + ": " + e.getMessage());
+            if (e.getCause() instanceof StreamingRenderException) {
+                rethrowStreamingRenderException((StreamingRenderException) e.getCause());
+            }
+            throw new FB2toPDFException("XML parsing error at line " + e.getLineNumber() + "#" + e.getColumnNumber() + ": " + e.getMessage());
+        } catch (StreamingRenderException e) {
+            rethrowStreamingRenderException(e);
+        } finally {
+            is.close();
+        }
+    }
+
+    private static void rethrowStreamingRenderException(StreamingRenderException e)
+            throws IOException, DocumentException, FB2toPDFException {
+        Throwable cause = e.getCause();
+        if (cause instanceof DocumentException) {
+            throw (DocumentException) cause;
+        } else if (cause instanceof FB2toPDFException) {
+            throw (FB2toPDFException) cause;
+        } else if (cause instanceof IOException) {
+            throw (IOException) cause;
+        }
+        throw e;
+    }
+
+    private void closeBinarySpool() throws IOException {
+        if (binarySpool != null) {
+            binarySpool.close();
+            binarySpool = null;
+        }
+        if (binarySpoolFile != null) {
+            binarySpoolFile.delete();
+            binarySpoolFile = null;
+        }
+    }
+
+    private void spoolBinary(Element binary) throws IOException {
+        byte[] data = Base64.decodeBase64(binary.getValue().getBytes());
+        long offset = binarySpool.length();
+        binarySpool.seek(offset);
+        binarySpool.write(data);
+        attachments.add(new BinaryAttachment(binary.getAttributeValue("id"),
+                binary.getAttributeValue("content-type"), binarySpool, offset, data.length));
+    }
+
+    /**
+     * Both streaming passes see sections in the same document order, so ids
+     * generated for anonymous sections match between the TOC and the body.
+     */
+    private void assignSectionId(Element element) {
+        if (element.getLocalName().equals("section") && isBlank(element.getAttributeValue("id"))) {
+            sectionCounter++;
+            element.addAttribute(new nu.xom.Attribute("id", "fb2pdf-section" + sectionCounter));
+        }
+    }
+
+    private static Element getEnclosingBody(Element element) {
+        ParentNode parent = element;
+        while (parent instanceof Element) {
+            Element current = (Element) parent;
+            if (current.getLocalName().equals("body")) {
+                return current;
+            }
+            parent = current.getParent();
+        }
+        return null;
+    }
+
+    @SuppressWarnings("serial")
+    private static class StreamingRenderException extends RuntimeException {
+        public StreamingRenderException(Throwable cause) {
+            super(cause);
+        }
+    }
+
+    /**
+     * First streaming pass: builds the book skeleton and spools binaries.
+     */
+    private class SkeletonNodeFactory extends NodeFactory {
+
+        @Override
+        public Nodes finishMakingElement(Element element) {
+            assignSectionId(element);
+            if (!(element.getParent() instanceof Element)) {
+                return super.finishMakingElement(element);
+            }
+
+            Element parent = (Element) element.getParent();
+            String name = element.getLocalName();
+            if (name.equals("binary") && !(parent.getParent() instanceof Element)) {
+                try {
+                    spoolBinary(element);
+                } catch (IOException ex) {
+                    throw new StreamingRenderException(ex);
+                }
+                return new Nodes();
+            }
+
+            if (name.equals("section") || name.equals("title")) {
+                return super.finishMakingElement(element);
+            }
+
+            String parentName = parent.getLocalName();
+            if (parentName.equals("body") || parentName.equals("section")) {
+                Element body = getEnclosingBody(parent);
+                if (body != null && isBlank(body.getAttributeValue("name"))) {
+                    return new Nodes();
+                }
+            }
+            return super.finishMakingElement(element);
+        }
+    }
+
+    /**
+     * Second streaming pass: renders each direct child of a body as soon as
+     * it is parsed and drops it, along with the description and binaries
+     * which are already available from the skeleton.
+     */
+    private class StreamingBodyNodeFactory extends NodeFactory {
+
+        private int depth;
+        private int skipTextDepth;
+        private int subsectionIndex;
+        private boolean applyStyles = hasXPathStyles();
+
+        @Override
+        public Element startMakingElement(String name, String namespace) {
+            Element element = super.startMakingElement(name, namespace);
+            depth++;
+            if (depth == 2) {
+                String localName = element.getLocalName();
+                if (localName.equals("binary") || localName.equals("description")) {
+                    skipTextDepth = depth;
+                } else if (localName.equals("body")) {
+                    bodyIndex++;
+                    subsectionIndex = 0;
+                    try {
+                        beginBody();
+                    } catch (Exception ex) {
+                        throw new StreamingRenderException(ex);
+                    }
+                }
+            }
+            return element;
+        }
+
+        @Override
+        public Nodes makeText(String data) {
+            if (skipTextDepth > 0 || depth == 2) {
+                return new Nodes();
+            }
+            return super.makeText(data);
+        }
+
+        @Override
+        public Nodes finishMakingElement(Element element) {
+            assignSectionId(element);
+            int level = depth--;
+            if (level == skipTextDepth) {
+                skipTextDepth = 0;
+            }
+
+            try {
+                ParentNode parent = element.getParent();
+                if (level == 3 && ((Element) parent).getLocalName().equals("body")) {
+                    if (applyStyles) {
+                        // a style morpher may replace the element, so look it up again
+                        applyXPathStyles(element.getDocument());
+                        element = (Element) parent.getChild(parent.getChildCount() - 1);
+                    }
+                    if (processBodyChild(element, subsectionIndex)) {
+                        subsectionIndex++;
+                    }
+                    return new Nodes();
+                } else if (level == 2) {
+                    if (element.getLocalName().equals("body")) {
+                        currentStyle = null;
+                        newPage();
+                    }
+                    return new Nodes();
+                }
+            } catch (Exception ex) {
+                throw new StreamingRenderException(ex);
+            }
+            return super.finishMakingElement(element);
         }
     }
 
@@ -1001,6 +1336,8 @@ public class FB2toPDF {
         PdfDocument.preventWidows = pageStyle.preventWidows;
         PdfDocument.maxFootnoteLines = pageStyle.footnotesMaxLines;
         PdfDocument.hangingPunctuation = settings().hangingPunctuation;
+        writer.setLtrFastPath(settings().ltrFastPath);
+        writer.setStateElision(settings().stateElision);
         doc.setMarginMirroring(pageStyle.getMarginMirroring());
     }
 
@@ -1019,6 +1356,50 @@ public class FB2toPDF {
         }
 
         doc.close();
+        if (settings().stateElision) {
+            Log.info("Elided [{0}] bytes of redundant text state", writer.getContentBytesSaved());
+        }
+        closeBinarySpool();
+        if (settings().linearize) {
+            linearizePDF();
+        }
+    }
+
+    /**
+     * Rewrites toName for fast web view, the first page can be shown
+     * before the rest of the file is downloaded.
+     */
+    private void linearizePDF() throws IOException {
+        File pdf = new File(toName).getAbsoluteFile();
+        File linearized = File.createTempFile("fb2pdf", ".pdf", pdf.getParentFile());
+        boolean written = false;
+        try {
+            // partial mode on a mapped file, the objects are read when they are written
+            PdfReader reader = new PdfReader(new RandomAccessFileOrArray(pdf.getPath(), false, false), null);
+            OutputStream os = new BufferedOutputStream(new FileOutputStream(linearized));
+            try {
+                new PdfLinearizer(reader).write(os);
+            } finally {
+                os.close();
+                reader.close();
+            }
+            written = true;
+            // renaming over a file fails on some systems, then the original goes first
+            if (!linearized.renameTo(pdf)) {
+                if (!pdf.delete()) {
+                    throw new IOException("Cannot replace " + pdf + " with the linearized document, the original is kept");
+                }
+                if (!linearized.renameTo(pdf)) {
+                    throw new IOException("Cannot rename " + linearized + " to " + pdf + ", the linearized document is " + linearized);
+                }
+            }
+            Log.info("Linearized [{0}]", toName);
+        } finally {
+            // the only copy is kept when the original is gone
+            if (!written || pdf.exists()) {
+                linearized.delete();
+            }
+        }
     }
 
     private static Element getOptionalChildByTagName(Element element, String tagName)
@@ -1107,32 +1488,23 @@ public class FB2toPDF {
             throws IOException, DocumentException, FB2toPDFException {
 
         loadData(stylesheetInputStream);
-        readFB2();
-        applyTransformations();
-        applyXPathStyles();
-        createPDFDoc();
-
-        nu.xom.Element root = fb2.getRootElement();
-        if (!root.getLocalName().equals("FictionBook")) {
-            throw new FB2toPDFException("The file does not seems to contain 'fictionbook' root element");
-        }
-
-
-        extractBinaries(root);
-
-        //bodies = root.getChildElements("body", NS_FB2);
-        String query = settings().bodiesToRender;
         try {
-            bodies = XQueryUtilities.getNodes(XQueryUtilities.defaultProlog + query, fb2);
-        } catch (Exception ex) {
-            throw new FB2toPDFException(ex.toString());
-        }
-        if (bodies.size() == 0) {
-            throw new FB2toPDFException(String.format("Body elements not found for query '%s'", query));
+            readBook();
+            renderPDF();
+        } finally {
+            // left by a failed render
+            closeBinarySpool();
         }
+    }
 
+    /**
+     * Renders the book read by {@link #readBook()} to toName.
+     */
+    private void renderPDF()
+            throws IOException, DocumentException, FB2toPDFException {
+        createPDFDoc();
 
-        Element description = getOptionalChildByTagName(root, "description");
+        Element description = getOptionalChildByTagName(fb2.getRootElement(), "description");
         if (description != null) {
             addMetaInfo(description);
         } else {
@@ -1187,6 +1559,342 @@ public class FB2toPDF {
 
         closePDF();
     }
+
+    /**
+     * Reads the book and finds the bodies to render, the part of the work
+     * which does not need the document. Merge mode runs it on a pool thread,
+     * so it may only read the stylesheet.
+     */
+    private void readBook()
+            throws IOException, FB2toPDFException {
+        streaming = settings().streamingRender && canRenderStreaming();
+        if (streaming) {
+            Log.info("Using streaming render");
+            readFB2Skeleton();
+        } else {
+            readFB2();
+        }
+        applyTransformations();
+        applyXPathStyles();
+        findBodies();
+    }
+
+    private void findBodies()
+            throws FB2toPDFException {
+        nu.xom.Element root = fb2.getRootElement();
+        if (!root.getLocalName().equals("FictionBook")) {
+            throw new FB2toPDFException("The file does not seems to contain 'fictionbook' root element");
+        }
+
+
+        extractBinaries(root);
+
+        //bodies = root.getChildElements("body", NS_FB2);
+        String query = settings().bodiesToRender;
+        // the default query is answered without starting the XQuery engine
+        if (streaming || GeneralSettings.ALL_BODIES.equals(query.trim())) {
+            bodies = new Nodes();
+            Elements skeletonBodies = root.getChildElements("body", NS_FB2);
+            for (int i = 0; i < skeletonBodies.size(); ++i) {
+                bodies.append(skeletonBodies.get(i));
+            }
+        } else {
+            try {
+                bodies = XQueryUtilities.getNodes(XQueryUtilities.defaultProlog + query, fb2);
+            } catch (Exception ex) {
+                throw new FB2toPDFException(ex.toString());
+            }
+        }
+        if (bodies.size() == 0) {
+            throw new FB2toPDFException(String.format("Body elements not found for query '%s'", query));
+        }
+    }
+
+    /**
+     * Renders several books into one document. The fonts are embedded once
+     * for all of them, each book gets a top-level bookmark above its own
+     * outline and an image found in several books is written once. Up to
+     * threads books are read ahead on a pool while the ones before them are
+     * rendered, rendering itself goes into the one writer in book order. A
+     * book is dropped once rendered.
+     */
+    private void runMerge(List<String> fromNames, InputStream stylesheetInputStream, int threads)
+            throws IOException, DocumentException, FB2toPDFException {
+
+        loadData(stylesheetInputStream);
+        if (!isBlank(settings().secondPassStylesheet)) {
+            Log.warning("Second pass stylesheet [{0}] is ignored when merging books", settings().secondPassStylesheet);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<FB2toPDF>> books = new ArrayList<Future<FB2toPDF>>();
+        try {
+            for (int i = 0; i < threads && i < fromNames.size(); ++i) {
+                books.add(submitRead(executor, fromNames.get(i)));
+            }
+
+            createPDFDoc();
+            doc.open();
+            currentOutline.put(0, writer.getDirectContent().getRootOutline());
+
+            if (stylesheet.getPageStyle().footnotes) {
+                FootnoteRenderer.init(stylesheet);
+            }
+
+            merging = true;
+            sharedImages = new HashMap<String, Image>();
+            for (int i = 0; i < fromNames.size(); ++i) {
+                FB2toPDF book = getResult(books.get(i));
+                // the window of books read ahead moves on
+                if (books.size() < fromNames.size()) {
+                    books.add(submitRead(executor, fromNames.get(books.size())));
+                }
+                renderMergedBook(book, i + 1);
+                books.set(i, null);
+            }
+
+            if (!mergedTitles.isEmpty()) {
+                doc.addTitle(transliterate(StringUtils.join(mergedTitles, "; ")));
+            }
+            if (!mergedAuthors.isEmpty()) {
+                doc.addAuthor(StringUtils.join(mergedAuthors, ", "));
+            }
+            closePDF();
+        } finally {
+            executor.shutdownNow();
+            for (Future<FB2toPDF> book : books) {
+                if (book == null) {
+                    continue;
+                }
+                try {
+                    book.get().closeBinarySpool();
+                } catch (Exception ex) {
+                    // failed to read, nothing spooled to close
+                }
+            }
+        }
+    }
+
+    private Future<FB2toPDF> submitRead(ExecutorService executor, String fromName) {
+        final FB2toPDF book = new FB2toPDF(fromName, toName);
+        book.stylesheet = stylesheet;
+        return executor.submit(new Callable<FB2toPDF>() {
+            @Override
+            public FB2toPDF call() throws Exception {
+                book.readBook();
+                return book;
+            }
+        });
+    }
+
+    private static <T> T getResult(Future<T> future)
+            throws IOException, DocumentException, FB2toPDFException {
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            throw new FB2toPDFException("Interrupted while waiting for a book");
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof DocumentException) {
+                throw (DocumentException) cause;
+            } else if (cause instanceof FB2toPDFException) {
+                throw (FB2toPDFException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new FB2toPDFException(cause.toString());
+        }
+    }
+
+    /**
+     * Renders a book read by {@link #readBook()} on another instance into
+     * this document. Its anchors are prefixed with the book number so links
+     * with the same names in different books do not clash.
+     */
+    private void renderMergedBook(FB2toPDF book, int number)
+            throws IOException, DocumentException, FB2toPDFException {
+        fromName = book.fromName;
+        fb2 = book.fb2;
+        bodies = book.bodies;
+        attachments = book.attachments;
+        streaming = book.streaming;
+        binarySpoolFile = book.binarySpoolFile;
+        binarySpool = book.binarySpool;
+        passNamePrefix = String.format("book%d_", number);
+        hyphenation = null;
+        currentStyle = null;
+        Log.info("Merging book [{0}]", fromName);
+
+        Element description = getOptionalChildByTagName(fb2.getRootElement(), "description");
+        String title = null;
+        if (description != null) {
+            title = addMergedMetaInfo(description);
+        }
+        if (isBlank(title)) {
+            title = new File(fromName).getName();
+        }
+        addBookmark(title, 0);
+
+        renderBook(description);
+        closeBinarySpool();
+    }
+
+    /**
+     * Renders one book for several targets, each with its own stylesheet
+     * and output. The book is parsed once. Targets whose transformations
+     * and style selectors are the same render from one tree, the others
+     * get a copy transformed for them. Images are decoded once for all
+     * targets. Streaming render is not used, the tree is needed whole.
+     *
+     * With threads above one the targets are rendered concurrently when
+     * they can be: the footnote renderer and some layout switches are
+     * static, so targets with footnotes, a second pass or different
+     * switches are rendered one after another.
+     */
+    private static void runTargets(String fromName, List<String> toNames, List<InputStream> stylesheets, int threads)
+            throws IOException, DocumentException, FB2toPDFException {
+        List<FB2toPDF> targets = new ArrayList<FB2toPDF>();
+        for (int i = 0; i < toNames.size(); ++i) {
+            FB2toPDF target = new FB2toPDF(fromName, toNames.get(i));
+            target.loadData(stylesheets.get(i));
+            targets.add(target);
+        }
+
+        FB2toPDF first = targets.get(0);
+        first.readFB2();
+        nu.xom.Document book = first.fb2;
+        List<String> keys = new ArrayList<String>();
+        for (FB2toPDF target : targets) {
+            if (!keys.contains(target.getTreeKey())) {
+                keys.add(target.getTreeKey());
+            }
+        }
+        Map<String, nu.xom.Document> trees = new HashMap<String, nu.xom.Document>();
+        for (int i = 0; i < keys.size(); ++i) {
+            // the last tree needed is the parsed one, the others are copied before it is changed
+            trees.put(keys.get(i), i == keys.size() - 1 ? book : new nu.xom.Document(book));
+        }
+        Log.info("Rendering [{0}] targets from [{1}] trees", targets.size(), keys.size());
+
+        Map<String, Image> images = new ConcurrentHashMap<String, Image>();
+        Set<String> transformed = new HashSet<String>();
+        for (FB2toPDF target : targets) {
+            String key = target.getTreeKey();
+            target.fb2 = trees.get(key);
+            if (transformed.add(key)) {
+                target.applyTransformations();
+                target.applyXPathStyles();
+            }
+            target.findBodies();
+            target.sharedImages = images;
+        }
+
+        if (threads > 1 && !canRenderConcurrently(targets)) {
+            Log.warning("Targets use footnotes, a second pass or different layout switches, rendering one at a time");
+            threads = 1;
+        }
+        if (threads <= 1) {
+            for (FB2toPDF target : targets) {
+                target.renderPDF();
+            }
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, targets.size()));
+        try {
+            List<Future<Object>> results = new ArrayList<Future<Object>>();
+            for (final FB2toPDF target : targets) {
+                results.add(executor.submit(new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        target.renderPDF();
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Object> result : results) {
+                getResult(result);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * The changes transformations and style selectors make to the tree,
+     * targets with equal keys can render from the same tree.
+     */
+    private String getTreeKey() {
+        StringBuilder key = new StringBuilder();
+        TransformationSettings transformations = stylesheet.getTransformationSettings();
+        if (transformations.enabled) {
+            key.append(transformations.queryProlog).append('\n').append(transformations.morpherProlog);
+            for (TransformationSettings.Entry entry : transformations.transformationsMap) {
+                if (entry != null) {
+                    key.append('\n').append(entry.query).append('\n').append(entry.morpher);
+                }
+            }
+        }
+        for (ParagraphStyle style : stylesheet.getParagraphStyles()) {
+            if (!isBlank(style.getSelector())) {
+                key.append('\n').append(style.getName()).append('=').append(style.getSelector());
+            }
+        }
+        return key.toString();
+    }
+
+    private static boolean canRenderConcurrently(List<FB2toPDF> targets) {
+        GeneralSettings settings = targets.get(0).settings();
+        PageStyle pageStyle = targets.get(0).stylesheet.getPageStyle();
+        for (FB2toPDF target : targets) {
+            GeneralSettings s = target.settings();
+            PageStyle p = target.stylesheet.getPageStyle();
+            if (p.footnotes || !StringUtils.isBlank(s.secondPassStylesheet)
+                    || p.preventWidows != pageStyle.preventWidows
+                    || p.footnotesMaxLines != pageStyle.footnotesMaxLines
+                    || !StringUtils.equals(s.hangingPunctuation, settings.hangingPunctuation)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Whether books can be translated with the stylesheet on several threads
+     * at once, see {@link SpoolWorker}.
+     */
+    static boolean canTranslateConcurrently(InputStream stylesheet)
+            throws DocumentException, IOException, FB2toPDFException {
+        FB2toPDF target = new FB2toPDF(null, null);
+        target.loadData(stylesheet);
+        return canRenderConcurrently(Collections.singletonList(target));
+    }
+
+    /**
+     * Collects the title and the authors of a merged book for the document
+     * info, which can only hold one of each.
+     * @return the title of the book
+     */
+    private String addMergedMetaInfo(Element description) throws FB2toPDFException {
+        Element titleInfo = getOptionalChildByTagName(description, "title-info");
+        if (titleInfo == null) {
+            return null;
+        }
+        Elements authors = titleInfo.getChildElements("author", NS_FB2);
+        boolean force = settings().forceTransliterateAuthor;
+        for (int i = 0; i < authors.size(); ++i) {
+            mergedAuthors.add(transliterate(getMetaAuthorFullName(authors.get(i)), force));
+        }
+        Element bookTitle = getOptionalChildByTagName(titleInfo, "book-title");
+        if (bookTitle == null) {
+            return null;
+        }
+        String titleString = bookTitle.getValue();
+        mergedTitles.add(titleString);
+        return titleString;
+    }
     
     private class HeaderRefresher extends PdfPageEventHelper {
         @Override
@@ -1226,16 +1934,21 @@ public class FB2toPDF {
         
         if (!stylesheet.getPageStyle().footnotes) return;
         
-        byte[] noteDoc = FootnoteRenderer.close();
-
-        PdfReader reader = new PdfReader(noteDoc);
-
+        File noteDoc = FootnoteRenderer.close();
 
-        for (int i=0; i<footnoteTemplates.size();i++) {
-            PdfImportedPage page = writer.getImportedPage(reader, i+1);
-            footnoteTemplates.get(i).addTemplate(page, 0 ,0);
+        // partial mode on a mapped file, only the page being imported is read
+        PdfReader reader = new PdfReader(new RandomAccessFileOrArray(noteDoc.getPath(), false, false), null);
+        try {
+            for (int i=0; i<footnoteTemplates.size();i++) {
+                PdfImportedPage page = writer.getImportedPage(reader, i+1);
+                footnoteTemplates.get(i).addTemplate(page, 0 ,0);
+                reader.releasePage(i+1);
+            }
+            writer.freeReader(reader);
+        } finally {
+            reader.close();
+            noteDoc.delete();
         }
-            
     }
 
     private static class BinaryAttachment {
@@ -1243,6 +1956,9 @@ public class FB2toPDF {
         private String href;
         private String contentType;
         private nu.xom.Element binary;
+        private RandomAccessFile spool;
+        private long spoolOffset;
+        private int spoolLength;
         private Image image;
 
         public BinaryAttachment(nu.xom.Element binary) {
@@ -1251,6 +1967,14 @@ public class FB2toPDF {
             this.binary = binary;
         }
 
+        public BinaryAttachment(String id, String contentType, RandomAccessFile spool, long offset, int length) {
+            this.href = "#" + id;
+            this.contentType = contentType;
+            this.spool = spool;
+            this.spoolOffset = offset;
+            this.spoolLength = length;
+        }
+
         public String getHREF() {
             return href;
         }
@@ -1259,25 +1983,53 @@ public class FB2toPDF {
             return contentType;
         }
 
-        private byte[] getData() {
+        private byte[] getData() throws IOException {
             Log.info("Loaded binary [{0}] (type [{1}])", this.href, this.contentType);
+            if (binary == null) {
+                byte[] data = new byte[spoolLength];
+                spool.seek(spoolOffset);
+                spool.readFully(data);
+                return data;
+            }
             return Base64.decodeBase64(this.binary.getValue().getBytes());
         }
         
-        public Image getImage(boolean makeGrayImageTransparent, String overrideTransparency, boolean cacheImage) throws BadElementException, MalformedURLException, IOException {
+        /**
+         * @param sharedImages images already decoded by their data digests and
+         * the transparency options, a copy of one shares its XObject, may be null
+         */
+        public Image getImage(boolean makeGrayImageTransparent, String overrideTransparency, boolean cacheImage, Map<String, Image> sharedImages) throws BadElementException, MalformedURLException, IOException {
             Image tmp = image;
+            byte[] data = null;
+            String digest = null;
+            if (tmp == null && sharedImages != null) {
+                data = getData();
+                digest = DigestUtils.md5Hex(data) + (makeGrayImageTransparent ? "/gray" : "")
+                        + (overrideTransparency == null || overrideTransparency.isEmpty() ? "" : "/" + overrideTransparency);
+                Image shared = sharedImages.get(digest);
+                if (shared != null) {
+                    Log.info("Binary [{0}] is a copy of an image already added", this.href);
+                    tmp = Image.getInstance(shared);
+                }
+            }
             if (tmp == null) {
-
+                if (data == null) {
+                    data = getData();
+                }
                 if (makeGrayImageTransparent) {
-                    java.awt.Image img = Utilities.makeGrayTransparent(getData());
+                    java.awt.Image img = Utilities.makeGrayTransparent(data);
                     tmp = Image.getInstance(img, null);
                 } else if (overrideTransparency == null || overrideTransparency.isEmpty()) {
-                    tmp = Image.getInstance(getData());
+                    tmp = Image.getInstance(data);
                 } else {
                     Toolkit toolkit = Toolkit.getDefaultToolkit();
-                    java.awt.Image img = toolkit.createImage(getData());
+                    java.awt.Image img = toolkit.createImage(data);
                     tmp = Image.getInstance(img, Color.decode(overrideTransparency));
                 }
+                if (digest != null) {
+                    sharedImages.put(digest, tmp);
+                    tmp = Image.getInstance(tmp);
+                }
             }
             if (cacheImage) {
                 image = tmp;
@@ -1339,12 +2091,33 @@ public class FB2toPDF {
     
     private String getMetaAuthorFullName(Element author) throws FB2toPDFException {
         String query = settings().metaAuthorQuery;
-        return XQueryUtilities.getString(author, stylesheet.getTransformationSettings(), query, " ");
+        return getAuthorFullName(author, query);
     }
     
     private String getBookInfoPageAuthorFullName(Element author) throws FB2toPDFException {
         String query = "(first-name,  middle-name,  last-name)";
-        return XQueryUtilities.getString(author, stylesheet.getTransformationSettings(), query, " ");
+        return getAuthorFullName(author, query);
+    }
+
+    /**
+     * Evaluates an author name query. A list of child elements is answered
+     * by navigating the author element, the XQuery engine is only started
+     * for a stylesheet with other queries.
+     */
+    private String getAuthorFullName(Element author, String query) {
+        TransformationSettings transformationSettings = stylesheet.getTransformationSettings();
+        if (!CHILD_LIST_QUERY.matcher(query.trim()).matches()
+                || !XQueryUtilities.defaultProlog.equals(transformationSettings.queryProlog)) {
+            return XQueryUtilities.getString(author, transformationSettings, query, " ");
+        }
+        List<String> names = new ArrayList<String>();
+        for (String name : StringUtils.split(StringUtils.deleteWhitespace(query), "(),")) {
+            Elements parts = author.getChildElements(name, NS_FB2);
+            for (int i = 0; i < parts.size(); i++) {
+                names.add(parts.get(i).getValue());
+            }
+        }
+        return StringUtils.join(names, " ");
     }
 
     private void addMetaInfo(Element description)
@@ -1503,7 +2276,7 @@ public class FB2toPDF {
                 String overrideTransparency = settings().overrideImageTransparency;
                 boolean makeGrayImageTransparent = settings().makeGrayImageTransparent;
                 boolean cacheImage = settings().cacheImages;
-                return attachment.getImage(makeGrayImageTransparent, overrideTransparency, cacheImage);
+                return attachment.getImage(makeGrayImageTransparent, overrideTransparency, cacheImage, sharedImages);
             } catch (Exception ex) {
                 Log.error(ex.getMessage());
                 return null;
@@ -1515,36 +2288,51 @@ public class FB2toPDF {
 
     private void processBody(Element body)
             throws DocumentException, FB2toPDFException {
-        HeaderSettings header = stylesheet.getPageStyle().getHeader();
-        if (header.enabled && header.dynamic) {
-            chapterTitle = "";
-            refreshHeader();
-        }
-        
-        currentStyle = stylesheet.getParagraphStyle("body");
+        beginBody();
 
         Elements children = body.getChildElements();
         int subsectionIndex = 0;
         for (int i = 0; i < children.size(); ++i) {
-            Element element = children.get(i);
-
-            if (element.getLocalName().equals("section")) {
-                processSection(element, 0, subsectionIndex);
+            if (processBodyChild(children.get(i), subsectionIndex)) {
                 subsectionIndex++;
-            } else if (element.getLocalName().equals("image")) {
-                addImage(element);
-            } else if (element.getLocalName().equals("title")) {
-                processTitle(element, -1);
-            } else if (element.getLocalName().equals("epigraph")) {
-                processEpigraph(element);
-            } else {
-                Log.warning("Unhandled section tag [{0}]", element.getLocalName());
             }
         }
 
         currentStyle = null;
     }
 
+    private void beginBody()
+            throws DocumentException, FB2toPDFException {
+        HeaderSettings header = stylesheet.getPageStyle().getHeader();
+        if (header.enabled && header.dynamic) {
+            chapterTitle = "";
+            refreshHeader();
+        }
+
+        currentStyle = stylesheet.getParagraphStyle("body");
+    }
+
+    /**
+     * Renders one direct child of a body element.
+     * @return true if the child was a section
+     */
+    private boolean processBodyChild(Element element, int subsectionIndex)
+            throws DocumentException, FB2toPDFException {
+        if (element.getLocalName().equals("section")) {
+            processSection(element, 0, subsectionIndex);
+            return true;
+        } else if (element.getLocalName().equals("image")) {
+            addImage(element);
+        } else if (element.getLocalName().equals("title")) {
+            processTitle(element, -1);
+        } else if (element.getLocalName().equals("epigraph")) {
+            processEpigraph(element);
+        } else {
+            Log.warning("Unhandled section tag [{0}]", element.getLocalName());
+        }
+        return false;
+    }
+
     private void makeTOCPage(Element body)
             throws DocumentException, FB2toPDFException {
         Elements sections = body.getChildElements("section", NS_FB2);
@@ -1572,7 +2360,7 @@ public class FB2toPDF {
     }
 
     private PdfOutline addBookmark(String title, String refname, int level) {
-        if (!isBlank(secondPassStylesheet)) {
+        if (!isBlank(secondPassStylesheet) || merging) {
             level += 1;
         }
         if (!currentOutline.containsKey(level)) {
@@ -2102,6 +2890,16 @@ public class FB2toPDF {
         new FB2toPDF(fromName, toName).run(stylesheet);
     }
 
+    public static void translate(String fromName, List<String> toNames, List<InputStream> stylesheets, int threads)
+            throws DocumentException, IOException, FB2toPDFException {
+        runTargets(fromName, toNames, stylesheets, threads);
+    }
+
+    public static void merge(List<String> fromNames, String toName, InputStream stylesheet, int threads)
+            throws DocumentException, IOException, FB2toPDFException {
+        new FB2toPDF(null, toName).runMerge(fromNames, stylesheet, threads);
+    }
+
     public static void main(String[] args) {
         try {
             if (args.length < 2) {
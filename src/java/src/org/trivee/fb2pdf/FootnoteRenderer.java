@@ -5,7 +5,10 @@ import com.itextpdf.text.pdf.BaseFont;
 import com.itextpdf.text.pdf.PdfDocument;
 import com.itextpdf.text.pdf.PdfPageEventHelper;
 import com.itextpdf.text.pdf.PdfWriter;
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import nu.xom.Element;
 import nu.xom.Elements;
 import nu.xom.Node;
@@ -25,7 +28,7 @@ public class FootnoteRenderer {
     static float fontSize;
     static BaseFont basefont;
     static Rectangle pageSize;
-    static ByteArrayOutputStream output;
+    static File output;
     static float cutMarkerWidth = 0;
     private static boolean superscript;
     private static boolean subscript;
@@ -118,9 +121,14 @@ public class FootnoteRenderer {
         return paragraph;
     }
    
-    public static byte[] close() {
+    /**
+     * Closes the footnote document.
+     *
+     * @return the temporary file holding the document, to be deleted by the caller
+     */
+    public static File close() {
         doc.close();
-        return output.toByteArray();
+        return output;
     }
     
     public static int getPageNumber() {
@@ -174,17 +182,22 @@ public class FootnoteRenderer {
         return added;
     }
     
-    public static void init(Stylesheet stylesheet) throws FB2toPDFException, DocumentException {
+    public static void init(Stylesheet stylesheet) throws FB2toPDFException, DocumentException, IOException {
         initParams(stylesheet);
         doc = new Document(pageSize, 0, 0, topMargin, 0);
         PdfDocument.preventWidows = false;
-        output = new ByteArrayOutputStream();
-        writer = PdfWriter.getInstance(doc, output);
+        // the notes of a huge book make a huge document, it is read back in partial mode
+        if (output != null) {
+            // left by a failed render, deleted by the caller otherwise
+            output.delete();
+        }
+        output = File.createTempFile("fb2pdf", ".pdf");
+        writer = PdfWriter.getInstance(doc, new BufferedOutputStream(new FileOutputStream(output)));
         writer.setPageEvent(new PageEvents());
         doc.open();
     }
 
-    public static void reinit(Stylesheet stylesheet) throws FB2toPDFException, DocumentException {
+    public static void reinit(Stylesheet stylesheet) throws FB2toPDFException, DocumentException, IOException {
         if (doc == null) {
             init(stylesheet);
             return;
@@ -10,6 +10,8 @@ package org.trivee.fb2pdf;
  * @author vzeltser
  */
 public class GeneralSettings {
+    public static final String ALL_BODIES = "//body";
+
     public String secondPassStylesheet;
     public boolean transliterateMetaInfo;
     public boolean forceTransliterateAuthor;
@@ -34,8 +36,12 @@ public class GeneralSettings {
     public boolean enableLinkPageNum;
     public String linkPageNumFormat = "[%04d]";
     public int linkPageNumMax = 9999;
-    public String bodiesToRender = "//body";
+    public String bodiesToRender = ALL_BODIES;
     public boolean fullCompression = false;
+    public boolean streamingRender = false;
+    public boolean ltrFastPath = true;
+    public boolean stateElision = true;
+    public boolean linearize = false;
     boolean enableDoubleRenderingOutline = true;
 
     public GeneralSettings()
@@ -0,0 +1,54 @@
+package org.trivee.fb2pdf;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Times the experimental paragraph layout (fb2pdf.experiment=true) of a book
+ * with the LTR fast path of BidiLine on and off. Runs alternate after a
+ * warm-up of each kind; the best time of each is reported.
+ *
+ * Usage: java org.trivee.fb2pdf.LayoutBenchmark <input.fb2> [<runs>]
+ */
+public class LayoutBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: java " + LayoutBenchmark.class.getName() + " <input.fb2> [<runs>]");
+            return;
+        }
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        System.setProperty("fb2pdf.experiment", "true");
+        Logger.getLogger("fb2pdf").setLevel(Level.WARNING);
+
+        String stylesheet = FileUtils.readFileToString(new File(Utilities.getValidatedFileName("./data/stylesheet.json")), "UTF-8");
+        byte[] fast = stylesheet.getBytes("UTF-8");
+        byte[] full = stylesheet.replaceFirst("generalSettings\\s*:\\s*\\{", "generalSettings: { ltrFastPath: \"false\",").getBytes("UTF-8");
+        File output = File.createTempFile("benchmark", ".pdf");
+        try {
+            render(args[0], output, fast);
+            render(args[0], output, full);
+            long bestFast = Long.MAX_VALUE;
+            long bestFull = Long.MAX_VALUE;
+            for (int i = 0; i < runs; i++) {
+                bestFast = Math.min(bestFast, render(args[0], output, fast));
+                bestFull = Math.min(bestFull, render(args[0], output, full));
+            }
+            System.out.println(String.format("ltrFastPath on:  %d ms", bestFast));
+            System.out.println(String.format("ltrFastPath off: %d ms", bestFull));
+            System.out.println(String.format("saved: %d ms (%.1f%%)", bestFull - bestFast, 100.0 * (bestFull - bestFast) / bestFull));
+        } finally {
+            output.delete();
+        }
+    }
+
+    private static long render(String input, File output, byte[] stylesheet) throws Exception {
+        long start = System.nanoTime();
+        FB2toPDF.translate(input, output.getPath(), new ByteArrayInputStream(stylesheet));
+        return (System.nanoTime() - start) / 1000000;
+    }
+}
@@ -0,0 +1,632 @@
+package org.trivee.fb2pdf;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import nu.xom.Builder;
+import nu.xom.Element;
+import nu.xom.Elements;
+import nu.xom.ParsingException;
+import org.apache.commons.cli.*;
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Converts the books of jobs put into a spool directory, a local stand-in
+ * for the queue read by scripts/fbdaemon, in one JVM. A job is an fb2pdfjob
+ * message like the ones www/sqshelper.php sends, plain or base64 encoded, in
+ * a file incoming/*.xml. Producers write the file under another name and
+ * rename it. The worker claims a job by moving it to work/, so no other
+ * process polling the directory runs it too, and converts it on a pool of
+ * threads.
+ *
+ * The result and the log named by the job are written to results/. For the
+ * callbacks of the job a line "method url parameters", with the parameters
+ * www/conv_callback.php expects, is written to status/[result key].status.
+ * Jobs failing to download, running out of memory or running over the
+ * timeout go back to incoming/ until the retries are used up, other failed
+ * jobs are moved to failed/. No job is claimed while free disk space or
+ * memory is below the limits.
+ *
+ * A job over the timeout is interrupted and keeps its thread until the
+ * conversion ends, the result is dropped and only then the job goes back to
+ * incoming/. Jobs left in work/ by a stopped worker go back to
+ * incoming/ when it starts, so one worker should serve a spool directory.
+ *
+ * Usage: java org.trivee.fb2pdf.SpoolWorker [options] <spool directory>
+ */
+public class SpoolWorker {
+
+    private static final String JOB_EXTENSION = ".xml";
+    private static final int[] SUPPORTED_VERSIONS = {2, 3, 4};
+    private static final String ZIP = "application/zip";
+    private static final long MB = 1024 * 1024;
+
+    private final File spool;
+    private final File incoming;
+    private final File work;
+    private final File results;
+    private final File status;
+    private final File failed;
+    private final byte[] stylesheet;
+    private final int threads;
+    private final Semaphore slots;
+    /** Attempts made and the time of the next one of jobs put back to incoming/ */
+    private final Map<String, Integer> attempts = new ConcurrentHashMap<String, Integer>();
+    private final Map<String, Long> retryTimes = new ConcurrentHashMap<String, Long>();
+    private long timeout = 600;
+    private int retries = 3;
+    private long retryDelay = 60;
+    private long pollDelay = 5;
+    private long minFreeDisk = 100 * MB;
+    private long minFreeMemory = 64 * MB;
+    private ExecutorService executor;
+    private ScheduledExecutorService watchdog;
+    private volatile boolean stopped;
+    private boolean paused;
+
+    /**
+     * @param stylesheet the stylesheet all books are translated with
+     */
+    public SpoolWorker(File spool, byte[] stylesheet, int threads)
+            throws IOException {
+        this.spool = spool;
+        incoming = getDirectory("incoming");
+        work = getDirectory("work");
+        results = getDirectory("results");
+        status = getDirectory("status");
+        failed = getDirectory("failed");
+        this.stylesheet = stylesheet;
+        this.threads = threads;
+        slots = new Semaphore(threads);
+    }
+
+    private File getDirectory(String name) throws IOException {
+        File dir = new File(spool, name);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Can't create directory " + dir);
+        }
+        return dir;
+    }
+
+    /**
+     * Claims and runs jobs until {@link #stop()} is called, then waits for
+     * the running jobs.
+     */
+    public void run() throws InterruptedException {
+        recover();
+        executor = Executors.newFixedThreadPool(threads);
+        watchdog = Executors.newSingleThreadScheduledExecutor();
+        Log.info("Worker started on [{0}] with [{1}] threads", spool, threads);
+        try {
+            while (!stopped) {
+                boolean claimed = false;
+                for (File job : getJobs()) {
+                    if (stopped || !hasResources()) {
+                        break;
+                    }
+                    // a slot is taken until the thread of the job ends
+                    if (!slots.tryAcquire(pollDelay, TimeUnit.SECONDS)) {
+                        break;
+                    }
+                    if (claim(job)) {
+                        claimed = true;
+                    } else {
+                        slots.release();
+                    }
+                }
+                if (!claimed) {
+                    Thread.sleep(pollDelay * 1000);
+                }
+            }
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(timeout, TimeUnit.SECONDS);
+            watchdog.shutdownNow();
+            Log.info("Worker stopped");
+        }
+    }
+
+    public void stop() {
+        stopped = true;
+    }
+
+    /**
+     * Puts the jobs a stopped worker left in work/ back into incoming/.
+     */
+    private void recover() {
+        for (File file : work.listFiles()) {
+            if (!file.getName().endsWith(JOB_EXTENSION)) {
+                file.delete();
+            } else if (file.renameTo(new File(incoming, file.getName()))) {
+                Log.info("Job [{0}] is put back into the queue", file.getName());
+            }
+        }
+    }
+
+    /**
+     * @return the jobs in incoming/ to run now, oldest first
+     */
+    private File[] getJobs() {
+        final long now = System.currentTimeMillis();
+        File[] jobs = incoming.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                Long retryTime = retryTimes.get(file.getName());
+                return file.getName().endsWith(JOB_EXTENSION) && file.isFile()
+                        && (retryTime == null || retryTime <= now);
+            }
+        });
+        if (jobs == null) {
+            return new File[0];
+        }
+        Arrays.sort(jobs, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long d = a.lastModified() - b.lastModified();
+                return d < 0 ? -1 : d > 0 ? 1 : a.getName().compareTo(b.getName());
+            }
+        });
+        return jobs;
+    }
+
+    /**
+     * Whether there is disk space and memory for another job, logs when
+     * claiming stops and starts again.
+     */
+    private boolean hasResources() {
+        long disk = spool.getUsableSpace();
+        long memory = getFreeMemory();
+        if (memory < minFreeMemory) {
+            // the heap may be full of garbage of the jobs done
+            System.gc();
+            memory = getFreeMemory();
+        }
+        boolean enough = disk >= minFreeDisk && memory >= minFreeMemory;
+        if (enough && paused) {
+            Log.info("Claiming jobs again");
+        } else if (!enough && !paused) {
+            Log.warning("Not claiming jobs with [{0}] MB of disk space and [{1}] MB of memory free", disk / MB, memory / MB);
+        }
+        paused = !enough;
+        return enough;
+    }
+
+    private static long getFreeMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.maxMemory() - runtime.totalMemory() + runtime.freeMemory();
+    }
+
+    /**
+     * Moves the job to work/ and starts it.
+     * @return false if another process claimed it first
+     */
+    private boolean claim(File job) {
+        File claimed = new File(work, job.getName());
+        if (!job.renameTo(claimed)) {
+            return false;
+        }
+        Integer attempt = attempts.get(job.getName());
+        executor.execute(new Job(claimed, attempt == null ? 1 : attempt + 1));
+        return true;
+    }
+
+    /**
+     * A failure worth another attempt, like TemporaryError of fbdaemon.
+     */
+    private static class TemporaryException extends Exception {
+
+        public TemporaryException(String message) {
+            super(message);
+        }
+    }
+
+    private class Job implements Runnable {
+
+        private final File file;
+        /** The job file name without the extension and the attempt, names the files of the attempt in work/ */
+        private final String name;
+        private final int attempt;
+        private final AtomicBoolean ended = new AtomicBoolean();
+        private volatile boolean timedOut;
+        private Thread thread;
+        private String sourceUrl;
+        private String sourceName;
+        private String sourceEncoding;
+        private String resultKey;
+        private String resultName;
+        private String resultEncoding;
+        private String logKey;
+        private final List<String> callbacks = new ArrayList<String>();
+
+        Job(File file, int attempt) {
+            this.file = file;
+            this.name = StringUtils.removeEnd(file.getName(), JOB_EXTENSION) + "." + attempt;
+            this.attempt = attempt;
+        }
+
+        @Override
+        public void run() {
+            synchronized (this) {
+                thread = Thread.currentThread();
+            }
+            ScheduledFuture<?> alarm = watchdog.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    timeout();
+                }
+            }, timeout, TimeUnit.SECONDS);
+            File fb2 = null;
+            File pdf = new File(work, name + ".pdf");
+            try {
+                read();
+                Log.info("Converting [{0}], attempt [{1}]", file.getName(), attempt);
+                fb2 = download();
+                FB2toPDF.translate(fb2.getPath(), pdf.getPath(), new ByteArrayInputStream(stylesheet));
+                if (!ended.compareAndSet(false, true)) {
+                    Log.warning("Job [{0}] ended after the timeout, the result is dropped", file.getName());
+                    return;
+                }
+                try {
+                    store(pdf);
+                } catch (IOException ex) {
+                    retryOrFail(true, "Error storing the result: " + ex.getMessage());
+                    return;
+                }
+                end('r', "Converted " + sourceName);
+                file.delete();
+                Log.info("Job [{0}] done", file.getName());
+            } catch (TemporaryException ex) {
+                fail(true, ex.getMessage());
+            } catch (OutOfMemoryError ex) {
+                fail(true, "Out of memory");
+            } catch (Throwable ex) {
+                fail(false, ex.toString());
+            } finally {
+                alarm.cancel(false);
+                synchronized (this) {
+                    thread = null;
+                }
+                Thread.interrupted();
+                if (fb2 != null) {
+                    fb2.delete();
+                }
+                pdf.delete();
+                // requeued only now, so a stuck conversion never runs next to its retry
+                if (timedOut) {
+                    retryOrFail(true, String.format("Timed out after %d seconds", timeout));
+                }
+                slots.release();
+            }
+        }
+
+        private void timeout() {
+            if (!ended.compareAndSet(false, true)) {
+                return;
+            }
+            timedOut = true;
+            Log.warning("Job [{0}] timed out, interrupting it", file.getName());
+            synchronized (this) {
+                // a conversion waiting on I/O may stop
+                if (thread != null) {
+                    thread.interrupt();
+                }
+            }
+        }
+
+        private void fail(boolean temporary, String message) {
+            if (ended.compareAndSet(false, true)) {
+                retryOrFail(temporary, message);
+            }
+        }
+
+        private void retryOrFail(boolean temporary, String message) {
+            if (temporary && attempt <= retries) {
+                Log.warning("Job [{0}] failed, retrying: {1}", file.getName(), message);
+                attempts.put(file.getName(), attempt);
+                retryTimes.put(file.getName(), System.currentTimeMillis() + attempt * retryDelay * 1000);
+                if (!file.renameTo(new File(incoming, file.getName()))) {
+                    Log.error("Can't put job [{0}] back into the queue", file.getName());
+                }
+                return;
+            }
+            Log.error("Job [{0}] failed: {1}", file.getName(), message);
+            file.renameTo(new File(failed, file.getName()));
+            end('e', "Sorry we could not convert your file. If you feel this is a bug, please report it to us.\n" + message);
+        }
+
+        /**
+         * Writes the log and the status, the log is written after the result
+         * like fbdaemon does.
+         */
+        private void end(char result, String message) {
+            attempts.remove(file.getName());
+            retryTimes.remove(file.getName());
+            try {
+                if (logKey != null) {
+                    write(new File(results, new File(logKey).getName()), message + "\n");
+                }
+                if (resultKey != null) {
+                    // one line for each callback, empty without callbacks
+                    StringBuilder lines = new StringBuilder();
+                    String version = CLIDriver.getImplementationVersion();
+                    for (String callback : callbacks) {
+                        lines.append(callback).append("key=").append(URLEncoder.encode(resultKey, "UTF-8"));
+                        lines.append("&status=").append(result);
+                        if (version != null) {
+                            lines.append("&ver=").append(URLEncoder.encode(version, "UTF-8"));
+                        }
+                        lines.append('\n');
+                    }
+                    write(new File(status, new File(resultKey).getName() + ".status"), lines.toString());
+                }
+            } catch (IOException ex) {
+                Log.error("Error writing the status of job [{0}]: {1}", file.getName(), ex.getMessage());
+            }
+        }
+
+        /**
+         * Reads the job file, a message of the versions fbdaemon supports.
+         */
+        private void read() throws IOException, ParsingException, FB2toPDFException {
+            byte[] message = FileUtils.readFileToByteArray(file);
+            if (!new String(message, "UTF-8").trim().startsWith("<")) {
+                message = Base64.decodeBase64(message);
+            }
+            Element root = new Builder(false).build(new ByteArrayInputStream(message)).getRootElement();
+            if (!"fb2pdfjob".equals(root.getLocalName())) {
+                throw new FB2toPDFException("Unknown XML root element " + root.getLocalName());
+            }
+            String version = root.getAttributeValue("version");
+            if (version == null || Arrays.binarySearch(SUPPORTED_VERSIONS, Integer.parseInt(version)) < 0) {
+                throw new FB2toPDFException("Unsupported message format version " + version);
+            }
+
+            Element source = getOnlyChild(root, "source");
+            sourceUrl = source.getAttributeValue("url");
+            sourceName = StringUtils.defaultIfEmpty(source.getAttributeValue("name"), name);
+            sourceEncoding = source.getAttributeValue("encoding");
+
+            Element result = getOnlyChild(root, "result");
+            resultKey = result.getAttributeValue("key");
+            if (StringUtils.isEmpty(resultKey)) {
+                throw new FB2toPDFException("Missing result key");
+            }
+            resultName = StringUtils.defaultIfEmpty(result.getAttributeValue("name"), resultKey);
+            resultEncoding = result.getAttributeValue("encoding");
+            String fileType = result.getAttributeValue("filetype");
+            if (fileType != null && !"pdf".equals(fileType)) {
+                throw new FB2toPDFException("Unsupported result file type " + fileType);
+            }
+            logKey = getOnlyChild(root, "log").getAttributeValue("key");
+
+            Elements elements = root.getChildElements("callback");
+            for (int i = 0; i < elements.size(); i++) {
+                Element callback = elements.get(i);
+                String url = callback.getAttributeValue("url");
+                if (StringUtils.isEmpty(url)) {
+                    Log.warning("Missing callback url in job [{0}], skipping", file.getName());
+                    continue;
+                }
+                String params = StringUtils.defaultString(callback.getAttributeValue("params"));
+                callbacks.add(StringUtils.defaultIfEmpty(callback.getAttributeValue("method"), "POST")
+                        + " " + url + " " + (params.length() > 0 ? params + "&" : ""));
+            }
+            // the worker has one stylesheet, the parameters of the TeX converter do not apply
+            elements = root.getChildElements("parameter");
+            for (int i = 0; i < elements.size(); i++) {
+                Log.debug("Ignoring parameter {0}={1}", elements.get(i).getAttributeValue("name"),
+                        elements.get(i).getAttributeValue("value"));
+            }
+        }
+
+        private Element getOnlyChild(Element root, String name) throws FB2toPDFException {
+            Elements elements = root.getChildElements(name);
+            if (elements.size() != 1) {
+                throw new FB2toPDFException("Message must contain exactly one '" + name + "' element");
+            }
+            return elements.get(0);
+        }
+
+        /**
+         * Copies the book to work/, relative urls are files in the spool
+         * directory.
+         */
+        private File download() throws IOException, TemporaryException {
+            File fb2 = new File(work, name + (ZIP.equals(sourceEncoding) ? ".fb2.zip" : ".fb2"));
+            try {
+                InputStream in = new URL(spool.toURI().toURL(), sourceUrl).openStream();
+                try {
+                    FileUtils.copyInputStreamToFile(in, fb2);
+                } finally {
+                    in.close();
+                }
+            } catch (FileNotFoundException ex) {
+                throw new FileNotFoundException("Source not found: " + sourceUrl);
+            } catch (IOException ex) {
+                throw new TemporaryException("Error downloading " + sourceUrl + ": " + ex.getMessage());
+            }
+            return fb2;
+        }
+
+        /**
+         * Moves the pdf to results/, zipped if the job asks so.
+         */
+        private void store(File pdf) throws IOException {
+            File result = new File(results, new File(resultName).getName());
+            // readers never see a part of the result
+            File temp = new File(results, "." + name + ".tmp");
+            if (ZIP.equals(resultEncoding)) {
+                OutputStream out = new FileOutputStream(temp);
+                try {
+                    ZipOutputStream zip = new ZipOutputStream(out);
+                    zip.putNextEntry(new ZipEntry(getFileName(sourceName) + ".pdf"));
+                    InputStream in = new FileInputStream(pdf);
+                    try {
+                        IOUtils.copy(in, zip);
+                    } finally {
+                        in.close();
+                    }
+                    zip.closeEntry();
+                    zip.finish();
+                } finally {
+                    out.close();
+                }
+            } else if (!pdf.renameTo(temp)) {
+                FileUtils.copyFile(pdf, temp);
+            }
+            result.delete();
+            if (!temp.renameTo(result)) {
+                temp.delete();
+                throw new IOException("Can't rename " + temp + " to " + result);
+            }
+        }
+
+        private void write(File target, String text) throws IOException {
+            File temp = new File(target.getParentFile(), "." + name + ".tmp");
+            Writer out = new OutputStreamWriter(new FileOutputStream(temp), "UTF-8");
+            try {
+                out.write(text);
+            } finally {
+                out.close();
+            }
+            target.delete();
+            if (!temp.renameTo(target)) {
+                temp.delete();
+                throw new IOException("Can't rename " + temp + " to " + target);
+            }
+        }
+    }
+
+    /**
+     * A file name of latin letters and digits like fbdaemon makes.
+     */
+    private static String getFileName(String name) {
+        return Translit.get(name).replaceAll("[^A-Za-z0-9]", "_");
+    }
+
+    @SuppressWarnings("static-access")
+    public static void main(String[] args) throws Exception {
+        Options options = new Options();
+        options.addOption("h", "help", false, "Show usage information and quit");
+        options.addOption(OptionBuilder
+                .withLongOpt("stylesheet")
+                .hasArg()
+                .withArgName("PATH")
+                .withDescription("Stylesheet file")
+                .create('s'));
+        options.addOption(OptionBuilder
+                .withLongOpt("threads")
+                .hasArg()
+                .withArgName("N")
+                .withDescription("Number of books to convert at once (default is the number of processors)")
+                .create('j'));
+        options.addOption(OptionBuilder
+                .withLongOpt("timeout")
+                .hasArg()
+                .withArgName("SECONDS")
+                .withDescription("Time a job may run (default is 600)")
+                .create('t'));
+        options.addOption(OptionBuilder
+                .withLongOpt("retries")
+                .hasArg()
+                .withArgName("N")
+                .withDescription("Retries of a job failing to download, running out of memory or over the timeout (default is 3)")
+                .create('r'));
+        options.addOption(OptionBuilder
+                .withLongOpt("retry-delay")
+                .hasArg()
+                .withArgName("SECONDS")
+                .withDescription("Delay before the first retry, multiplied by the attempts made for the next ones (default is 60)")
+                .create());
+        options.addOption(OptionBuilder
+                .withLongOpt("poll")
+                .hasArg()
+                .withArgName("SECONDS")
+                .withDescription("Delay between polls of an empty queue (default is 5)")
+                .create('p'));
+        options.addOption(OptionBuilder
+                .withLongOpt("min-disk")
+                .hasArg()
+                .withArgName("MB")
+                .withDescription("Free disk space needed to claim a job (default is 100)")
+                .create());
+        options.addOption(OptionBuilder
+                .withLongOpt("min-memory")
+                .hasArg()
+                .withArgName("MB")
+                .withDescription("Free memory needed to claim a job (default is 64)")
+                .create());
+        options.addOption("l", "log", true, "Log file");
+
+        CommandLine cl = new PosixParser().parse(options, args);
+        if (cl.hasOption('h') || cl.getArgs().length != 1) {
+            new HelpFormatter().printHelp("java " + SpoolWorker.class.getName() + " [options] <spool directory>", options);
+            return;
+        }
+
+        if (cl.hasOption('l')) {
+            Log.setup(cl.getOptionValue('l'), "UTF-8");
+        }
+        String[] stylesheetNames = cl.hasOption('s') ? cl.getOptionValues('s') : new String[]{Utilities.getValidatedFileName("./data/stylesheet.json")};
+        ByteArrayOutputStream stylesheet = new ByteArrayOutputStream();
+        for (String stylesheetName : stylesheetNames) {
+            stylesheet.write(FileUtils.readFileToByteArray(new File(stylesheetName)));
+        }
+        int threads = Integer.parseInt(cl.getOptionValue('j', String.valueOf(Runtime.getRuntime().availableProcessors())));
+        if (threads > 1 && !FB2toPDF.canTranslateConcurrently(new ByteArrayInputStream(stylesheet.toByteArray()))) {
+            Log.warning("The stylesheet uses footnotes or a second pass, converting one book at a time");
+            threads = 1;
+        }
+
+        final SpoolWorker worker = new SpoolWorker(new File(cl.getArgs()[0]), stylesheet.toByteArray(), Math.max(threads, 1));
+        worker.timeout = Long.parseLong(cl.getOptionValue('t', "600"));
+        worker.retries = Integer.parseInt(cl.getOptionValue('r', "3"));
+        worker.retryDelay = Long.parseLong(cl.getOptionValue("retry-delay", "60"));
+        worker.pollDelay = Long.parseLong(cl.getOptionValue('p', "5"));
+        worker.minFreeDisk = Long.parseLong(cl.getOptionValue("min-disk", "100")) * MB;
+        worker.minFreeMemory = Long.parseLong(cl.getOptionValue("min-memory", "64")) * MB;
+
+        final Thread main = Thread.currentThread();
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                worker.stop();
+                try {
+                    main.join();
+                } catch (InterruptedException ex) {
+                    // exiting anyway
+                }
+            }
+        });
+        worker.run();
+    }
+}
@@ -14,6 +14,7 @@ import com.itextpdf.text.pdf.PdfNumber;
 import com.itextpdf.text.pdf.PdfReader;
 import com.itextpdf.text.pdf.PdfStamper;
 import com.itextpdf.text.pdf.PdfWriter;
+import com.itextpdf.text.pdf.RandomAccessFileOrArray;
 import com.itextpdf.text.pdf.SimpleBookmark;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
@@ -48,8 +49,9 @@ public class Rotate {
             int rotation = Integer.parseInt(rotvalue);
 
 
-            // we create a reader for a certain document
-            PdfReader reader = new PdfReader(src.getAbsolutePath());
+            // we create a reader for a certain document, in partial mode on a mapped file:
+            // only the page dictionaries stay in memory, the stamper reads the rest as it writes
+            PdfReader reader = new PdfReader(new RandomAccessFileOrArray(src.getAbsolutePath(), false, false), null);
             // we retrieve the total number of pages and the page size
             int total = reader.getNumberOfPages();
             System.out.println("There are " + total + " pages in the original file.");
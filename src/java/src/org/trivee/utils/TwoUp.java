@@ -11,9 +11,9 @@ import com.itextpdf.text.pdf.PdfImportedPage;
 import com.itextpdf.text.pdf.PdfReader;
 import com.itextpdf.text.pdf.PdfStamper;
 import com.itextpdf.text.pdf.PdfWriter;
+import com.itextpdf.text.pdf.RandomAccessFileOrArray;
 import com.itextpdf.text.pdf.SimpleBookmark;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.util.HashMap;
@@ -30,6 +30,7 @@ public class TwoUp {
      * @see com.lowagie.tools.AbstractTool#execute()
      */
     public static void execute(String srcvalue, String destvalue) {
+        File tmp = null;
         try {
             if (StringUtils.isBlank(srcvalue)) {
                 throw new InstantiationException("You need to choose a sourcefile");
@@ -39,18 +40,21 @@ public class TwoUp {
                 throw new InstantiationException("You need to choose a destination file");
             }
             File dest = new File(destvalue);
-            // we create a reader for a certain document
-            PdfReader reader = new PdfReader(src.getAbsolutePath());
+            // we create a reader for a certain document, in partial mode on a mapped file
+            PdfReader reader = new PdfReader(new RandomAccessFileOrArray(src.getAbsolutePath(), false, false), null);
             // we retrieve the total number of pages and the page size
             int total = reader.getNumberOfPages();
             System.out.println("There are " + total + " pages in the original file.");
+            // the writer closes the reader when the document is closed, read its outline first
+            HashMap<String, String> info = reader.getInfo();
+            List<HashMap<String, Object>> outlines = SimpleBookmark.getBookmark(reader);
             Rectangle pageSize = reader.getPageSize(1);
             Rectangle newSize = new Rectangle(pageSize.getWidth()*2, pageSize.getHeight());
             // step 1: creation of a document-object
             Document document = new Document(newSize, 0, 0, 0, 0);
             // step 2: we create a writer that listens to the document
-            ByteArrayOutputStream tmp = new ByteArrayOutputStream();
-            PdfWriter writer = PdfWriter.getInstance(document, tmp);
+            tmp = File.createTempFile("twoup", ".pdf", dest.getAbsoluteFile().getParentFile());
+            PdfWriter writer = PdfWriter.getInstance(document, new BufferedOutputStream(new FileOutputStream(tmp)));
             writer.setFullCompression();
             // step 3: we open the document
             document.open();
@@ -67,14 +71,14 @@ public class TwoUp {
                 }
                 page = writer.getImportedPage(reader, p);
                 cb.addTemplate(page, offsetX, 0);
+                reader.releasePage(p);
             }
             // step 5: we close the document
             document.close();
 
-            PdfReader reader2 = new PdfReader(new ByteArrayInputStream(tmp.toByteArray()));
+            PdfReader reader2 = new PdfReader(new RandomAccessFileOrArray(tmp.getPath(), false, false), null);
             PdfStamper stamper = new PdfStamper(reader2, new FileOutputStream(dest));
-            stamper.setMoreInfo(reader.getInfo());
-            List<HashMap<String, Object>> outlines = SimpleBookmark.getBookmark(reader);
+            stamper.setMoreInfo(info);
             for (int pageNum=1; pageNum<=total; pageNum++){
                 int[] range = {pageNum,pageNum};
                 int newPageNum = (pageNum / 2) + (pageNum % 2 != 0 ? 1 : 0);
@@ -82,8 +86,13 @@ public class TwoUp {
             }
             stamper.setOutlines(outlines);
             stamper.close();
+            reader.close();
         } catch (Exception e) {
             e.printStackTrace();
+        } finally {
+            if (tmp != null) {
+                tmp.delete();
+            }
         }
     }
 